@@ -1,4 +1,5 @@
 import buffer.OrderBookBuffer;
+import domain.SymbolRegistry;
 import domain.constants.Exchange;
 import domain.control.CommandMonitor;
 import domain.control.ControlCommand;
@@ -6,8 +7,8 @@ import org.knowm.xchange.currency.CurrencyPair;
 import rest.*;
 import services.BalanceCaptor;
 import services.control.ControlPad;
+import services.PreTradeRisk;
 import services.TradePublisher;
-import services.arbitrage.SpatialArbitragerV2;
 import services.journal.TradeJournaler;
 import streams.BitfinexExchangeStream;
 import streams.CoinbaseProExchangeStream;
@@ -21,10 +22,13 @@ import config.ConfigurationManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import util.task.BalanceCaptorTask;
+import util.task.BufferMetricsTask;
 import util.task.RestAPIRefreshTask;
 import services.MetadataAggregator;
 import services.arbitrage.SpatialArbitrager;
+import services.arbitrage.TriangularArbitrager;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
@@ -52,8 +56,9 @@ public class Application {
     // Setup Auxillary Services
     // TODO: setup a dependency injection framework
     TradeJournaler tradeJournaler = new TradeJournaler(config);
-    MetadataAggregator metadataAggregator = new MetadataAggregator();
-    BalanceCaptor balanceCaptor = new BalanceCaptor(metadataAggregator, activeExchangesPairMap);
+    SymbolRegistry symbolRegistry = new SymbolRegistry(activeExchangesPairMap);
+    MetadataAggregator metadataAggregator = new MetadataAggregator(symbolRegistry);
+    BalanceCaptor balanceCaptor = new BalanceCaptor(metadataAggregator, symbolRegistry);
 
     // Setup ExchangeRestAPIs
     GeminiExchangeRestAPI geminiExchangeRestAPI =
@@ -76,12 +81,22 @@ public class Application {
             coinbaseProExchangeRestAPI,
             bitfinexExchangeRestAPI,
             krakenExchangeRestAPI);
-    TradeBuffer tradeBuffer = new TradeBuffer(tradePublisher);
-    SpatialArbitrager spatialArbitrager =
-        new SpatialArbitrager(config, metadataAggregator, tradeBuffer, tradeJournaler);
-    SpatialArbitragerV2 spatialArbitragerV2 =
-        new SpatialArbitragerV2(config, metadataAggregator, tradeBuffer);
-    OrderBookBuffer orderBookBuffer = new OrderBookBuffer(spatialArbitrager, spatialArbitragerV2);
+    PreTradeRisk preTradeRisk = new PreTradeRisk(config);
+    TradeBuffer tradeBuffer =
+        new TradeBuffer(config.getApplicationConfig().getTradeBufferConfig().getDisruptorConfig());
+    // Journaling runs alongside the publisher, neither waits on the other
+    tradeBuffer.handleEventsWith(preTradeRisk).then(tradePublisher, tradeJournaler);
+    List<SpatialArbitrager> spatialArbitragers = new ArrayList<>();
+    for (int shard = 0; shard < config.getSpatialArbitragerConfig().getShards(); shard++) {
+      spatialArbitragers.add(
+          new SpatialArbitrager(config, metadataAggregator, tradeBuffer, symbolRegistry));
+    }
+    TriangularArbitrager triangularArbitrager =
+        config.getNAngularArbitragerConfig().isEnabled()
+            ? new TriangularArbitrager(config, metadataAggregator, tradeBuffer, symbolRegistry)
+            : null;
+    OrderBookBuffer orderBookBuffer =
+        new OrderBookBuffer(config, symbolRegistry, spatialArbitragers, triangularArbitrager);
 
     // Start Buffers
     tradeBuffer.start();
@@ -100,6 +115,8 @@ public class Application {
         Executors.newScheduledThreadPool(1, new ThreadFactory("RecurringTasks"));
     scheduledExecutorService.scheduleAtFixedRate(
         new BalanceCaptorTask(balanceCaptor), 0, 60, TimeUnit.SECONDS);
+    scheduledExecutorService.scheduleAtFixedRate(
+        new BufferMetricsTask(orderBookBuffer, tradeBuffer), 60, 60, TimeUnit.SECONDS);
     scheduledExecutorService.scheduleAtFixedRate(
         geminiAPIRefreshTask, 0, config.getGeminiConfig().getRefreshRate(), TimeUnit.SECONDS);
     scheduledExecutorService.scheduleAtFixedRate(
@@ -117,20 +134,23 @@ public class Application {
         cexAPIRefreshTask, 0, config.getBinanceConfig().getRefreshRate(), TimeUnit.SECONDS);
 
     // Setup WebSocket Streams
-    GeminiExchangeStream geminiExchangeStream = new GeminiExchangeStream(config, orderBookBuffer);
+    GeminiExchangeStream geminiExchangeStream =
+        new GeminiExchangeStream(config, orderBookBuffer, metadataAggregator);
     geminiExchangeStream.start();
-    KrakenExchangeStream krakenExchangeStream = new KrakenExchangeStream(config, orderBookBuffer);
+    KrakenExchangeStream krakenExchangeStream =
+        new KrakenExchangeStream(config, orderBookBuffer, metadataAggregator);
     krakenExchangeStream.start();
     CoinbaseProExchangeStream coinbaseProExchangeStream =
-        new CoinbaseProExchangeStream(config, orderBookBuffer);
+        new CoinbaseProExchangeStream(config, orderBookBuffer, metadataAggregator);
     coinbaseProExchangeStream.start();
     BitfinexExchangeStream bitfinexExchangeStream =
-        new BitfinexExchangeStream(config, orderBookBuffer);
+        new BitfinexExchangeStream(config, orderBookBuffer, metadataAggregator);
     bitfinexExchangeStream.start();
     BinanceExchangeStream binanceExchangeStream =
-        new BinanceExchangeStream(config, orderBookBuffer);
+        new BinanceExchangeStream(config, orderBookBuffer, metadataAggregator);
     binanceExchangeStream.start();
-    CexExchangeStream cexExchangeStream = new CexExchangeStream(config, orderBookBuffer);
+    CexExchangeStream cexExchangeStream =
+        new CexExchangeStream(config, orderBookBuffer, metadataAggregator);
     cexExchangeStream.start();
 
     while (true) {
@@ -140,6 +160,8 @@ public class Application {
         case "1":
           //Shutdown Application
           LOG.info("Shutting down application...");
+          // Halts submission of the intents still queued behind the command
+          tradeBuffer.insert(command);
 
           //Stream Shutdown
           geminiExchangeStream.shutdown();
@@ -0,0 +1,160 @@
+package buffer;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import com.lmax.disruptor.WaitStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * WaitStrategy that picks how hard consumers wait from the rate events are published at. The rate
+ * is measured off the ring's cursor over fixed windows, shared by every consumer of the ring. While
+ * it is at or above spinRate consumers busy-spin, at or above yieldRate they spin briefly then
+ * yield, and below it they spin, yield then park, so a quiet market costs next to no CPU while a
+ * burst is picked up without wake-up latency.
+ *
+ * <p>Consumers are never signalled, a parked consumer notices new events within parkNanos.
+ */
+public class AdaptiveWaitStrategy implements WaitStrategy {
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptiveWaitStrategy.class);
+
+  public enum Mode {
+    SPIN,
+    YIELD,
+    PARK
+  }
+
+  private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  // Iterations between rate checks while waiting
+  private static final int CHECK_MASK = 63;
+
+  private final long spinRate;
+  private final long yieldRate;
+
+  private final AtomicLong windowStart;
+  // Only written by the thread that rolled the window
+  private volatile long windowStartCursor;
+  private volatile long eventRate;
+  private volatile Mode mode = Mode.PARK;
+  private final AtomicLongArray transitions = new AtomicLongArray(Mode.values().length);
+
+  /**
+   * @param spinRate - events per second at or above which consumers busy-spin
+   * @param yieldRate - events per second at or above which consumers yield rather than park
+   */
+  public AdaptiveWaitStrategy(long spinRate, long yieldRate) {
+    this(spinRate, yieldRate, System.nanoTime());
+  }
+
+  AdaptiveWaitStrategy(long spinRate, long yieldRate, long now) {
+    if (yieldRate > spinRate) {
+      throw new IllegalArgumentException(
+          String.format("yieldRate %d exceeds spinRate %d", yieldRate, spinRate));
+    }
+    this.spinRate = spinRate;
+    this.yieldRate = yieldRate;
+    this.windowStart = new AtomicLong(now);
+    this.windowStartCursor = -1;
+  }
+
+  @Override
+  public long waitFor(
+      long sequence, Sequence cursor, Sequence dependentSequence, SequenceBarrier barrier)
+      throws AlertException {
+    Mode current = updateMode(System.nanoTime(), cursor.get());
+    long availableSequence;
+    int counter = 0;
+    while ((availableSequence = dependentSequence.get()) < sequence) {
+      barrier.checkAlert();
+      if ((++counter & CHECK_MASK) == 0) {
+        current = updateMode(System.nanoTime(), cursor.get());
+      }
+      pause(current, counter);
+    }
+    return availableSequence;
+  }
+
+  /**
+   * Waits once on behalf of a consumer that polls its rings rather than waiting on a barrier.
+   *
+   * @param idleCount - consecutive polls that found nothing, 0 on the first
+   * @param published - running count of events published, standing in for the ring cursor
+   */
+  public void idle(int idleCount, long published) {
+    Mode current =
+        (idleCount & CHECK_MASK) == 0 ? updateMode(System.nanoTime(), published) : mode;
+    pause(current, idleCount);
+  }
+
+  private static void pause(Mode current, int counter) {
+    if (current == Mode.SPIN || counter < SPIN_TRIES) {
+      Thread.onSpinWait();
+    } else if (current == Mode.YIELD || counter < SPIN_TRIES + YIELD_TRIES) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(PARK_NANOS);
+    }
+  }
+
+  @Override
+  public void signalAllWhenBlocking() {}
+
+  /**
+   * Rolls the measurement window once it has elapsed and re-derives the mode from the rate over
+   * it. Only one of the consumers racing past the window's end rolls it.
+   *
+   * @param cursor - highest sequence published
+   */
+  Mode updateMode(long now, long cursor) {
+    long start = windowStart.get();
+    long elapsed = now - start;
+    if (elapsed < WINDOW_NANOS || !windowStart.compareAndSet(start, now)) {
+      return mode;
+    }
+    long rate = (cursor - windowStartCursor) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    windowStartCursor = cursor;
+    eventRate = rate;
+
+    Mode next = rate >= spinRate ? Mode.SPIN : rate >= yieldRate ? Mode.YIELD : Mode.PARK;
+    if (next != mode) {
+      LOG.debug("Wait strategy {} -> {} at {} events/s", mode, next, rate);
+      mode = next;
+      transitions.incrementAndGet(next.ordinal());
+    }
+    return next;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /** @return events per second published over the last complete window */
+  public long getEventRate() {
+    return eventRate;
+  }
+
+  /** @return number of times consumers switched into mode */
+  public long getTransitionCount(Mode mode) {
+    return transitions.get(mode.ordinal());
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "AdaptiveWaitStrategy[mode=%s, rate=%d/s, transitions: spin=%d, yield=%d, park=%d]",
+        mode,
+        eventRate,
+        getTransitionCount(Mode.SPIN),
+        getTransitionCount(Mode.YIELD),
+        getTransitionCount(Mode.PARK));
+  }
+}
@@ -0,0 +1,10 @@
+package buffer;
+
+/**
+ * Counterpart of the Disruptor's BatchStartAware, for handlers deferring work to the end of a
+ * batch. A wrapper which filters events must call onBatchEnd when it drops the last event of a
+ * batch, since its delegate would otherwise never see endOfBatch set.
+ */
+public interface BatchEndAware {
+  void onBatchEnd();
+}
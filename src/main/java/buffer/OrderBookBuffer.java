@@ -1,86 +1,514 @@
 package buffer;
 
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventPoller;
 import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.SleepingWaitStrategy;
-import com.lmax.disruptor.dsl.Disruptor;
-import buffer.events.OrderBookEvent;
+import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.ProducerType;
+import buffer.events.OrderBookEvent;
+import config.Configuration;
+import domain.CompactOrderBook;
+import domain.OrderBookDelta;
+import domain.SymbolRegistry;
 import domain.constants.Exchange;
 import lombok.Builder;
-import org.knowm.xchange.currency.CurrencyPair;
-import org.knowm.xchange.dto.marketdata.OrderBook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import services.arbitrage.SpatialArbitrager;
-import services.arbitrage.SpatialArbitragerV2;
+import services.arbitrage.TriangularArbitrager;
 import util.ThreadFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
 /**
- * Disruptor-backed Buffer exclusively used for OrderBookEvents TODO: Consolidate message types and
- * buffer to a single generic classes? See
- * https://stackoverflow.com/questions/16845956/how-to-use-a-disruptor-with-multiple-message-types
+ * Disruptor-backed Buffer exclusively used for OrderBookEvents. Each exchange with listed pairs
+ * publishes into a ring of its own, so exchange streams never contend on a shared sequence. Every
+ * handler runs on its own consumer thread draining all the rings through one EventPoller per ring.
+ * Every consumer gates every ring, so a consumer stalled on one venue's events still backs up the
+ * rings of all venues once they fill. Per-venue rings only keep venues from contending while
+ * publishing.
+ *
+ * <p>Rings are SINGLE producer unless the profile opts into MULTI, so publishing claims a slot
+ * without a CAS. With SINGLE, each exchange must publish from one thread at a time. The first
+ * thread to publish owns the ring until releasePublisher is called, as streams do when they
+ * reconnect, and any other publishing thread fails fast with an IllegalStateException instead of
+ * corrupting the ring.
+ *
+ * <p>Consumers poll rather than wait on a barrier, so the rings are built with a wait strategy
+ * that never signals. The profile's wait strategy instead picks how an idle consumer backs off:
+ * BUSY_SPIN spins, YIELDING spins 100 times then yields, SLEEPING spins 100 times, yields 100 times
+ * then parks for 100ns at a time, and ADAPTIVE follows AdaptiveWaitStrategy. BLOCKING has no
+ * polling equivalent and is rejected.
  */
 public class OrderBookBuffer {
 
   private static Logger LOG = LoggerFactory.getLogger(OrderBookBuffer.class);
   private static final String bufferName = "orderbookBufferConsumer";
-  private Disruptor<OrderBookEvent> disruptor;
-  private RingBuffer ringBuffer;
+  // Events a consumer takes from one ring before moving on to the next
+  private static final int MAX_POLL_BATCH = 64;
+  private static final int SPIN_TRIES = 100;
+  private static final int YIELD_TRIES = 100;
+  private static final long PARK_NANOS = 100;
+
+  // Indexed by exchangeId, null for exchanges without listed pairs
+  private final RingBuffer<OrderBookEvent>[] rings;
+  // The non-null rings, in exchangeId order
+  private final RingBuffer<OrderBookEvent>[] activeRings;
+  // Indexed by exchangeId, the only thread allowed to publish to a SINGLE producer ring once it
+  // has published, null for MULTI producer rings
+  private final AtomicReferenceArray<Thread> publisherThreads;
+  private final List<PollingConsumer> consumers = new ArrayList<>();
+  private final List<Thread> consumerThreads = new ArrayList<>();
+  private final ThreadFactory threadFactory;
+  private final Configuration.WaitStrategy idleStrategy;
+  private final WaitStrategy waitStrategy;
+  private volatile boolean halted;
 
+  // Indexed by exchangeId * pairCount + pairId, null unless conflating
+  private final ConflationSlot[] conflationSlots;
+  // Per pairId, one bit per consumer whose handler takes the pair's updates, null unless conflating
+  private final long[] ownersByPair;
+  private final int pairCount;
+  private final AtomicLong receivedCount = new AtomicLong();
+  private final AtomicLong conflatedCount = new AtomicLong();
+
+  /**
+   * @param spatialArbitragers - one per shard, shard i is handed the pairs with pairId % shards == i
+   *     and runs on its own consumer thread
+   * @param triangularArbitrager - optional, run on its own consumer thread
+   */
   @Builder
-  public OrderBookBuffer(SpatialArbitrager spatialArbitrager, SpatialArbitragerV2 spatialArbitragerV2) {
-    // TODO: configurize disruptor parameters
-    this.disruptor =
-        new Disruptor(
-            OrderBookEvent::new,
-            1024,
-            new ThreadFactory(this.bufferName),
-            ProducerType.MULTI,
-            new SleepingWaitStrategy());
+  public OrderBookBuffer(
+      Configuration cfg,
+      SymbolRegistry symbolRegistry,
+      List<SpatialArbitrager> spatialArbitragers,
+      TriangularArbitrager triangularArbitrager) {
+    this(
+        cfg.getMaxDepth(),
+        symbolRegistry,
+        cfg.getApplicationConfig().getOrderBookBufferConfig().isConflate(),
+        cfg.getApplicationConfig().getOrderBookBufferConfig().getDisruptorConfig(),
+        handlers(spatialArbitragers, triangularArbitrager));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static EventHandler<OrderBookEvent>[] handlers(
+      List<? extends EventHandler<OrderBookEvent>> shards,
+      EventHandler<OrderBookEvent> triangularArbitrager) {
+    List<EventHandler<OrderBookEvent>> handlers = new ArrayList<>();
+    for (int i = 0; i < shards.size(); i++) {
+      handlers.add(
+          shards.size() == 1
+              ? shards.get(i)
+              : new PairPartitionedHandler(shards.get(i), i, shards.size()));
+    }
+    if (triangularArbitrager != null) {
+      handlers.add(triangularArbitrager);
+    }
+    return handlers.toArray(new EventHandler[0]);
+  }
+
+  /**
+   * @param depth - number of levels per side each ring slot holds, books published with more levels
+   *     are truncated and deltas may hold up to OrderBookDelta.capacityFor(depth) changes
+   * @param conflate - whether to coalesce pending updates per (exchange, pair), handlers then only
+   *     receive SNAPSHOTs of the latest book
+   * @param handlers - consumers run in parallel against each published event
+   */
+  @SafeVarargs
+  public OrderBookBuffer(
+      int depth,
+      SymbolRegistry symbolRegistry,
+      boolean conflate,
+      EventHandler<OrderBookEvent>... handlers) {
+    this(
+        depth,
+        symbolRegistry,
+        conflate,
+        Configuration.DisruptorConfig.orderBookDefaults(),
+        handlers);
+  }
+
+  /**
+   * @param disruptorConfig - ring size, producer type, idle policy and consumer threads of the
+   *     latency profile, rings are SINGLE producer unless it is MULTI and a BLOCKING wait strategy
+   *     is rejected
+   */
+  @SafeVarargs
+  @SuppressWarnings("unchecked")
+  public OrderBookBuffer(
+      int depth,
+      SymbolRegistry symbolRegistry,
+      boolean conflate,
+      Configuration.DisruptorConfig disruptorConfig,
+      EventHandler<OrderBookEvent>... handlers) {
+    this.pairCount = symbolRegistry.getPairCount();
+    if (conflate) {
+      this.conflationSlots = new ConflationSlot[symbolRegistry.getExchangeCount() * pairCount];
+      for (int i = 0; i < conflationSlots.length; i++) {
+        conflationSlots[i] = new ConflationSlot(depth);
+      }
+    } else {
+      this.conflationSlots = null;
+    }
+
+    if (disruptorConfig.getWaitStrategy() == Configuration.WaitStrategy.BLOCKING) {
+      throw new IllegalArgumentException(
+          "BLOCKING wait strategy is not supported by the polled OrderBookBuffer");
+    }
+    this.idleStrategy = disruptorConfig.getWaitStrategy();
+    this.waitStrategy = disruptorConfig.newWaitStrategy();
+    boolean singleProducer = disruptorConfig.getProducerType() != ProducerType.MULTI;
+    this.publisherThreads =
+        singleProducer ? new AtomicReferenceArray<>(symbolRegistry.getExchangeCount()) : null;
+    this.rings = new RingBuffer[symbolRegistry.getExchangeCount()];
+    List<RingBuffer<OrderBookEvent>> active = new ArrayList<>();
+    for (Exchange exchange : Exchange.values()) {
+      if (symbolRegistry.getCurrencyIds(exchange).isEmpty()) continue;
+      // Nobody waits on the rings' barriers, so publishers have no one to signal
+      rings[exchange.ordinal()] =
+          RingBuffer.create(
+              singleProducer ? ProducerType.SINGLE : ProducerType.MULTI,
+              OrderBookEvent.factory(depth),
+              disruptorConfig.getRingSize(),
+              new BusySpinWaitStrategy());
+      active.add(rings[exchange.ordinal()]);
+    }
+    this.activeRings = active.toArray(new RingBuffer[0]);
+
+    // Gated from the start so that nothing published before start() is overwritten
+    if (conflate && handlers.length > Long.SIZE) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Conflation supports up to %d handlers, got %d", Long.SIZE, handlers.length));
+    }
+    this.ownersByPair = conflate ? new long[pairCount] : null;
+    for (EventHandler<OrderBookEvent> handler : handlers) {
+      PollingConsumer consumer = new PollingConsumer(handler, depth, 1L << consumers.size());
+      consumers.add(consumer);
+      for (int pairId = 0; conflate && pairId < pairCount; pairId++) {
+        if (owns(handler, pairId)) ownersByPair[pairId] |= consumer.bit;
+      }
+    }
+    this.threadFactory =
+        new ThreadFactory(
+            this.bufferName, disruptorConfig.getThreadPriority(), disruptorConfig.getCpus());
+
+    LOG.info(
+        "Instantiated OrderBookBuffer, conflation {}, {} {} producer rings of size {}, {} idling",
+        conflate ? "enabled" : "disabled",
+        activeRings.length,
+        singleProducer ? ProducerType.SINGLE : ProducerType.MULTI,
+        disruptorConfig.getRingSize(),
+        disruptorConfig.getWaitStrategy());
+  }
+
+  /**
+   * Copies the levels of orderBook into the next ring slot as a SNAPSHOT. The caller keeps
+   * ownership of orderBook and may reuse it as soon as this returns.
+   */
+  public void insert(CompactOrderBook orderBook, Exchange exchange, int pairId) {
+    receivedCount.incrementAndGet();
+    long receivedAt = System.nanoTime();
+    if (conflationSlots != null) {
+      ConflationSlot slot = conflationSlots[exchange.ordinal() * pairCount + pairId];
+      synchronized (slot) {
+        slot.latest.copyFrom(orderBook);
+        slot.receivedAt = receivedAt;
+        if (!slot.markPending(ownersByPair[pairId])) return;
+      }
+      publishConflated(exchange, pairId);
+      return;
+    }
 
-    disruptor.handleEventsWith(spatialArbitrager);
-    //disruptor.handleEventsWith(spatialArbitragerV2);
-    //        disruptor.after(bookkeeper);
-    disruptor.setDefaultExceptionHandler(new ExceptionHandler<>());
+    RingBuffer<OrderBookEvent> ring = ringFor(exchange);
+    long sequence = ring.next();
+    try {
+      ring.get(sequence).setSnapshot(orderBook, exchange, pairId, receivedAt);
+    } finally {
+      ring.publish(sequence);
+    }
+  }
+
+  /**
+   * Copies level changes into the next ring slot as a DELTA against the last update published for
+   * the exchange and pair. A snapshot must have been published for them first.
+   */
+  public void insertDelta(OrderBookDelta delta, Exchange exchange, int pairId) {
+    receivedCount.incrementAndGet();
+    long receivedAt = System.nanoTime();
+    if (conflationSlots != null) {
+      ConflationSlot slot = conflationSlots[exchange.ordinal() * pairCount + pairId];
+      synchronized (slot) {
+        slot.latest.apply(delta);
+        slot.receivedAt = receivedAt;
+        if (!slot.markPending(ownersByPair[pairId])) return;
+      }
+      publishConflated(exchange, pairId);
+      return;
+    }
 
-    this.ringBuffer = disruptor.getRingBuffer();
+    RingBuffer<OrderBookEvent> ring = ringFor(exchange);
+    long sequence = ring.next();
+    try {
+      ring.get(sequence).setDelta(delta, exchange, pairId, receivedAt);
+    } finally {
+      ring.publish(sequence);
+    }
+  }
 
-    LOG.info("Instantiated OrderBookBuffer");
+  /**
+   * Publishes a HEARTBEAT for an exchange and pair whose latest message left their published levels
+   * unchanged, so handlers do not take the book for stale. Bypasses conflation and is not counted
+   * as a received update.
+   */
+  public void insertHeartbeat(Exchange exchange, int pairId) {
+    long receivedAt = System.nanoTime();
+    RingBuffer<OrderBookEvent> ring = ringFor(exchange);
+    long sequence = ring.next();
+    try {
+      ring.get(sequence).setHeartbeat(exchange, pairId, receivedAt);
+    } finally {
+      ring.publish(sequence);
+    }
   }
 
-  public void insert(OrderBook orderBook, Exchange exchange, CurrencyPair currencyPair) {
-    ringBuffer.publishEvent(OrderBookEvent.TRANSLATOR, orderBook, exchange, currencyPair);
+  /**
+   * Lets the next thread to publish for exchange take over its SINGLE producer ring, e.g. once a
+   * reconnected stream delivers on a new thread. The thread that published so far must have stopped
+   * publishing.
+   */
+  public void releasePublisher(Exchange exchange) {
+    if (publisherThreads != null) {
+      publisherThreads.set(exchange.ordinal(), null);
+    }
+  }
+
+  private RingBuffer<OrderBookEvent> ringFor(Exchange exchange) {
+    if (publisherThreads != null) {
+      Thread current = Thread.currentThread();
+      int exchangeId = exchange.ordinal();
+      if (publisherThreads.get(exchangeId) != current
+          && !publisherThreads.compareAndSet(exchangeId, null, current)) {
+        throw new IllegalStateException(
+            String.format(
+                "%s published from %s while owned by %s, set producer_type MULTI for its ring",
+                exchange, current.getName(), publisherThreads.get(exchangeId).getName()));
+      }
+    }
+    return rings[exchange.ordinal()];
+  }
+
+  private static boolean owns(EventHandler<OrderBookEvent> handler, int pairId) {
+    return !(handler instanceof PairPartitionedHandler)
+        || ((PairPartitionedHandler) handler).owns(pairId);
+  }
+
+  private void publishConflated(Exchange exchange, int pairId) {
+    RingBuffer<OrderBookEvent> ring = ringFor(exchange);
+    long sequence = ring.next();
+    try {
+      ring.get(sequence).setConflated(exchange, pairId);
+    } finally {
+      ring.publish(sequence);
+    }
+  }
+
+  RingBuffer<OrderBookEvent> getRing(Exchange exchange) {
+    return rings[exchange.ordinal()];
+  }
+
+  /** Number of updates inserted, whether or not they reached the ring. */
+  public long getReceivedCount() {
+    return receivedCount.get();
+  }
+
+  /** Number of updates folded into an update still pending for the same exchange and pair. */
+  public long getConflatedCount() {
+    return conflatedCount.get();
+  }
+
+  /**
+   * Wait strategy of the profile, an AdaptiveWaitStrategy drives the consumers' idling and exposes
+   * its mode and transitions. The rings themselves never wait on it.
+   */
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
   }
 
   public void start() {
-    disruptor.start();
-    LOG.info("Started OrderBookBuffer disruptor.");
+    for (PollingConsumer consumer : consumers) {
+      Thread thread = threadFactory.newThread(consumer);
+      consumerThreads.add(thread);
+      thread.start();
+    }
+    LOG.info("Started OrderBookBuffer consumers.");
   }
 
+  /** Stops the consumers once they have drained every ring. */
   public void shutdown() {
-    disruptor.shutdown();
-    LOG.info("Shut down OrderBookBuffer disruptor.");
+    halted = true;
+    for (Thread thread : consumerThreads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        LOG.warn("Interrupted while waiting for {} to drain.", thread.getName());
+        break;
+      }
+    }
+    LOG.info("OrderBookBuffer wait strategy at shutdown: {}", waitStrategy);
+    LOG.info(
+        "Shut down OrderBookBuffer consumers, {} of {} updates conflated.",
+        conflatedCount.get(),
+        receivedCount.get());
   }
 
-  private class ExceptionHandler<OrderBookEvent>
-      implements com.lmax.disruptor.ExceptionHandler<OrderBookEvent> {
-    @Override
-    public void handleEventException(Throwable ex, long sequence, Object event) {
-      LOG.error(
-          "Exception occurred while processing a {}.",
-          event.getClass().getSimpleName(),
-          ex);
+  /** Backs off after idleCount consecutive rounds found every ring empty. */
+  private void idle(int idleCount) {
+    switch (idleStrategy) {
+      case ADAPTIVE:
+        ((AdaptiveWaitStrategy) waitStrategy).idle(idleCount, receivedCount.get());
+        return;
+      case BUSY_SPIN:
+        Thread.onSpinWait();
+        return;
+      default:
+        // As the Disruptor's YieldingWaitStrategy and SleepingWaitStrategy back off
+        if (idleCount < SPIN_TRIES) {
+          Thread.onSpinWait();
+        } else if (idleStrategy == Configuration.WaitStrategy.YIELDING
+            || idleCount < SPIN_TRIES + YIELD_TRIES) {
+          Thread.yield();
+        } else {
+          LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+  }
+
+  /**
+   * Latest book for an (exchange, pair) along with the consumers that have yet to take it, one bit
+   * each. Guarded by its own monitor, contended only by the key's publisher and the consumers
+   * resolving it.
+   */
+  private class ConflationSlot {
+    private final CompactOrderBook latest;
+    private long receivedAt;
+    private long pending;
+
+    private ConflationSlot(int depth) {
+      this.latest = new CompactOrderBook(depth);
+    }
+
+    /**
+     * Update is only folded in while none of its owners has taken the slot since the last CONFLATED
+     * event, otherwise that owner would never see it.
+     *
+     * @return true if the caller must publish an event for this slot
+     */
+    private boolean markPending(long owners) {
+      if (pending == owners) {
+        conflatedCount.incrementAndGet();
+        return false;
+      }
+      pending = owners;
+      return true;
+    }
+  }
+
+  /**
+   * Consumer thread of a single handler. Each round visits the rings in exchangeId order and takes
+   * at most MAX_POLL_BATCH events from each, so a busy venue cannot starve the others. endOfBatch is
+   * set on the last event a round takes from a ring when no later ring has events waiting.
+   *
+   * <p>When conflating, a CONFLATED event is handed to the handler as a SNAPSHOT of the newest book
+   * for its key, copied into a scratch event so the ring slot is left for the other consumers. Only
+   * a consumer whose bit is still pending in the slot resolves it, the others, which do not own the
+   * pair or already took that book, get the CONFLATED event itself for its endOfBatch.
+   */
+  private class PollingConsumer implements Runnable, EventPoller.Handler<OrderBookEvent> {
+    private final EventHandler<OrderBookEvent> handler;
+    private final EventPoller<OrderBookEvent>[] pollers;
+    private final OrderBookEvent resolved;
+    private final long bit;
+    private int ringIndex;
+    private int polled;
+
+    @SuppressWarnings("unchecked")
+    private PollingConsumer(EventHandler<OrderBookEvent> handler, int depth, long bit) {
+      this.handler = handler;
+      this.bit = bit;
+      this.pollers = new EventPoller[activeRings.length];
+      for (int i = 0; i < activeRings.length; i++) {
+        pollers[i] = activeRings[i].newPoller();
+        activeRings[i].addGatingSequences(pollers[i].getSequence());
+      }
+      this.resolved = conflationSlots != null ? new OrderBookEvent(depth) : null;
     }
 
     @Override
-    public void handleOnStartException(Throwable ex) {
-      LOG.error("Failed to start the {} buffer.", bufferName, ex);
-      disruptor.shutdown();
+    public void run() {
+      int idleCount = 0;
+      while (true) {
+        boolean processed = false;
+        for (ringIndex = 0; ringIndex < pollers.length; ringIndex++) {
+          polled = 0;
+          try {
+            processed |= pollers[ringIndex].poll(this) == EventPoller.PollState.PROCESSING;
+          } catch (Exception e) {
+            LOG.error("Failed to poll the {} buffer.", bufferName, e);
+          }
+        }
+        if (processed) {
+          idleCount = 0;
+        } else if (halted) {
+          return;
+        } else {
+          idle(idleCount);
+          if (idleCount < Integer.MAX_VALUE) idleCount++;
+        }
+      }
     }
 
     @Override
-    public void handleOnShutdownException(Throwable ex) {
-      LOG.error("Error while shutting down the DisruptorCommandBus", ex);
+    public boolean onEvent(OrderBookEvent event, long sequence, boolean endOfBatch) {
+      boolean lastOfRing = endOfBatch || ++polled == MAX_POLL_BATCH;
+      if (event.type == OrderBookEvent.Type.CONFLATED) {
+        ConflationSlot slot = conflationSlots[event.exchange.ordinal() * pairCount + event.pairId];
+        synchronized (slot) {
+          if ((slot.pending & bit) != 0) {
+            resolved.setSnapshot(slot.latest, event.exchange, event.pairId, slot.receivedAt);
+            slot.pending &= ~bit;
+            event = resolved;
+          }
+        }
+      }
+      // Caught here, EventPoller would otherwise hand the same event over again
+      try {
+        handler.onEvent(event, sequence, lastOfRing && !pendingAfter(ringIndex));
+      } catch (Throwable ex) {
+        LOG.error("Exception occurred while processing a {}.", event.getClass().getSimpleName(), ex);
+      }
+      return !lastOfRing;
+    }
+
+    /** @return whether a ring after index has an event published and not yet polled */
+    private boolean pendingAfter(int index) {
+      for (int i = index + 1; i < pollers.length; i++) {
+        long consumed = pollers[i].getSequence().get();
+        long cursor = activeRings[i].getCursor();
+        // A MULTI producer ring's cursor also covers slots claimed but not yet published, which the
+        // poller cannot take until the next slot is published
+        if (cursor > consumed && activeRings[i].isPublished(consumed + 1)) {
+          return true;
+        }
+      }
+      return false;
     }
   }
 }
@@ -0,0 +1,47 @@
+package buffer;
+
+import buffer.events.OrderBookEvent;
+import com.lmax.disruptor.EventHandler;
+
+/**
+ * Forwards to its delegate only the events of the currency pairs in one partition, those with
+ * pairId % partitions == partition. Registering one instance per partition, each wrapping its own
+ * delegate, spreads pairs across consumer threads while every pair's state keeps a single writer.
+ * The end of a batch always reaches a BatchEndAware delegate, whichever pair its last event is for.
+ */
+public class PairPartitionedHandler implements EventHandler<OrderBookEvent> {
+  private final EventHandler<OrderBookEvent> delegate;
+  // Null unless the delegate defers work to the end of a batch
+  private final BatchEndAware batchEndAware;
+  private final int partition;
+  private final int partitions;
+
+  public PairPartitionedHandler(
+      EventHandler<OrderBookEvent> delegate, int partition, int partitions) {
+    if (partition < 0 || partition >= partitions) {
+      throw new IllegalArgumentException(
+          String.format("Partition %d outside of [0, %d)", partition, partitions));
+    }
+    this.delegate = delegate;
+    this.batchEndAware = delegate instanceof BatchEndAware ? (BatchEndAware) delegate : null;
+    this.partition = partition;
+    this.partitions = partitions;
+  }
+
+  @Override
+  public void onEvent(OrderBookEvent event, long sequence, boolean endOfBatch) throws Exception {
+    if (!owns(event.pairId)) {
+      if (endOfBatch && batchEndAware != null) batchEndAware.onBatchEnd();
+      return;
+    }
+    delegate.onEvent(event, sequence, endOfBatch);
+  }
+
+  public boolean owns(int pairId) {
+    return pairId % partitions == partition;
+  }
+
+  public EventHandler<OrderBookEvent> getDelegate() {
+    return delegate;
+  }
+}
@@ -1,58 +1,84 @@
 package buffer;
 
-import buffer.events.TradeEvent;
+import buffer.events.EngineEvent;
+import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.RingBuffer;
-import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
-import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.dsl.EventHandlerGroup;
+import config.Configuration;
 import domain.Trade;
+import domain.control.ControlCommand;
 import lombok.Builder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import services.TradePublisher;
 import util.ThreadFactory;
 
 /**
- * Disruptor-backed Buffer exclusively used for TradeEvents TODO: Consolidate message types and
- * buffer to a single generic classes? See
- * https://stackoverflow.com/questions/16845956/how-to-use-a-disruptor-with-multiple-message-types
+ * Disruptor-backed Buffer carrying every EngineEvent downstream of detection: trade intents and
+ * control commands share one ring so each stage sees them in publication order. Stages are chained
+ * with {@link #handleEventsWith} and EventHandlerGroup.then, e.g. risk then publisher, so an intent
+ * moves between them through its slot rather than through another queue.
  */
 public class TradeBuffer {
-  private static Logger LOG = LoggerFactory.getLogger(OrderBookBuffer.class);
+  private static Logger LOG = LoggerFactory.getLogger(TradeBuffer.class);
   private static final String bufferName = "tradeBufferConsumer";
-  private Disruptor<TradeEvent> disruptor;
-  private RingBuffer ringBuffer;
+  private Disruptor<EngineEvent> disruptor;
+  private RingBuffer<EngineEvent> ringBuffer;
+  private final WaitStrategy waitStrategy;
 
+  /** @param disruptorConfig - ring size, wait strategy and consumer threads of the latency profile */
   @Builder
-  public TradeBuffer(TradePublisher tradePublisher) {
-    // TODO: configurize disruptor parameters
+  public TradeBuffer(Configuration.DisruptorConfig disruptorConfig) {
+    this.waitStrategy = disruptorConfig.newWaitStrategy();
     this.disruptor =
-        new Disruptor(
-            TradeEvent::new,
-            1024,
-            new ThreadFactory(this.bufferName),
-            ProducerType.MULTI,
-            new SleepingWaitStrategy());
-
-    disruptor.handleEventsWith(tradePublisher);
+        new Disruptor<>(
+            EngineEvent::new,
+            disruptorConfig.getRingSize(),
+            new ThreadFactory(
+                this.bufferName, disruptorConfig.getThreadPriority(), disruptorConfig.getCpus()),
+            disruptorConfig.getProducerType(),
+            this.waitStrategy);
     disruptor.setDefaultExceptionHandler(new TradeBuffer.ExceptionHandler<>());
 
     this.ringBuffer = disruptor.getRingBuffer();
   }
 
   /**
-   * Publishes a TradeEvent containing two trades to the RingBuffer. Note the arguments' positional
+   * Registers the first stage, each handler on its own consumer thread. Must be called before
+   * start().
+   *
+   * @return group to chain later stages on with then(...)
+   */
+  @SafeVarargs
+  public final EventHandlerGroup<EngineEvent> handleEventsWith(
+      EventHandler<EngineEvent>... handlers) {
+    return disruptor.handleEventsWith(handlers);
+  }
+
+  /**
+   * Publishes a TRADE_INTENT containing two trades to the RingBuffer. Note the arguments' positional
    * requirements.
    *
    * @param trade1 - Trade corresponding to the BUY order at a lower price
    * @param trade2 - Trade corresponding to the SELL order at a higher price
    */
   public void insert(Trade trade1, Trade trade2) {
-    ringBuffer.publishEvent(TradeEvent.TRANSLATOR, trade1, trade2);
+    ringBuffer.publishEvent(EngineEvent.TRADE_INTENT_TRANSLATOR, trade1, trade2);
   }
 
   public void insert(Trade trade1, Trade trade2, Trade trade3) {
-    ringBuffer.publishEvent(TradeEvent.TRANSLATOR, trade1, trade2, trade3);
+    ringBuffer.publishEvent(EngineEvent.TRADE_INTENT_TRANSLATOR, trade1, trade2, trade3);
+  }
+
+  /** Publishes a CONTROL event, stages handle it after every intent published before it. */
+  public void insert(ControlCommand.Command command) {
+    ringBuffer.publishEvent(EngineEvent.CONTROL_TRANSLATOR, command);
+  }
+
+  /** Wait strategy of the consumers, an AdaptiveWaitStrategy exposes its mode and transitions. */
+  public WaitStrategy getWaitStrategy() {
+    return waitStrategy;
   }
 
   public void start() {
@@ -62,16 +88,17 @@ public class TradeBuffer {
 
   public void shutdown() {
     disruptor.shutdown();
+    LOG.info("TradeBuffer wait strategy at shutdown: {}", waitStrategy);
     LOG.info("Shut down TradeBuffer disruptor.");
   }
 
-  private class ExceptionHandler<TradeEvent>
-      implements com.lmax.disruptor.ExceptionHandler<TradeEvent> {
+  private class ExceptionHandler<EngineEvent>
+      implements com.lmax.disruptor.ExceptionHandler<EngineEvent> {
     @Override
     public void handleEventException(Throwable ex, long sequence, Object event) {
       LOG.error(
           "Exception occurred while processing a {}.",
-          ((TradeEvent) event).getClass().getSimpleName(),
+          ((EngineEvent) event).getClass().getSimpleName(),
           ex);
     }
 
@@ -0,0 +1,68 @@
+package buffer.events;
+
+import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.EventTranslatorVararg;
+import domain.Trade;
+import domain.control.ControlCommand;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Ring slot of the TradeBuffer, a tagged union of everything that flows downstream of detection.
+ * Stages read the payload matching type and may annotate the slot for later stages, e.g. the risk
+ * stage marks a TRADE_INTENT approved before the publisher sees it.
+ */
+@NoArgsConstructor
+@Setter
+@Getter
+public class EngineEvent {
+  public enum Type {
+    // Two spatial legs, BUY then SELL, or three triangular legs
+    TRADE_INTENT,
+    // Operator command, handled by each stage in sequence with the intents around it
+    CONTROL
+  }
+
+  private Type type;
+
+  // TRADE_INTENT
+  private Trade trade1;
+  private Trade trade2;
+  private Trade trade3;
+  // Set by the risk stage, publishers only submit approved intents
+  private boolean approved;
+
+  // CONTROL
+  private ControlCommand.Command command;
+
+  public static final EventTranslatorVararg<EngineEvent> TRADE_INTENT_TRANSLATOR =
+      new EventTranslatorVararg<EngineEvent>() {
+        @Override
+        public void translateTo(EngineEvent engineEvent, long l, Object... trades) {
+          engineEvent.clear(Type.TRADE_INTENT);
+          engineEvent.setTrade1((Trade) trades[0]);
+          engineEvent.setTrade2((Trade) trades[1]);
+
+          // Slots are reused, a two trade event must not keep a previous event's third trade
+          engineEvent.setTrade3(trades.length > 2 ? (Trade) trades[2] : null);
+        }
+      };
+
+  public static final EventTranslatorOneArg<EngineEvent, ControlCommand.Command>
+      CONTROL_TRANSLATOR =
+          (engineEvent, l, command) -> {
+            engineEvent.clear(Type.CONTROL);
+            engineEvent.setCommand(command);
+          };
+
+  /** Drops every payload of the slot's previous event. */
+  private void clear(Type type) {
+    this.type = type;
+    this.trade1 = null;
+    this.trade2 = null;
+    this.trade3 = null;
+    this.approved = false;
+    this.command = null;
+  }
+}
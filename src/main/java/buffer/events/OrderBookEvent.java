@@ -1,32 +1,74 @@
 package buffer.events;
 
-import com.lmax.disruptor.EventTranslatorThreeArg;
+import com.lmax.disruptor.EventFactory;
+import domain.CompactOrderBook;
+import domain.OrderBookDelta;
 import domain.constants.Exchange;
-import lombok.NoArgsConstructor;
-import lombok.Setter;
-import org.knowm.xchange.currency.CurrencyPair;
-import org.knowm.xchange.dto.marketdata.OrderBook;
 
-@NoArgsConstructor
-@Setter
+/**
+ * Ring slot for order book updates. An update is either a full SNAPSHOT of an (exchange, pair) book
+ * or a DELTA of level changes against the previous update published for it, or a HEARTBEAT when a
+ * message left the published levels unchanged. Pairs are identified by
+ * their SymbolRegistry id. Each slot owns a preallocated book and delta which publishers overwrite
+ * in place, so publishing never allocates. Handlers must copy out any levels they need beyond
+ * onEvent since the slot is reused once every handler has moved past it.
+ */
 public class OrderBookEvent {
-  public OrderBook orderBook;
+  public enum Type {
+    SNAPSHOT,
+    DELTA,
+    // Placeholder for the latest book of a conflated key, resolved to a SNAPSHOT for the handlers
+    // that have yet to take it, the others ignore it
+    CONFLATED,
+    // The venue is live but its published levels are unchanged, only refreshes the book's age
+    HEARTBEAT
+  }
+
+  public Type type;
+  public final CompactOrderBook orderBook;
+  public final OrderBookDelta delta;
   public Exchange exchange;
-  public CurrencyPair currencyPair;
-
-  public static final EventTranslatorThreeArg<OrderBookEvent, OrderBook, Exchange, CurrencyPair>
-      TRANSLATOR =
-          new EventTranslatorThreeArg<OrderBookEvent, OrderBook, Exchange, CurrencyPair>() {
-            @Override
-            public void translateTo(
-                OrderBookEvent event,
-                long sequence,
-                OrderBook arg0,
-                Exchange arg1,
-                CurrencyPair arg2) {
-              event.setOrderBook(arg0);
-              event.setExchange(arg1);
-              event.setCurrencyPair(arg2);
-            }
-          };
+  public int pairId;
+  // System.nanoTime() at which the update was inserted into the buffer
+  public long receivedAt;
+
+  public OrderBookEvent(int capacity) {
+    this.orderBook = new CompactOrderBook(capacity);
+    this.delta = new OrderBookDelta(OrderBookDelta.capacityFor(capacity));
+  }
+
+  public static EventFactory<OrderBookEvent> factory(int capacity) {
+    return () -> new OrderBookEvent(capacity);
+  }
+
+  public void setSnapshot(
+      CompactOrderBook orderBook, Exchange exchange, int pairId, long receivedAt) {
+    this.type = Type.SNAPSHOT;
+    this.orderBook.copyFrom(orderBook);
+    this.delta.clear();
+    this.exchange = exchange;
+    this.pairId = pairId;
+    this.receivedAt = receivedAt;
+  }
+
+  public void setConflated(Exchange exchange, int pairId) {
+    this.type = Type.CONFLATED;
+    this.exchange = exchange;
+    this.pairId = pairId;
+  }
+
+  public void setHeartbeat(Exchange exchange, int pairId, long receivedAt) {
+    this.type = Type.HEARTBEAT;
+    this.exchange = exchange;
+    this.pairId = pairId;
+    this.receivedAt = receivedAt;
+  }
+
+  public void setDelta(OrderBookDelta delta, Exchange exchange, int pairId, long receivedAt) {
+    this.type = Type.DELTA;
+    this.delta.copyFrom(delta);
+    this.exchange = exchange;
+    this.pairId = pairId;
+    this.receivedAt = receivedAt;
+  }
 }
@@ -1,5 +1,11 @@
 package config;
 
+import buffer.AdaptiveWaitStrategy;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.ProducerType;
 import domain.constants.Exchange;
 import lombok.Builder;
 import lombok.Getter;
@@ -8,7 +14,9 @@ import org.knowm.xchange.currency.CurrencyPair;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 @Builder
 @Getter
@@ -16,6 +24,8 @@ public class Configuration {
 
   private ApplicationConfig applicationConfig;
   private SpatialArbitragerConfig spatialArbitragerConfig;
+  private NAngularArbitragerConfig nAngularArbitragerConfig;
+  private RiskConfig riskConfig;
   private CoinbaseProConfig coinbaseProConfig;
   private KrakenConfig krakenConfig;
   private BitfinexConfig bitfinexConfig;
@@ -24,7 +34,17 @@ public class Configuration {
   private CexConfig cexConfig;
 
   public List<ExchangeConfig> getExchangeConfigs() {
-    return Arrays.asList(coinbaseProConfig, krakenConfig, bitfinexConfig, geminiConfig);
+    return Arrays.asList(
+        coinbaseProConfig, krakenConfig, bitfinexConfig, geminiConfig, binanceConfig, cexConfig);
+  }
+
+  /** Largest websocket depth across all exchanges, used to size preallocated order book slots. */
+  public int getMaxDepth() {
+    return getExchangeConfigs().stream()
+        .filter(Objects::nonNull)
+        .mapToInt(ExchangeConfig::getDepth)
+        .max()
+        .orElse(0);
   }
 
   @Builder
@@ -32,6 +52,97 @@ public class Configuration {
   public static class ApplicationConfig {
     int commandPort;
     JournalerConfig journalerConfig;
+    OrderBookBufferConfig orderBookBufferConfig;
+    TradeBufferConfig tradeBufferConfig;
+    // Name of the latency profile the buffers' disruptor configs were taken from
+    String latencyProfile;
+  }
+
+  @Builder
+  @Getter
+  public static class OrderBookBufferConfig {
+    // Coalesce pending updates per (exchange, pair) so the consumer only sees the latest book
+    boolean conflate;
+    DisruptorConfig disruptorConfig;
+  }
+
+  @Builder
+  @Getter
+  public static class TradeBufferConfig {
+    DisruptorConfig disruptorConfig;
+  }
+
+  /** Ring and consumer thread settings of a buffer, taken from the selected latency profile. */
+  @Builder
+  @Getter
+  public static class DisruptorConfig {
+    // Power of two
+    int ringSize;
+    WaitStrategy waitStrategy;
+    // SINGLE only if a single thread ever publishes to the buffer, for the OrderBookBuffer to each
+    // exchange's ring
+    ProducerType producerType;
+    // Cores consumer threads are pinned to, the i-th thread to cpus[i % cpus.size()], empty for none
+    List<Integer> cpus;
+    // 0 to leave the JVM default
+    int threadPriority;
+    // Events per second at or above which an ADAPTIVE wait strategy busy-spins
+    long spinRate;
+    // Events per second at or above which an ADAPTIVE wait strategy yields rather than parks
+    long yieldRate;
+
+    /** Settings the buffers used before profiles were configurable. */
+    public static DisruptorConfig defaults() {
+      return DisruptorConfig.builder()
+          .ringSize(1024)
+          .waitStrategy(WaitStrategy.SLEEPING)
+          .producerType(ProducerType.MULTI)
+          .cpus(Collections.emptyList())
+          .spinRate(5000)
+          .yieldRate(500)
+          .build();
+    }
+
+    /** Defaults of the OrderBookBuffer, each of whose rings has one exchange stream publishing. */
+    public static DisruptorConfig orderBookDefaults() {
+      return DisruptorConfig.builder()
+          .ringSize(1024)
+          .waitStrategy(WaitStrategy.SLEEPING)
+          .producerType(ProducerType.SINGLE)
+          .cpus(Collections.emptyList())
+          .spinRate(5000)
+          .yieldRate(500)
+          .build();
+    }
+
+    public com.lmax.disruptor.WaitStrategy newWaitStrategy() {
+      switch (waitStrategy) {
+        case BUSY_SPIN:
+          return new BusySpinWaitStrategy();
+        case YIELDING:
+          return new YieldingWaitStrategy();
+        case BLOCKING:
+          return new BlockingWaitStrategy();
+        case ADAPTIVE:
+          return new AdaptiveWaitStrategy(spinRate, yieldRate);
+        default:
+          return new SleepingWaitStrategy();
+      }
+    }
+  }
+
+  public enum WaitStrategy {
+    // Lowest latency, each consumer thread keeps a core fully busy
+    BUSY_SPIN,
+    // Spins then yields, near busy-spin latency while letting other threads on the core run
+    YIELDING,
+    // Spins, yields then parks briefly, low CPU at the cost of tail latency
+    SLEEPING,
+    // Waits on a lock until signalled, lowest CPU and highest latency. Not supported by the
+    // OrderBookBuffer, whose consumers poll
+    BLOCKING,
+    // Spins, yields or parks depending on the recent event rate, see AdaptiveWaitStrategy
+    ADAPTIVE
   }
 
   @Builder
@@ -45,6 +156,26 @@ public class Configuration {
   public static class SpatialArbitragerConfig {
     boolean enabled;
     BigDecimal minGain;
+    // Number of SpatialArbitrager instances, each consuming a disjoint partition of the pairs
+    int shards;
+    // How long an unchanged opportunity is suppressed for, 0 disables de-duplication
+    long dedupTtlMillis;
+  }
+
+  @Builder
+  @Getter
+  public static class NAngularArbitragerConfig {
+    boolean enabled;
+    BigDecimal minGain;
+    // How long a cycle is not re-published at unchanged leg prices, 0 disables de-duplication
+    long dedupTtlMillis;
+  }
+
+  @Builder
+  @Getter
+  public static class RiskConfig {
+    // Trade intents discovered longer ago are not submitted, 0 disables the check
+    long maxIntentAgeMillis;
   }
 
   @SuperBuilder
@@ -57,6 +188,8 @@ public class Configuration {
     String passphrase;
     List<CurrencyPair> currencyPairs;
     int depth;
+    // Age after which a book is considered stale if no update was received for it, 0 for never
+    long maxBookAgeMillis;
     int refreshRate;
   }
 
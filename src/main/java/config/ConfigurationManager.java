@@ -1,5 +1,6 @@
 package config;
 
+import com.lmax.disruptor.dsl.ProducerType;
 import domain.constants.Exchange;
 import lombok.Getter;
 import org.apache.commons.configuration2.YAMLConfiguration;
@@ -9,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.InputStream;
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -40,6 +42,12 @@ public class ConfigurationManager {
             k -> {
               LOG.debug(k);
             });
+    String latencyProfile =
+        yamlConfiguration.getString("application.latency_profile", "balanced");
+    String profilePrefix = "application.latency_profiles." + latencyProfile;
+    if (yamlConfiguration.subset(profilePrefix).isEmpty()) {
+      LOG.warn("Latency profile {} is not defined, using default buffer settings", latencyProfile);
+    }
     config =
         Configuration.builder()
             .applicationConfig(
@@ -49,11 +57,45 @@ public class ConfigurationManager {
                         Configuration.JournalerConfig.builder()
                             .enabled(yamlConfiguration.getBoolean("application.journaler.enabled"))
                             .build())
+                    .orderBookBufferConfig(
+                        Configuration.OrderBookBufferConfig.builder()
+                            .conflate(
+                                yamlConfiguration.getBoolean(
+                                    "application.orderbook_buffer.conflate", false))
+                            .disruptorConfig(
+                                polledDisruptorConfig(
+                                    yamlConfiguration, profilePrefix + ".orderbook_buffer"))
+                            .build())
+                    .tradeBufferConfig(
+                        Configuration.TradeBufferConfig.builder()
+                            .disruptorConfig(
+                                disruptorConfig(
+                                    yamlConfiguration,
+                                    profilePrefix + ".trade_buffer",
+                                    Configuration.DisruptorConfig.defaults()))
+                            .build())
+                    .latencyProfile(latencyProfile)
                     .build())
             .spatialArbitragerConfig(
                 Configuration.SpatialArbitragerConfig.builder()
                     .enabled(yamlConfiguration.getBoolean("strategies.spatial.enabled"))
                     .minGain(yamlConfiguration.getBigDecimal("strategies.spatial.min_gain"))
+                    .shards(shards(yamlConfiguration))
+                    .dedupTtlMillis(
+                        yamlConfiguration.getLong("strategies.spatial.dedup_ttl_ms", 1000L))
+                    .build())
+            .nAngularArbitragerConfig(
+                Configuration.NAngularArbitragerConfig.builder()
+                    .enabled(yamlConfiguration.getBoolean("strategies.n_angular.enabled"))
+                    .minGain(
+                        yamlConfiguration.getBigDecimal(
+                            "strategies.n_angular.min_gain", new BigDecimal("0.001")))
+                    .dedupTtlMillis(
+                        yamlConfiguration.getLong("strategies.n_angular.dedup_ttl_ms", 1000L))
+                    .build())
+            .riskConfig(
+                Configuration.RiskConfig.builder()
+                    .maxIntentAgeMillis(yamlConfiguration.getLong("risk.max_intent_age_ms", 0L))
                     .build())
             .coinbaseProConfig(
                 Configuration.CoinbaseProConfig.builder()
@@ -73,6 +115,8 @@ public class ConfigurationManager {
                         yamlConfiguration.getList(
                             CurrencyPair.class, "exchange.coinbase_pro.websocket.currency_pairs"))
                     .depth(yamlConfiguration.getInt("exchange.coinbase_pro.websocket.depth"))
+                    .maxBookAgeMillis(
+                        yamlConfiguration.getLong("exchange.coinbase_pro.websocket.max_book_age_ms", 0L))
                     .build())
             .bitfinexConfig(
                 Configuration.BitfinexConfig.builder()
@@ -87,6 +131,8 @@ public class ConfigurationManager {
                         yamlConfiguration.getList(
                             CurrencyPair.class, "exchange.bitfinex.websocket.currency_pairs"))
                     .depth(yamlConfiguration.getInt("exchange.bitfinex.websocket.depth"))
+                    .maxBookAgeMillis(
+                        yamlConfiguration.getLong("exchange.bitfinex.websocket.max_book_age_ms", 0L))
                     .build())
             .krakenConfig(
                 Configuration.KrakenConfig.builder()
@@ -100,6 +146,8 @@ public class ConfigurationManager {
                         yamlConfiguration.getList(
                             CurrencyPair.class, "exchange.kraken.websocket.currency_pairs"))
                     .depth(yamlConfiguration.getInt("exchange.kraken.websocket.depth"))
+                    .maxBookAgeMillis(
+                        yamlConfiguration.getLong("exchange.kraken.websocket.max_book_age_ms", 0L))
                     .build())
             .geminiConfig(
                 Configuration.GeminiConfig.builder()
@@ -113,6 +161,8 @@ public class ConfigurationManager {
                         yamlConfiguration.getList(
                             CurrencyPair.class, "exchange.gemini.websocket.currency_pairs"))
                     .depth(yamlConfiguration.getInt("exchange.gemini.websocket.depth"))
+                    .maxBookAgeMillis(
+                        yamlConfiguration.getLong("exchange.gemini.websocket.max_book_age_ms", 0L))
                     .build())
             .binanceConfig(
                 Configuration.BinanceConfig.builder()
@@ -126,6 +176,8 @@ public class ConfigurationManager {
                         yamlConfiguration.getList(
                             CurrencyPair.class, "exchange.binance.websocket.currency_pairs"))
                     .depth(yamlConfiguration.getInt("exchange.binance.websocket.depth"))
+                    .maxBookAgeMillis(
+                        yamlConfiguration.getLong("exchange.binance.websocket.max_book_age_ms", 0L))
                     .build())
             .cexConfig(
                 Configuration.CexConfig.builder()
@@ -140,7 +192,55 @@ public class ConfigurationManager {
                         yamlConfiguration.getList(
                             CurrencyPair.class, "exchange.cex.websocket.currency_pairs"))
                     .depth(yamlConfiguration.getInt("exchange.cex.websocket.depth"))
+                    .maxBookAgeMillis(
+                        yamlConfiguration.getLong("exchange.cex.websocket.max_book_age_ms", 0L))
                     .build())
             .build();
   }
+
+  /** Reads the number of SpatialArbitrager shards, each one a consumer of the order book buffer. */
+  private static int shards(YAMLConfiguration yamlConfiguration) {
+    int shards = yamlConfiguration.getInt("strategies.spatial.shards", 1);
+    if (shards < 1) {
+      throw new IllegalArgumentException(
+          "strategies.spatial.shards: " + shards + " is not supported, use 1 or more");
+    }
+    return shards;
+  }
+
+  /** Reads the settings of a buffer whose consumers poll, which cannot block on a lock. */
+  private static Configuration.DisruptorConfig polledDisruptorConfig(
+      YAMLConfiguration yamlConfiguration, String prefix) {
+    Configuration.DisruptorConfig disruptorConfig =
+        disruptorConfig(
+            yamlConfiguration, prefix, Configuration.DisruptorConfig.orderBookDefaults());
+    if (disruptorConfig.getWaitStrategy() == Configuration.WaitStrategy.BLOCKING) {
+      throw new IllegalArgumentException(
+          prefix + ".wait_strategy: BLOCKING is not supported, use SLEEPING or ADAPTIVE");
+    }
+    return disruptorConfig;
+  }
+
+  /** Reads a buffer's settings under prefix, any setting left out keeps its default. */
+  private static Configuration.DisruptorConfig disruptorConfig(
+      YAMLConfiguration yamlConfiguration,
+      String prefix,
+      Configuration.DisruptorConfig defaults) {
+    return Configuration.DisruptorConfig.builder()
+        .ringSize(yamlConfiguration.getInt(prefix + ".ring_size", defaults.getRingSize()))
+        .waitStrategy(
+            Configuration.WaitStrategy.valueOf(
+                yamlConfiguration.getString(
+                    prefix + ".wait_strategy", defaults.getWaitStrategy().name())))
+        .producerType(
+            ProducerType.valueOf(
+                yamlConfiguration.getString(
+                    prefix + ".producer_type", defaults.getProducerType().name())))
+        .cpus(yamlConfiguration.getList(Integer.class, prefix + ".cpus", defaults.getCpus()))
+        .threadPriority(
+            yamlConfiguration.getInt(prefix + ".thread_priority", defaults.getThreadPriority()))
+        .spinRate(yamlConfiguration.getLong(prefix + ".spin_rate", defaults.getSpinRate()))
+        .yieldRate(yamlConfiguration.getLong(prefix + ".yield_rate", defaults.getYieldRate()))
+        .build();
+  }
 }
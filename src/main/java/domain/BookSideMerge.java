@@ -0,0 +1,97 @@
+package domain;
+
+import util.FixedPoint;
+
+/**
+ * Lazily merges one side of several already sorted CompactOrderBooks into a single best-first
+ * sequence, asks ascending and bids descending, without copying or sorting any levels. Each call to
+ * {@link #next()} advances to the best level not yet visited, so a caller stopping at the crossing
+ * depth only pays for the levels it looked at. Books are slotted by index (e.g. exchange ordinal)
+ * and the head of each is found by a linear scan, which beats a heap for the handful of venues
+ * merged. Prices are compared and returned at a common price scale.
+ *
+ * <p>Not thread-safe, expected to be owned by a single pass at a time.
+ */
+public class BookSideMerge {
+  private final boolean bidSide;
+  private final int[] cursors;
+
+  private CompactOrderBook[] books;
+  private int priceScale;
+
+  private int book = -1;
+  private int level;
+  private long price;
+
+  /**
+   * @param books - number of book slots merged
+   * @param bidSide - true to merge bids, false to merge asks
+   */
+  public BookSideMerge(int books, boolean bidSide) {
+    this.bidSide = bidSide;
+    this.cursors = new int[books];
+  }
+
+  /**
+   * Restarts the merge from the top of each book.
+   *
+   * @param books - slotted books, null slots are skipped
+   * @param priceScale - scale prices are compared and returned at, no smaller than any book's
+   */
+  public void reset(CompactOrderBook[] books, int priceScale) {
+    this.books = books;
+    this.priceScale = priceScale;
+    this.book = -1;
+    for (int i = 0; i < cursors.length; i++) {
+      cursors[i] = 0;
+    }
+  }
+
+  /** @return false once every level of every book has been visited */
+  public boolean next() {
+    int best = -1;
+    long bestPrice = 0;
+    for (int i = 0; i < cursors.length; i++) {
+      CompactOrderBook candidate = books[i];
+      if (candidate == null) continue;
+      int count = bidSide ? candidate.getBidCount() : candidate.getAskCount();
+      if (cursors[i] >= count) continue;
+
+      long candidatePrice =
+          FixedPoint.rescale(
+              candidate.getPrice(bidSide, cursors[i]), candidate.getPriceScale(), priceScale);
+      // Strictly better only, so ties go to the lower slot
+      if (best == -1 || CompactOrderBook.isBetter(candidatePrice, bestPrice, bidSide)) {
+        best = i;
+        bestPrice = candidatePrice;
+      }
+    }
+    if (best == -1) {
+      book = -1;
+      return false;
+    }
+    book = best;
+    level = cursors[best]++;
+    price = bestPrice;
+    return true;
+  }
+
+  /** Slot of the book the current level belongs to. */
+  public int getBook() {
+    return book;
+  }
+
+  /** Position of the current level within its book. */
+  public int getLevel() {
+    return level;
+  }
+
+  /** Price of the current level, at the merge's price scale. */
+  public long getPrice() {
+    return price;
+  }
+
+  public long getQuantity() {
+    return books[book].getQuantity(bidSide, level);
+  }
+}
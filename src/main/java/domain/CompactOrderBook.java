@@ -0,0 +1,194 @@
+package domain;
+
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+import util.FixedPoint;
+
+import java.math.RoundingMode;
+import java.util.List;
+
+import static util.FixedPoint.QUANTITY_SCALE;
+
+/**
+ * Primitive order book holding sorted, parallel price and quantity arrays for each side. Asks are
+ * kept in ascending and bids in descending price order, truncated to a fixed capacity (normally the
+ * configured websocket depth). Prices are scaled longs at {@link #getPriceScale()}, quantities at
+ * {@link FixedPoint#QUANTITY_SCALE}.
+ */
+public class CompactOrderBook {
+  private final int capacity;
+  private int priceScale;
+
+  private final long[] askPrices;
+  private final long[] askQuantities;
+  private int askCount;
+
+  private final long[] bidPrices;
+  private final long[] bidQuantities;
+  private int bidCount;
+
+  public CompactOrderBook(int capacity) {
+    this.capacity = capacity;
+    this.askPrices = new long[capacity];
+    this.askQuantities = new long[capacity];
+    this.bidPrices = new long[capacity];
+    this.bidQuantities = new long[capacity];
+  }
+
+  /**
+   * Replaces the contents of this book with the levels of an XChange OrderBook. Levels are expected
+   * best-first, as XChange's streaming books are, so conversion stops at the first level falling
+   * outside of capacity. Asks are rounded up and bids down when they carry more decimal places than
+   * priceScale so that crossings are never overstated.
+   */
+  public void fill(OrderBook orderBook, int priceScale) {
+    this.priceScale = priceScale;
+    this.askCount =
+        fillSide(orderBook.getAsks(), askPrices, askQuantities, RoundingMode.CEILING, false);
+    this.bidCount =
+        fillSide(orderBook.getBids(), bidPrices, bidQuantities, RoundingMode.FLOOR, true);
+  }
+
+  private int fillSide(
+      List<LimitOrder> orders,
+      long[] prices,
+      long[] quantities,
+      RoundingMode roundingMode,
+      boolean bidSide) {
+    int count = 0;
+    for (int i = 0; i < orders.size(); i++) {
+      LimitOrder order = orders.get(i);
+      long price = FixedPoint.toScaled(order.getLimitPrice(), priceScale, roundingMode);
+      long quantity =
+          FixedPoint.toScaled(order.getOriginalAmount(), QUANTITY_SCALE, RoundingMode.DOWN);
+      if (quantity <= 0) continue;
+
+      int position = count;
+      while (position > 0 && isBetter(price, prices[position - 1], bidSide)) {
+        position--;
+      }
+      if (position > 0 && prices[position - 1] == price) {
+        // Merge levels which only become equal once rounded to priceScale
+        quantities[position - 1] += quantity;
+        continue;
+      }
+      if (position == capacity) break;
+      count = insertLevel(prices, quantities, count, position, price, quantity);
+    }
+    return count;
+  }
+
+  /** Shifts worse levels down to make room at position, dropping the last level when full. */
+  private int insertLevel(
+      long[] prices, long[] quantities, int count, int position, long price, long quantity) {
+    int newCount = Math.min(count + 1, capacity);
+    System.arraycopy(prices, position, prices, position + 1, newCount - 1 - position);
+    System.arraycopy(quantities, position, quantities, position + 1, newCount - 1 - position);
+    prices[position] = price;
+    quantities[position] = quantity;
+    return newCount;
+  }
+
+  /** Whether price ranks ahead of other, i.e. is higher for bids and lower for asks. */
+  static boolean isBetter(long price, long other, boolean bidSide) {
+    return bidSide ? price > other : price < other;
+  }
+
+  /**
+   * Applies level changes in place. A level is located by price, a zero quantity removes it and a
+   * new price is inserted at its sorted position. Inserts falling outside capacity are dropped.
+   */
+  public void apply(OrderBookDelta delta) {
+    for (int i = 0; i < delta.getCount(); i++) {
+      if (delta.isBidSide(i)) {
+        bidCount =
+            applyLevel(
+                bidPrices, bidQuantities, bidCount, delta.getPrice(i), delta.getQuantity(i), true);
+      } else {
+        askCount =
+            applyLevel(
+                askPrices, askQuantities, askCount, delta.getPrice(i), delta.getQuantity(i), false);
+      }
+    }
+  }
+
+  private int applyLevel(
+      long[] prices, long[] quantities, int count, long price, long quantity, boolean bidSide) {
+    int position = 0;
+    while (position < count && isBetter(prices[position], price, bidSide)) {
+      position++;
+    }
+    boolean exists = position < count && prices[position] == price;
+
+    if (quantity == 0) {
+      if (!exists) return count;
+      System.arraycopy(prices, position + 1, prices, position, count - position - 1);
+      System.arraycopy(quantities, position + 1, quantities, position, count - position - 1);
+      return count - 1;
+    } else if (exists) {
+      quantities[position] = quantity;
+      return count;
+    } else if (position == capacity) {
+      return count;
+    }
+    return insertLevel(prices, quantities, count, position, price, quantity);
+  }
+
+  /**
+   * Replaces the contents of this book with the levels of another, keeping at most capacity levels
+   * per side. Used to move books through preallocated ring slots without allocating.
+   */
+  public void copyFrom(CompactOrderBook source) {
+    this.priceScale = source.priceScale;
+    this.askCount = Math.min(source.askCount, capacity);
+    this.bidCount = Math.min(source.bidCount, capacity);
+    System.arraycopy(source.askPrices, 0, askPrices, 0, askCount);
+    System.arraycopy(source.askQuantities, 0, askQuantities, 0, askCount);
+    System.arraycopy(source.bidPrices, 0, bidPrices, 0, bidCount);
+    System.arraycopy(source.bidQuantities, 0, bidQuantities, 0, bidCount);
+  }
+
+  public boolean isEmpty() {
+    return askCount == 0 || bidCount == 0;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getPriceScale() {
+    return priceScale;
+  }
+
+  public int getAskCount() {
+    return askCount;
+  }
+
+  public long getAskPrice(int level) {
+    return askPrices[level];
+  }
+
+  public long getAskQuantity(int level) {
+    return askQuantities[level];
+  }
+
+  public int getBidCount() {
+    return bidCount;
+  }
+
+  public long getBidPrice(int level) {
+    return bidPrices[level];
+  }
+
+  public long getBidQuantity(int level) {
+    return bidQuantities[level];
+  }
+
+  long getPrice(boolean bidSide, int level) {
+    return bidSide ? bidPrices[level] : askPrices[level];
+  }
+
+  long getQuantity(boolean bidSide, int level) {
+    return bidSide ? bidQuantities[level] : askQuantities[level];
+  }
+}
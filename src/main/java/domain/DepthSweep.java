@@ -0,0 +1,239 @@
+package domain;
+
+import util.FixedPoint;
+
+import java.math.BigDecimal;
+
+import static util.FixedPoint.QUANTITY_SCALE;
+
+/**
+ * Sizes a two-leg trade by sweeping one book's asks against another book's bids at once, rather
+ * than matching level against level. Cumulative volume and notional arrays are built for both sides
+ * from the quantity a LiquidityOverlay leaves, and the largest quantity q for which income(q) *
+ * sellFactor >= cost(q) * buyFactor is then binary searched. The average price paid for the asks
+ * only rises with q and the average price received for the bids only falls, so the check is
+ * monotone. The result is meant to be submitted as one limit order per leg at the marginal level's
+ * price.
+ *
+ * <p>Notionals are accumulated as doubles, they only steer the search. The quantity found is then
+ * checked against exact 128-bit notionals and searched for again exactly if rounding let it through.
+ * Trade totals are computed exactly by {@link #getCost()} and {@link #getIncome()}.
+ *
+ * <p>Not thread-safe, expected to be reused by a single thread.
+ */
+public class DepthSweep {
+  private int levels;
+
+  // Per level, at the sweep's price scale and QUANTITY_SCALE
+  private long[] askPrices;
+  private long[] askVolumes;
+  private long[] bidPrices;
+  private long[] bidVolumes;
+  // [levels + 1], index k holds the sum over the first k levels
+  private long[] cumAskVolumes;
+  private double[] cumAskNotionals;
+  private long[] cumBidVolumes;
+  private double[] cumBidNotionals;
+
+  private int askCount;
+  private int bidCount;
+  private int priceScale;
+  private long buyFactor;
+  private long sellFactor;
+
+  private long quantity;
+  private int askLevel;
+  private int bidLevel;
+  // High word of the last exact notional
+  private long notionalHigh;
+
+  /** @param levels - initial number of levels per side, grown as needed */
+  public DepthSweep(int levels) {
+    allocate(levels);
+  }
+
+  private void allocate(int levels) {
+    this.levels = levels;
+    this.askPrices = new long[levels];
+    this.askVolumes = new long[levels];
+    this.bidPrices = new long[levels];
+    this.bidVolumes = new long[levels];
+    this.cumAskVolumes = new long[levels + 1];
+    this.cumAskNotionals = new double[levels + 1];
+    this.cumBidVolumes = new long[levels + 1];
+    this.cumBidNotionals = new double[levels + 1];
+  }
+
+  /**
+   * @param askBook - index of asks in liquidityOverlay
+   * @param bidBook - index of bids in liquidityOverlay
+   * @param priceScale - scale prices are compared at, at least that of both books
+   * @param buyFactor - see {@link FixedPoint#buyFactor}
+   * @param sellFactor - see {@link FixedPoint#sellFactor}
+   * @return the largest profitable quantity at QUANTITY_SCALE, 0 if the books do not cross
+   */
+  public long sweep(
+      CompactOrderBook asks,
+      int askBook,
+      CompactOrderBook bids,
+      int bidBook,
+      LiquidityOverlay liquidityOverlay,
+      int priceScale,
+      long buyFactor,
+      long sellFactor) {
+    int required = Math.max(asks.getAskCount(), bids.getBidCount());
+    if (required > levels) allocate(required);
+    this.priceScale = priceScale;
+    this.buyFactor = buyFactor;
+    this.sellFactor = sellFactor;
+
+    askCount = asks.getAskCount();
+    for (int i = 0; i < askCount; i++) {
+      askPrices[i] = FixedPoint.rescale(asks.getAskPrice(i), asks.getPriceScale(), priceScale);
+      askVolumes[i] = liquidityOverlay.remainingAsk(askBook, i, asks.getAskQuantity(i));
+      cumAskVolumes[i + 1] = cumAskVolumes[i] + askVolumes[i];
+      cumAskNotionals[i + 1] = cumAskNotionals[i] + (double) askPrices[i] * askVolumes[i];
+    }
+    bidCount = bids.getBidCount();
+    for (int i = 0; i < bidCount; i++) {
+      bidPrices[i] = FixedPoint.rescale(bids.getBidPrice(i), bids.getPriceScale(), priceScale);
+      bidVolumes[i] = liquidityOverlay.remainingBid(bidBook, i, bids.getBidQuantity(i));
+      cumBidVolumes[i + 1] = cumBidVolumes[i] + bidVolumes[i];
+      cumBidNotionals[i + 1] = cumBidNotionals[i] + (double) bidPrices[i] * bidVolumes[i];
+    }
+
+    quantity = search(Math.min(cumAskVolumes[askCount], cumBidVolumes[bidCount]), false);
+    if (quantity > 0 && !clearsExactly(quantity)) {
+      quantity = search(quantity - 1, true);
+    }
+    if (quantity > 0) {
+      askLevel = level(cumAskVolumes, askCount, quantity);
+      bidLevel = level(cumBidVolumes, bidCount, quantity);
+    }
+    return quantity;
+  }
+
+  /** @return the largest quantity in [0, high] that clears, 0 if none does */
+  private long search(long high, boolean exact) {
+    // Invariant: low is 0 or clears, nothing above high clears
+    long low = 0;
+    while (low < high) {
+      long mid = low + (high - low + 1) / 2;
+      if (exact ? clearsExactly(mid) : clears(mid)) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  private boolean clearsExactly(long quantity) {
+    long costLow = exactNotional(askPrices, askVolumes, askCount, quantity);
+    long costHigh = notionalHigh;
+    long incomeLow = exactNotional(bidPrices, bidVolumes, bidCount, quantity);
+    return FixedPoint.compareWideProducts(
+            notionalHigh, incomeLow, sellFactor, costHigh, costLow, buyFactor)
+        >= 0;
+  }
+
+  /**
+   * @return low word of the exact notional of quantity swept from the levels, its high word is left
+   *     in notionalHigh
+   */
+  private long exactNotional(long[] prices, long[] volumes, int count, long quantity) {
+    long high = 0;
+    long low = 0;
+    long remaining = quantity;
+    for (int i = 0; i < count && remaining > 0; i++) {
+      long taken = Math.min(volumes[i], remaining);
+      remaining -= taken;
+      long product = prices[i] * taken;
+      long sum = low + product;
+      high +=
+          FixedPoint.multiplyHighUnsigned(prices[i], taken)
+              + (Long.compareUnsigned(sum, low) < 0 ? 1 : 0);
+      low = sum;
+    }
+    notionalHigh = high;
+    return low;
+  }
+
+  private boolean clears(long quantity) {
+    double cost = notional(cumAskVolumes, cumAskNotionals, askPrices, askCount, quantity);
+    double income = notional(cumBidVolumes, cumBidNotionals, bidPrices, bidCount, quantity);
+    return income * sellFactor >= cost * buyFactor;
+  }
+
+  private static double notional(
+      long[] cumVolumes, double[] cumNotionals, long[] prices, int count, long quantity) {
+    int level = level(cumVolumes, count, quantity);
+    return cumNotionals[level] + (double) prices[level] * (quantity - cumVolumes[level]);
+  }
+
+  /** @return the level holding the quantity-th unit, quantity must be in (0, cumVolumes[count]] */
+  private static int level(long[] cumVolumes, int count, long quantity) {
+    // Lowest k in [1, count] with cumVolumes[k] >= quantity, skipping over empty levels
+    int low = 1;
+    int high = count;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (cumVolumes[mid] >= quantity) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return low - 1;
+  }
+
+  /** Records the swept quantity as consumed from both books' levels. */
+  public void consume(LiquidityOverlay liquidityOverlay, int askBook, int bidBook) {
+    for (int i = 0; i <= askLevel; i++) {
+      long taken = Math.min(askVolumes[i], quantity - cumAskVolumes[i]);
+      if (taken > 0) liquidityOverlay.consumeAsk(askBook, i, taken);
+    }
+    for (int i = 0; i <= bidLevel; i++) {
+      long taken = Math.min(bidVolumes[i], quantity - cumBidVolumes[i]);
+      if (taken > 0) liquidityOverlay.consumeBid(bidBook, i, taken);
+    }
+  }
+
+  /** Quantity found by the last sweep, at QUANTITY_SCALE. */
+  public long getQuantity() {
+    return quantity;
+  }
+
+  /** Limit price of the buy leg, i.e. the price of the highest ask swept, at the sweep's scale. */
+  public long getAskPrice() {
+    return askPrices[askLevel];
+  }
+
+  /** Limit price of the sell leg, i.e. the price of the lowest bid swept, at the sweep's scale. */
+  public long getBidPrice() {
+    return bidPrices[bidLevel];
+  }
+
+  /** Exact cost of the swept asks before fees. */
+  public BigDecimal getCost() {
+    return total(askPrices, askVolumes, cumAskVolumes, askLevel);
+  }
+
+  /** Exact income of the swept bids before fees. */
+  public BigDecimal getIncome() {
+    return total(bidPrices, bidVolumes, cumBidVolumes, bidLevel);
+  }
+
+  private BigDecimal total(long[] prices, long[] volumes, long[] cumVolumes, int lastLevel) {
+    BigDecimal total = BigDecimal.ZERO;
+    for (int i = 0; i <= lastLevel; i++) {
+      long taken = Math.min(volumes[i], quantity - cumVolumes[i]);
+      if (taken <= 0) continue;
+      total =
+          total.add(
+              FixedPoint.toBigDecimal(prices[i], priceScale)
+                  .multiply(FixedPoint.toBigDecimal(taken, QUANTITY_SCALE)));
+    }
+    return total;
+  }
+}
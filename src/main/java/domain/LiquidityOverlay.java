@@ -0,0 +1,86 @@
+package domain;
+
+import java.util.Arrays;
+
+/**
+ * Records the quantity consumed from book levels during a single arbitrage pass as per-level
+ * offsets, so the books themselves are never mutated and may be shared as read-only snapshots.
+ * Levels are addressed by a book index (e.g. exchange ordinal) and a level index within that book.
+ * Offsets are stamped with a generation so that {@link #reset()} clears every level in O(1).
+ *
+ * <p>Not thread-safe, expected to be owned by a single pass at a time.
+ */
+public class LiquidityOverlay {
+  private final int books;
+  private final int levels;
+
+  private final long[] askConsumed;
+  private final int[] askGenerations;
+  private final long[] bidConsumed;
+  private final int[] bidGenerations;
+  private int generation = 1;
+
+  /**
+   * @param books - number of books addressed by the pass
+   * @param levels - maximum number of levels per side of each book
+   */
+  public LiquidityOverlay(int books, int levels) {
+    this.books = books;
+    this.levels = levels;
+    this.askConsumed = new long[books * levels];
+    this.askGenerations = new int[books * levels];
+    this.bidConsumed = new long[books * levels];
+    this.bidGenerations = new int[books * levels];
+  }
+
+  /** Discards every recorded offset, starting a new pass. */
+  public void reset() {
+    if (++generation == 0) {
+      // Stamps from 2^32 passes ago would otherwise become current again
+      Arrays.fill(askGenerations, 0);
+      Arrays.fill(bidGenerations, 0);
+      generation = 1;
+    }
+  }
+
+  /** @return quantity left at an ask level holding quantity once this pass' offsets are applied */
+  public long remainingAsk(int book, int level, long quantity) {
+    return remaining(askConsumed, askGenerations, book, level, quantity);
+  }
+
+  /** @return quantity left at a bid level holding quantity once this pass' offsets are applied */
+  public long remainingBid(int book, int level, long quantity) {
+    return remaining(bidConsumed, bidGenerations, book, level, quantity);
+  }
+
+  public void consumeAsk(int book, int level, long quantity) {
+    consume(askConsumed, askGenerations, book, level, quantity);
+  }
+
+  public void consumeBid(int book, int level, long quantity) {
+    consume(bidConsumed, bidGenerations, book, level, quantity);
+  }
+
+  private long remaining(long[] consumed, int[] generations, int book, int level, long quantity) {
+    int index = book * levels + level;
+    if (generations[index] != generation) return quantity;
+    return Math.max(0, quantity - consumed[index]);
+  }
+
+  private void consume(long[] consumed, int[] generations, int book, int level, long quantity) {
+    int index = book * levels + level;
+    if (generations[index] != generation) {
+      generations[index] = generation;
+      consumed[index] = 0;
+    }
+    consumed[index] += quantity;
+  }
+
+  public int getBooks() {
+    return books;
+  }
+
+  public int getLevels() {
+    return levels;
+  }
+}
@@ -0,0 +1,117 @@
+package domain;
+
+/**
+ * Level changes that turn one CompactOrderBook into the next, held in preallocated parallel arrays.
+ * Each change carries a side, a price and the level's new quantity, where a quantity of zero removes
+ * the level. Removals are ordered ahead of other changes on the same side so that applying the delta
+ * never overflows a book's capacity.
+ */
+public class OrderBookDelta {
+  private final int capacity;
+
+  private final boolean[] bidSides;
+  private final long[] prices;
+  private final long[] quantities;
+  private int count;
+
+  public OrderBookDelta(int capacity) {
+    this.capacity = capacity;
+    this.bidSides = new boolean[capacity];
+    this.prices = new long[capacity];
+    this.quantities = new long[capacity];
+  }
+
+  /**
+   * Number of changes a delta needs to hold to describe any transition between two books of the
+   * given depth: every existing level removed and every new level added, on both sides.
+   */
+  public static int capacityFor(int depth) {
+    return 4 * depth;
+  }
+
+  /**
+   * Replaces the contents of this delta with the changes that turn previous into current. Both books
+   * are expected to share a price scale.
+   *
+   * @return false if the changes do not fit within this delta's capacity, its contents are then
+   *     undefined
+   */
+  public boolean compute(CompactOrderBook previous, CompactOrderBook current) {
+    count = 0;
+    return diffSide(previous, current, false) && diffSide(previous, current, true);
+  }
+
+  private boolean diffSide(CompactOrderBook previous, CompactOrderBook current, boolean bidSide) {
+    int previousCount = bidSide ? previous.getBidCount() : previous.getAskCount();
+    int currentCount = bidSide ? current.getBidCount() : current.getAskCount();
+
+    // Removals first, levels of previous missing from current
+    for (int i = 0, j = 0; i < previousCount; i++) {
+      long price = previous.getPrice(bidSide, i);
+      while (j < currentCount
+          && CompactOrderBook.isBetter(current.getPrice(bidSide, j), price, bidSide)) {
+        j++;
+      }
+      if (j == currentCount || current.getPrice(bidSide, j) != price) {
+        if (!add(bidSide, price, 0)) return false;
+      }
+    }
+    // Then additions and quantity changes, levels of current missing from or differing in previous
+    for (int i = 0, j = 0; j < currentCount; j++) {
+      long price = current.getPrice(bidSide, j);
+      long quantity = current.getQuantity(bidSide, j);
+      while (i < previousCount
+          && CompactOrderBook.isBetter(previous.getPrice(bidSide, i), price, bidSide)) {
+        i++;
+      }
+      if (i == previousCount
+          || previous.getPrice(bidSide, i) != price
+          || previous.getQuantity(bidSide, i) != quantity) {
+        if (!add(bidSide, price, quantity)) return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return false if this delta is full */
+  public boolean add(boolean bidSide, long price, long quantity) {
+    if (count == capacity) return false;
+    bidSides[count] = bidSide;
+    prices[count] = price;
+    quantities[count] = quantity;
+    count++;
+    return true;
+  }
+
+  public void clear() {
+    count = 0;
+  }
+
+  /** Copies the changes of another delta, which must fit within this delta's capacity. */
+  public void copyFrom(OrderBookDelta source) {
+    this.count = source.count;
+    System.arraycopy(source.bidSides, 0, bidSides, 0, count);
+    System.arraycopy(source.prices, 0, prices, 0, count);
+    System.arraycopy(source.quantities, 0, quantities, 0, count);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public boolean isBidSide(int index) {
+    return bidSides[index];
+  }
+
+  public long getPrice(int index) {
+    return prices[index];
+  }
+
+  public long getQuantity(int index) {
+    return quantities[index];
+  }
+}
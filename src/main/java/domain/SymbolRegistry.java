@@ -0,0 +1,123 @@
+package domain;
+
+import domain.constants.Exchange;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.currency.CurrencyPair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Dense int ids for the exchanges, currency pairs and currencies traded in a session, assigned once
+ * at startup from the active exchange/pair configuration. Hot paths index flat arrays by these ids
+ * instead of hashing CurrencyPair and Currency objects. Exchange ids are their enum ordinals, pair
+ * and currency ids follow their symbols' alphabetical order.
+ *
+ * <p>Immutable once built, so it is safe to share across threads.
+ */
+public class SymbolRegistry {
+  private static final Exchange[] EXCHANGES = Exchange.values();
+
+  private final CurrencyPair[] currencyPairs;
+  private final Map<CurrencyPair, Integer> pairIds = new HashMap<>();
+  private final Currency[] currencies;
+  private final Map<Currency, Integer> currencyIds = new HashMap<>();
+
+  private final int[] baseCurrencyIds;
+  private final int[] counterCurrencyIds;
+  // [exchangeId][pairId], whether the exchange streams the pair
+  private final boolean[][] listed;
+
+  public SymbolRegistry(Map<Exchange, List<CurrencyPair>> activeExchangesPairMap) {
+    TreeSet<CurrencyPair> pairs = new TreeSet<>(Comparator.comparing(CurrencyPair::toString));
+    TreeSet<Currency> currencySet = new TreeSet<>(Comparator.comparing(Currency::getCurrencyCode));
+    activeExchangesPairMap.values().forEach(pairs::addAll);
+    pairs.forEach(
+        pair -> {
+          currencySet.add(pair.base);
+          currencySet.add(pair.counter);
+        });
+
+    this.currencyPairs = pairs.toArray(new CurrencyPair[0]);
+    this.currencies = currencySet.toArray(new Currency[0]);
+    for (int i = 0; i < currencyPairs.length; i++) pairIds.put(currencyPairs[i], i);
+    for (int i = 0; i < currencies.length; i++) currencyIds.put(currencies[i], i);
+
+    this.baseCurrencyIds = new int[currencyPairs.length];
+    this.counterCurrencyIds = new int[currencyPairs.length];
+    for (int i = 0; i < currencyPairs.length; i++) {
+      baseCurrencyIds[i] = currencyIds.get(currencyPairs[i].base);
+      counterCurrencyIds[i] = currencyIds.get(currencyPairs[i].counter);
+    }
+
+    this.listed = new boolean[EXCHANGES.length][currencyPairs.length];
+    activeExchangesPairMap.forEach(
+        (exchange, exchangePairs) ->
+            exchangePairs.forEach(pair -> listed[exchange.ordinal()][pairIds.get(pair)] = true));
+  }
+
+  public int getExchangeCount() {
+    return EXCHANGES.length;
+  }
+
+  public int getPairCount() {
+    return currencyPairs.length;
+  }
+
+  public int getCurrencyCount() {
+    return currencies.length;
+  }
+
+  public Exchange getExchange(int exchangeId) {
+    return EXCHANGES[exchangeId];
+  }
+
+  /** @return the pair's id, or -1 if no active exchange trades it */
+  public int getPairId(CurrencyPair currencyPair) {
+    Integer pairId = pairIds.get(currencyPair);
+    return pairId == null ? -1 : pairId;
+  }
+
+  public CurrencyPair getCurrencyPair(int pairId) {
+    return currencyPairs[pairId];
+  }
+
+  /** @return the currency's id, or -1 if no active pair contains it */
+  public int getCurrencyId(Currency currency) {
+    Integer currencyId = currencyIds.get(currency);
+    return currencyId == null ? -1 : currencyId;
+  }
+
+  public Currency getCurrency(int currencyId) {
+    return currencies[currencyId];
+  }
+
+  public int getBaseCurrencyId(int pairId) {
+    return baseCurrencyIds[pairId];
+  }
+
+  public int getCounterCurrencyId(int pairId) {
+    return counterCurrencyIds[pairId];
+  }
+
+  public boolean isListed(Exchange exchange, int pairId) {
+    return listed[exchange.ordinal()][pairId];
+  }
+
+  /** @return ids of the currencies in any pair the exchange streams */
+  public List<Integer> getCurrencyIds(Exchange exchange) {
+    TreeSet<Integer> ids = new TreeSet<>();
+    for (int pairId = 0; pairId < currencyPairs.length; pairId++) {
+      if (listed[exchange.ordinal()][pairId]) {
+        ids.add(baseCurrencyIds[pairId]);
+        ids.add(counterCurrencyIds[pairId]);
+      }
+    }
+    return Collections.unmodifiableList(new ArrayList<>(ids));
+  }
+}
@@ -19,11 +19,12 @@ import java.util.UUID;
 
 @Getter
 @Setter
-@Builder
+@Builder(toBuilder = true)
 @ToString
 public class Trade {
   private Exchange exchange;
   private CurrencyPair currencyPair;
+  private int pairId; // SymbolRegistry id of currencyPair
   private OrderType orderType; // Limit, Stop, or Market Order.
   private Order.OrderType orderActionType; // BID, ASK, EXIT_BID, EXIT_ASK
   private BigDecimal price;
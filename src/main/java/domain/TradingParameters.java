@@ -0,0 +1,138 @@
+package domain;
+
+import domain.constants.Exchange;
+import org.knowm.xchange.dto.account.Fee;
+import org.knowm.xchange.dto.meta.CurrencyPairMetaData;
+import util.FixedPoint;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+import static util.FixedPoint.QUANTITY_SCALE;
+
+/**
+ * Immutable snapshot of the fees, minimum order amount and price scale of every (exchange, pair),
+ * held in flat arrays indexed by exchangeId * pairCount + pairId. An (exchange, pair) is ready once
+ * both its fees and its minimum order amount are known, readiness is kept in a bitmap so the
+ * arbitrage hot paths skip pairs without metadata with a single bit test instead of null checks
+ * and log lines. Built off the hot paths by MetadataAggregator on every refresh and published by
+ * swapping a single volatile reference, so readers always see a consistent set.
+ */
+public final class TradingParameters {
+  private final int pairCount;
+
+  private final BigDecimal[] takerFees;
+  private final BigDecimal[] makerFees;
+  // (1 + takerFee) at FACTOR_SCALE, rounded up, 0 where unknown
+  private final long[] takerBuyFactors;
+  private final BigDecimal[] minimumOrderAmounts;
+  // At QUANTITY_SCALE, rounded up
+  private final long[] minimumVolumes;
+  // -1 where unknown
+  private final int[] priceScales;
+  private final long[] ready;
+
+  private TradingParameters(Builder builder) {
+    this.pairCount = builder.pairCount;
+    // Copied, the builder may keep being updated
+    this.takerFees = builder.takerFees.clone();
+    this.makerFees = builder.makerFees.clone();
+    this.takerBuyFactors = builder.takerBuyFactors.clone();
+    this.minimumOrderAmounts = builder.minimumOrderAmounts.clone();
+    this.minimumVolumes = builder.minimumVolumes.clone();
+    this.priceScales = builder.priceScales.clone();
+    this.ready = new long[(takerFees.length + 63) >>> 6];
+    for (int i = 0; i < takerFees.length; i++) {
+      if (takerFees[i] != null && minimumOrderAmounts[i] != null) {
+        ready[i >>> 6] |= 1L << i;
+      }
+    }
+  }
+
+  private int index(Exchange exchange, int pairId) {
+    return exchange.ordinal() * pairCount + pairId;
+  }
+
+  /** Whether fees and the minimum order amount are known, every other getter requires it. */
+  public boolean isReady(Exchange exchange, int pairId) {
+    int index = index(exchange, pairId);
+    return (ready[index >>> 6] & (1L << index)) != 0;
+  }
+
+  public BigDecimal getTakerFee(Exchange exchange, int pairId) {
+    return takerFees[index(exchange, pairId)];
+  }
+
+  public BigDecimal getMakerFee(Exchange exchange, int pairId) {
+    return makerFees[index(exchange, pairId)];
+  }
+
+  /** Multiplier from the cost of a taker buy to what it spends with fees, at FACTOR_SCALE. */
+  public long getTakerBuyFactor(Exchange exchange, int pairId) {
+    return takerBuyFactors[index(exchange, pairId)];
+  }
+
+  public BigDecimal getMinimumOrderAmount(Exchange exchange, int pairId) {
+    return minimumOrderAmounts[index(exchange, pairId)];
+  }
+
+  /** Minimum order amount at {@link FixedPoint#QUANTITY_SCALE}. */
+  public long getMinimumVolume(Exchange exchange, int pairId) {
+    return minimumVolumes[index(exchange, pairId)];
+  }
+
+  /** @return the price scale published by the exchange, or -1 if it has not published one */
+  public int getPriceScale(Exchange exchange, int pairId) {
+    return priceScales[index(exchange, pairId)];
+  }
+
+  /** Collects parameters for a SymbolRegistry's exchanges and pairs, unset ones are not ready. */
+  public static class Builder {
+    private final int pairCount;
+    private final BigDecimal[] takerFees;
+    private final BigDecimal[] makerFees;
+    private final long[] takerBuyFactors;
+    private final BigDecimal[] minimumOrderAmounts;
+    private final long[] minimumVolumes;
+    private final int[] priceScales;
+
+    public Builder(SymbolRegistry symbolRegistry) {
+      this.pairCount = symbolRegistry.getPairCount();
+      int size = symbolRegistry.getExchangeCount() * pairCount;
+      this.takerFees = new BigDecimal[size];
+      this.makerFees = new BigDecimal[size];
+      this.takerBuyFactors = new long[size];
+      this.minimumOrderAmounts = new BigDecimal[size];
+      this.minimumVolumes = new long[size];
+      this.priceScales = new int[size];
+      Arrays.fill(priceScales, -1);
+    }
+
+    public Builder fee(Exchange exchange, int pairId, Fee fee) {
+      int index = exchange.ordinal() * pairCount + pairId;
+      takerFees[index] = fee == null ? null : fee.getTakerFee();
+      makerFees[index] = fee == null ? null : fee.getMakerFee();
+      takerBuyFactors[index] =
+          takerFees[index] == null ? 0 : FixedPoint.buyFactor(takerFees[index], BigDecimal.ZERO);
+      return this;
+    }
+
+    public Builder metadata(Exchange exchange, int pairId, CurrencyPairMetaData metadata) {
+      int index = exchange.ordinal() * pairCount + pairId;
+      BigDecimal minimumAmount = metadata == null ? null : metadata.getMinimumAmount();
+      minimumOrderAmounts[index] = minimumAmount;
+      minimumVolumes[index] =
+          minimumAmount == null
+              ? 0
+              : FixedPoint.toScaled(minimumAmount, QUANTITY_SCALE, RoundingMode.CEILING);
+      Integer priceScale = metadata == null ? null : metadata.getPriceScale();
+      priceScales[index] = priceScale == null ? -1 : priceScale;
+      return this;
+    }
+
+    public TradingParameters build() {
+      return new TradingParameters(this);
+    }
+  }
+}
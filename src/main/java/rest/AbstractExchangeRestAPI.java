@@ -5,16 +5,21 @@ import domain.constants.Exchange;
 import domain.constants.OrderType;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.knowm.xchange.dto.account.AccountInfo;
+import org.knowm.xchange.dto.Order;
 import org.knowm.xchange.dto.account.Fee;
 import org.knowm.xchange.dto.meta.CurrencyPairMetaData;
 import org.knowm.xchange.dto.trade.LimitOrder;
+import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
 import org.knowm.xchange.service.account.AccountService;
 import org.knowm.xchange.service.marketdata.MarketDataService;
 import org.knowm.xchange.service.trade.TradeService;
 import org.slf4j.Logger;
+import services.BalanceLedger;
 import services.MetadataAggregator;
+import services.ReservedOrder;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -45,6 +50,9 @@ public abstract class AbstractExchangeRestAPI {
   Map<CurrencyPair, Fee> feeMap;
   AccountInfo accountInfo;
 
+  // Acknowledged orders whose spent amount is still reserved in the BalanceLedger, by order id
+  Map<String, ReservedOrder> reservedOrders = new ConcurrentHashMap<>();
+
   // Journaling
   Map<String, Trade> submittedTrades = new ConcurrentHashMap<>();   // Map of all orders submitted
   Map<String, Trade> executedTrades = new ConcurrentHashMap<>();    // Map of all submitted orders successfully executed
@@ -73,11 +81,46 @@ public abstract class AbstractExchangeRestAPI {
     getLog().debug(feeMap.toString());
   }
 
+  /** Follows an acknowledged order until it is filled or closed, see refreshReservedOrders. */
+  public void trackReservedOrder(String orderId, ReservedOrder reservedOrder) {
+    reservedOrders.put(orderId, reservedOrder);
+  }
+
+  /**
+   * Queries the orders whose spent amount is still reserved, settling what they filled and
+   * returning what closed orders left unfilled to the BalanceLedger. Run before refreshing account
+   * info, whose balances would otherwise be discarded as predating the cancellations made here.
+   */
+  public void refreshReservedOrders() throws IOException {
+    if (reservedOrders.isEmpty()) return;
+    getLog().info("Refreshing {} Reserved Orders.", getExchange());
+
+    BalanceLedger balanceLedger = metadataAggregator.getBalanceLedger();
+    Collection<Order> orders;
+    try {
+      orders = tradeService.getOrder(reservedOrders.keySet().toArray(new String[0]));
+    } catch (NotYetImplementedForExchangeException e) {
+      getLog().warn("{} cannot query orders, leaving them to reconciliation", getExchange());
+      reservedOrders.values().forEach(reservedOrder -> reservedOrder.abandon(balanceLedger));
+      reservedOrders.clear();
+      return;
+    }
+    for (Order order : orders) {
+      ReservedOrder reservedOrder = reservedOrders.get(order.getId());
+      if (reservedOrder != null
+          && reservedOrder.update(balanceLedger, order.getStatus(), order.getCumulativeAmount())) {
+        reservedOrders.remove(order.getId());
+      }
+    }
+  }
+
   public void refreshAccountInfo() throws IOException {
     getLog().info("Refreshing {} Account Info.", getExchange());
 
+    // Taken first, so balances settled while the request is in flight are not overwritten
+    long requestedAt = System.nanoTime();
     accountInfo = accountService.getAccountInfo();
-    metadataAggregator.upsertAccountInfo(getExchange(), accountInfo);
+    metadataAggregator.upsertAccountInfo(getExchange(), accountInfo, requestedAt);
 
     getLog().debug(accountInfo.toString());
   }
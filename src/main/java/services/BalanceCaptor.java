@@ -1,16 +1,15 @@
 package services;
 
+import domain.SymbolRegistry;
 import domain.constants.Exchange;
 import org.apache.commons.lang3.tuple.Pair;
 import org.knowm.xchange.currency.Currency;
-import org.knowm.xchange.currency.CurrencyPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Used to aggregate account balances across exchanges
@@ -20,36 +19,35 @@ public class BalanceCaptor {
     private static final Logger LOG = LoggerFactory.getLogger(BalanceCaptor.class);
 
     private MetadataAggregator metadataAggregator;
-    private Map<Exchange, Map<Currency, BigDecimal>> balances = new ConcurrentHashMap<>();
+    private SymbolRegistry symbolRegistry;
+
+    //[exchangeId][currencyId], null for currencies an exchange is not monitored for
+    private final BigDecimal[][] balances;
 
     //Timestamped Aggregate Currency Balances
     private List<Pair<Instant, Map<Currency, BigDecimal>>> snapshots;
 
-    public BalanceCaptor(MetadataAggregator metadataAggregator, Map<Exchange, List<CurrencyPair>> activeExchangesPairMap) {
+    public BalanceCaptor(MetadataAggregator metadataAggregator, SymbolRegistry symbolRegistry) {
         LOG.info("Initializing BalanceCaptor");
         this.metadataAggregator = metadataAggregator;
+        this.symbolRegistry = symbolRegistry;
 
-        //$10 in the crypto of your choice to convert this to a lambda.
-        //Load the balances map with all currencies that need to be monitored.
-        for (Map.Entry<Exchange, List<CurrencyPair>> entry : activeExchangesPairMap.entrySet()) {
-            balances.put(entry.getKey(), new ConcurrentHashMap<>());
-
-            Set<Currency> currencies = new HashSet<>();
-            for (CurrencyPair currencyPair: entry.getValue()) {
-                currencies.add(currencyPair.base);
-                currencies.add(currencyPair.counter);
-            }
-            for (Currency currency : currencies) {
-                balances.get(entry.getKey()).put(currency, BigDecimal.ZERO);
+        //Load the balances table with all currencies that need to be monitored.
+        this.balances = new BigDecimal[symbolRegistry.getExchangeCount()][symbolRegistry.getCurrencyCount()];
+        for (int exchangeId = 0; exchangeId < balances.length; exchangeId++) {
+            for (int currencyId : symbolRegistry.getCurrencyIds(symbolRegistry.getExchange(exchangeId))) {
+                balances[exchangeId][currencyId] = BigDecimal.ZERO;
             }
         }
     }
 
     public void refreshBalances() {
-        for (Map.Entry<Exchange, Map<Currency, BigDecimal>> entry : balances.entrySet()) {
-            for (Map.Entry<Currency, BigDecimal> entry2 : entry.getValue().entrySet()) {
-                BigDecimal availableBalance = metadataAggregator.getBalance(entry.getKey(), entry2.getKey()).getAvailable();
-                balances.get(entry.getKey()).put(entry2.getKey(), availableBalance);
+        for (int exchangeId = 0; exchangeId < balances.length; exchangeId++) {
+            Exchange exchange = symbolRegistry.getExchange(exchangeId);
+            for (int currencyId = 0; currencyId < balances[exchangeId].length; currencyId++) {
+                if (balances[exchangeId][currencyId] == null) continue;
+                Currency currency = symbolRegistry.getCurrency(currencyId);
+                balances[exchangeId][currencyId] = metadataAggregator.getBalance(exchange, currency).getAvailable();
             }
         }
     }
@@ -57,12 +55,18 @@ public class BalanceCaptor {
   public void captureBalances() {
     Map<Currency, BigDecimal> aggregateBalances = new HashMap<>();
 
-    for (Map.Entry<Exchange, Map<Currency, BigDecimal>> entry : balances.entrySet()) {
-      entry
-          .getValue()
-          .forEach(
-              (currency, value) ->
-                  aggregateBalances.merge(currency, value, (v1, v2) -> v1.add(v2)));
+    for (int currencyId = 0; currencyId < symbolRegistry.getCurrencyCount(); currencyId++) {
+      BigDecimal aggregateBalance = null;
+      for (BigDecimal[] exchangeBalances : balances) {
+        if (exchangeBalances[currencyId] == null) continue;
+        aggregateBalance =
+            aggregateBalance == null
+                ? exchangeBalances[currencyId]
+                : aggregateBalance.add(exchangeBalances[currencyId]);
+      }
+      if (aggregateBalance != null) {
+        aggregateBalances.put(symbolRegistry.getCurrency(currencyId), aggregateBalance);
+      }
     }
     LOG.info("Aggregate Balances: {}", aggregateBalances);
   }
@@ -0,0 +1,216 @@
+package services;
+
+import domain.SymbolRegistry;
+import domain.constants.Exchange;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.dto.account.AccountInfo;
+import org.knowm.xchange.dto.account.Balance;
+import org.knowm.xchange.dto.account.Wallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import util.FixedPoint;
+
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.UnaryOperator;
+
+import static util.FixedPoint.QUANTITY_SCALE;
+
+/**
+ * Available and reserved amounts per (exchange, currency), held as scaled longs at {@link
+ * FixedPoint#QUANTITY_SCALE} in a flat array indexed by exchangeId * currencyCount + currencyId.
+ * Each slot is an immutable set of amounts swapped in with a CAS, so every update moves an amount
+ * atomically between them without taking a lock and reads are a single volatile load.
+ *
+ * <p>An order's spent amount moves through its slot as the order progresses. Reserving moves it
+ * from available to pending before the order is submitted, so back to back opportunities never
+ * both size against the same balance, and a rejected order releases it. Once acknowledged the
+ * exchange holds the amount itself and it moves to open. Fills settle the open amount as they are
+ * reported, and cancelling returns what the order left unfilled to available.
+ *
+ * <p>Every REST refresh reconciles available to the exchange's available balance, which already
+ * leaves out what it holds for open orders, less what is still pending. Received currency is only
+ * credited by reconciliation. A refresh requested before the exchange last took or returned part of
+ * a slot, on acknowledgement or cancellation, may predate it and is ignored for the slot.
+ */
+public class BalanceLedger {
+  private static final Logger LOG = LoggerFactory.getLogger(BalanceLedger.class);
+  private static final long NEVER = Long.MIN_VALUE;
+
+  private final SymbolRegistry symbolRegistry;
+  private final int currencyCount;
+
+  private final AtomicReferenceArray<Slot> slots;
+
+  public BalanceLedger(SymbolRegistry symbolRegistry) {
+    this.symbolRegistry = symbolRegistry;
+    this.currencyCount = symbolRegistry.getCurrencyCount();
+    int slotCount = symbolRegistry.getExchangeCount() * currencyCount;
+    this.slots = new AtomicReferenceArray<>(slotCount);
+    for (int i = 0; i < slotCount; i++) {
+      slots.set(i, Slot.EMPTY);
+    }
+  }
+
+  /**
+   * Kraken reports its balances in a single wallet keyed by a null id, which AccountInfo.getWallet()
+   * does not resolve.
+   */
+  public static Wallet getTradingWallet(Exchange exchange, AccountInfo accountInfo) {
+    return exchange == Exchange.KRAKEN
+        ? accountInfo.getWallets().get(null)
+        : accountInfo.getWallet();
+  }
+
+  /** Resets available to balances fetched just now. */
+  public void reconcile(Exchange exchange, AccountInfo accountInfo) {
+    reconcile(exchange, accountInfo, System.nanoTime());
+  }
+
+  /**
+   * Resets available to the refreshed balances of every currency the exchange streams, except those
+   * the exchange took or returned part of since the refresh was requested.
+   *
+   * @param requestedAt - System.nanoTime() before the balances were requested
+   */
+  public void reconcile(Exchange exchange, AccountInfo accountInfo, long requestedAt) {
+    Wallet wallet = getTradingWallet(exchange, accountInfo);
+    if (wallet == null) {
+      LOG.warn("Unable to locate trading wallet for exchange: {}", exchange);
+      return;
+    }
+    for (int currencyId : symbolRegistry.getCurrencyIds(exchange)) {
+      Balance balance = wallet.getBalance(symbolRegistry.getCurrency(currencyId));
+      long refreshed =
+          balance.getAvailable() == null
+              ? 0
+              : FixedPoint.toScaled(balance.getAvailable(), QUANTITY_SCALE, RoundingMode.DOWN);
+      int index = index(exchange, currencyId);
+      while (true) {
+        Slot current = slots.get(index);
+        if (current.transferredAt != NEVER && requestedAt - current.transferredAt < 0) {
+          LOG.debug(
+              "Discarding {} {} balance requested before its last transfer",
+              exchange,
+              symbolRegistry.getCurrency(currencyId));
+          break;
+        }
+        Slot next =
+            new Slot(
+                Math.max(0, refreshed - current.pending),
+                current.pending,
+                current.open,
+                current.transferredAt);
+        if (slots.compareAndSet(index, current, next)) break;
+      }
+    }
+  }
+
+  private int index(Exchange exchange, int currencyId) {
+    return exchange.ordinal() * currencyCount + currencyId;
+  }
+
+  /** @return the amount available to new orders at QUANTITY_SCALE */
+  public long getAvailable(Exchange exchange, int currencyId) {
+    return slots.get(index(exchange, currencyId)).available;
+  }
+
+  public long getAvailable(Exchange exchange, Currency currency) {
+    int currencyId = symbolRegistry.getCurrencyId(currency);
+    return currencyId == -1 ? 0 : getAvailable(exchange, currencyId);
+  }
+
+  /** @return the amount reserved by orders not yet filled, cancelled or rejected */
+  public long getReserved(Exchange exchange, int currencyId) {
+    Slot slot = slots.get(index(exchange, currencyId));
+    return slot.pending + slot.open;
+  }
+
+  /**
+   * Moves amount from available to pending.
+   *
+   * @return false, leaving the ledger untouched, if less than amount is available
+   */
+  public boolean reserve(Exchange exchange, Currency currency, long amount) {
+    int currencyId = symbolRegistry.getCurrencyId(currency);
+    if (currencyId == -1) return false;
+    int index = index(exchange, currencyId);
+    while (true) {
+      Slot current = slots.get(index);
+      if (current.available < amount) return false;
+      Slot next =
+          new Slot(
+              current.available - amount,
+              current.pending + amount,
+              current.open,
+              current.transferredAt);
+      if (slots.compareAndSet(index, current, next)) return true;
+    }
+  }
+
+  /** Returns a pending reservation to available once its order has been rejected. */
+  public void release(Exchange exchange, Currency currency, long amount) {
+    update(
+        exchange,
+        currency,
+        slot ->
+            new Slot(
+                slot.available + amount, slot.pending - amount, slot.open, slot.transferredAt));
+  }
+
+  /** Moves a reservation from pending to open once the exchange acknowledged its order. */
+  public void acknowledge(Exchange exchange, Currency currency, long amount) {
+    long now = System.nanoTime();
+    update(
+        exchange,
+        currency,
+        slot -> new Slot(slot.available, slot.pending - amount, slot.open + amount, now));
+  }
+
+  /** Drops the part of an open reservation its order filled, the amount has left the exchange. */
+  public void settle(Exchange exchange, Currency currency, long amount) {
+    update(
+        exchange,
+        currency,
+        slot -> new Slot(slot.available, slot.pending, slot.open - amount, slot.transferredAt));
+  }
+
+  /** Returns the part of an open reservation its order left unfilled to available. */
+  public void cancel(Exchange exchange, Currency currency, long amount) {
+    long now = System.nanoTime();
+    update(
+        exchange,
+        currency,
+        slot -> new Slot(slot.available + amount, slot.pending, slot.open - amount, now));
+  }
+
+  private void update(Exchange exchange, Currency currency, UnaryOperator<Slot> update) {
+    int currencyId = symbolRegistry.getCurrencyId(currency);
+    if (currencyId == -1) return;
+    int index = index(exchange, currencyId);
+    Slot current;
+    do {
+      current = slots.get(index);
+    } while (!slots.compareAndSet(index, current, update.apply(current)));
+  }
+
+  /** Immutable amounts of one (exchange, currency). */
+  private static final class Slot {
+    private static final Slot EMPTY = new Slot(0, 0, 0, NEVER);
+
+    private final long available;
+    // Reserved by orders not yet acknowledged
+    private final long pending;
+    // Held by the exchange for acknowledged orders not yet filled or cancelled
+    private final long open;
+    // System.nanoTime() the exchange last took or returned part of the slot, NEVER until then
+    private final long transferredAt;
+
+    private Slot(long available, long pending, long open, long transferredAt) {
+      this.available = available;
+      this.pending = pending;
+      this.open = open;
+      this.transferredAt = transferredAt;
+    }
+  }
+}
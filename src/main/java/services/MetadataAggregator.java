@@ -1,5 +1,7 @@
 package services;
 
+import domain.SymbolRegistry;
+import domain.TradingParameters;
 import domain.constants.Exchange;
 import org.knowm.xchange.currency.Currency;
 import org.knowm.xchange.currency.CurrencyPair;
@@ -14,47 +16,119 @@ import java.math.BigDecimal;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Aggregates fees, pair metadata and account info published by each exchange's rest API. Fees and
+ * pair metadata are held in flat [exchangeId][pairId] tables built from the SymbolRegistry, so the
+ * id-based getters used by the arbitrage hot paths do not hash. Each upsert swaps in a new table
+ * row, so readers always see a complete refresh, and publishes a new TradingParameters snapshot.
+ */
 public class MetadataAggregator {
   private static final Logger LOG = LoggerFactory.getLogger(MetadataAggregator.class);
 
-  private final Map<Exchange, Map<CurrencyPair, Fee>> aggregatedFee = new ConcurrentHashMap<>();
+  private final SymbolRegistry symbolRegistry;
+
+  private volatile Fee[][] fees;
+  private volatile CurrencyPairMetaData[][] metadata;
+  // Rebuilt from fees and metadata on every upsert, read by the arbitrage hot paths
+  private volatile TradingParameters tradingParameters;
   private final Map<Exchange, Map<CurrencyPair, CurrencyPairMetaData>> aggregatedMetadata =
       new ConcurrentHashMap<>();
   private final Map<Exchange, AccountInfo> aggregatedAccountInfo = new ConcurrentHashMap<>();
+  private final BalanceLedger balanceLedger;
 
-  public MetadataAggregator() {
+  public MetadataAggregator(SymbolRegistry symbolRegistry) {
+    this.symbolRegistry = symbolRegistry;
+    this.fees = new Fee[symbolRegistry.getExchangeCount()][symbolRegistry.getPairCount()];
+    this.metadata =
+        new CurrencyPairMetaData[symbolRegistry.getExchangeCount()][symbolRegistry.getPairCount()];
+    this.tradingParameters = new TradingParameters.Builder(symbolRegistry).build();
+    this.balanceLedger = new BalanceLedger(symbolRegistry);
     LOG.info("Instantiated MetadataAggregator.");
   }
 
-  public void upsertFeeMap(Exchange exchange, Map<CurrencyPair, Fee> feeMap) {
-    aggregatedFee.put(exchange, feeMap);
+  public SymbolRegistry getSymbolRegistry() {
+    return symbolRegistry;
+  }
+
+  public synchronized void upsertFeeMap(Exchange exchange, Map<CurrencyPair, Fee> feeMap) {
+    Fee[] row = new Fee[symbolRegistry.getPairCount()];
+    for (int pairId = 0; pairId < row.length; pairId++) {
+      row[pairId] = feeMap.get(symbolRegistry.getCurrencyPair(pairId));
+    }
+    Fee[][] updated = fees.clone();
+    updated[exchange.ordinal()] = row;
+    fees = updated;
+    publishTradingParameters();
+  }
+
+  /**
+   * @return the latest snapshot of every (exchange, pair)'s trading parameters, a new instance is
+   *     published whenever fees or metadata are upserted
+   */
+  public TradingParameters getTradingParameters() {
+    return tradingParameters;
+  }
+
+  private void publishTradingParameters() {
+    TradingParameters.Builder builder = new TradingParameters.Builder(symbolRegistry);
+    Fee[][] fees = this.fees;
+    CurrencyPairMetaData[][] metadata = this.metadata;
+    for (int exchangeId = 0; exchangeId < fees.length; exchangeId++) {
+      Exchange exchange = symbolRegistry.getExchange(exchangeId);
+      for (int pairId = 0; pairId < symbolRegistry.getPairCount(); pairId++) {
+        builder.fee(exchange, pairId, fees[exchangeId][pairId]);
+        builder.metadata(exchange, pairId, metadata[exchangeId][pairId]);
+      }
+    }
+    tradingParameters = builder.build();
   }
 
   public Fee getFees(Exchange exchange, CurrencyPair currencyPair) {
-    if (aggregatedFee.containsKey(exchange)
-        && aggregatedFee.get(exchange).containsKey(currencyPair)) {
-      return aggregatedFee.get(exchange).get(currencyPair);
-    } else {
+    int pairId = symbolRegistry.getPairId(currencyPair);
+    if (pairId == -1) {
       LOG.warn("Unable to fees for {} {}", exchange, currencyPair);
       return null;
     }
+    return getFees(exchange, pairId);
+  }
+
+  public Fee getFees(Exchange exchange, int pairId) {
+    Fee fee = fees[exchange.ordinal()][pairId];
+    if (fee == null) {
+      LOG.warn("Unable to fees for {} {}", exchange, symbolRegistry.getCurrencyPair(pairId));
+    }
+    return fee;
   }
 
-  public void upsertMetadata(
+  public synchronized void upsertMetadata(
       Exchange exchange, Map<CurrencyPair, CurrencyPairMetaData> metadataMap) {
     aggregatedMetadata.put(exchange, metadataMap);
+
+    CurrencyPairMetaData[] row = new CurrencyPairMetaData[symbolRegistry.getPairCount()];
+    for (int pairId = 0; pairId < row.length; pairId++) {
+      row[pairId] = metadataMap.get(symbolRegistry.getCurrencyPair(pairId));
+    }
+    CurrencyPairMetaData[][] updated = metadata.clone();
+    updated[exchange.ordinal()] = row;
+    metadata = updated;
+    publishTradingParameters();
   }
 
-  public void upsertAccountInfo(Exchange exchange, AccountInfo accountInfo) {
+  /** @param requestedAt - System.nanoTime() before accountInfo was requested */
+  public void upsertAccountInfo(Exchange exchange, AccountInfo accountInfo, long requestedAt) {
     aggregatedAccountInfo.put(exchange, accountInfo);
+    balanceLedger.reconcile(exchange, accountInfo, requestedAt);
+  }
+
+  /** Available and reserved balances, reconciled on every account info refresh. */
+  public BalanceLedger getBalanceLedger() {
+    return balanceLedger;
   }
 
   public Balance getBalance(Exchange exchange, Currency currency) {
     if (aggregatedAccountInfo.containsKey(exchange)) {
-      if (exchange.equals(Exchange.KRAKEN)) {
-        return aggregatedAccountInfo.get(exchange).getWallets().get(null).getBalance(currency);
-      }
-      return aggregatedAccountInfo.get(exchange).getWallet().getBalance(currency);
+      return BalanceLedger.getTradingWallet(exchange, aggregatedAccountInfo.get(exchange))
+          .getBalance(currency);
     } else {
       LOG.warn("Unable to located wallet for exchange: {}", exchange);
       return null;
@@ -62,27 +136,49 @@ public class MetadataAggregator {
   }
 
   public BigDecimal getMinimumOrderAmount(Exchange exchange, CurrencyPair currencyPair) {
-    if (aggregatedMetadata.containsKey(exchange)
-        && aggregatedMetadata.get(exchange).containsKey(currencyPair)) {
-      return aggregatedMetadata.get(exchange).get(currencyPair).getMinimumAmount();
-    } else {
+    int pairId = symbolRegistry.getPairId(currencyPair);
+    if (pairId == -1) {
       LOG.warn(
           "Unable to locate minimumOrderAmount for exchange: {}, currencyPair: {}",
           exchange,
           currencyPair);
       return null;
     }
+    return getMinimumOrderAmount(exchange, pairId);
+  }
+
+  public BigDecimal getMinimumOrderAmount(Exchange exchange, int pairId) {
+    CurrencyPairMetaData currencyPairMetaData = metadata[exchange.ordinal()][pairId];
+    if (currencyPairMetaData == null) {
+      LOG.warn(
+          "Unable to locate minimumOrderAmount for exchange: {}, currencyPair: {}",
+          exchange,
+          symbolRegistry.getCurrencyPair(pairId));
+      return null;
+    }
+    return currencyPairMetaData.getMinimumAmount();
   }
 
   public Integer getPriceScale(Exchange exchange, CurrencyPair currencyPair) {
-    if (aggregatedMetadata.containsKey(exchange)
-        && aggregatedMetadata.get(exchange).containsKey(currencyPair)) {
-      return aggregatedMetadata.get(exchange).get(currencyPair).getPriceScale();
-    } else {
+    int pairId = symbolRegistry.getPairId(currencyPair);
+    if (pairId == -1) {
       LOG.warn(
           "Unable to locate priceScale for exchange: {}, currencyPair: {}", exchange, currencyPair);
       return null;
     }
+    return getPriceScale(exchange, pairId);
+  }
+
+  public Integer getPriceScale(Exchange exchange, int pairId) {
+    CurrencyPairMetaData currencyPairMetaData = metadata[exchange.ordinal()][pairId];
+    if (currencyPairMetaData == null) {
+      LOG.warn(
+          "Unable to locate priceScale for exchange: {}, currencyPair: {}",
+          exchange,
+          symbolRegistry.getCurrencyPair(pairId));
+      return null;
+    }
+    return currencyPairMetaData.getPriceScale();
   }
 
   public Map<CurrencyPair, CurrencyPairMetaData> getCurrencyPairMetaDataMap(Exchange exchange) {
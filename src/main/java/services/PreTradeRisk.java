@@ -0,0 +1,88 @@
+package services;
+
+import buffer.events.EngineEvent;
+import com.lmax.disruptor.EventHandler;
+import config.Configuration;
+import domain.Trade;
+import domain.control.ControlCommand;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * TradeBuffer stage ahead of the TradePublisher, approves each trade intent it lets through.
+ * Intents are rejected once trading is halted by a SHUTDOWN command, when any leg is missing a
+ * positive price or amount, or when they waited in the ring for longer than the configured maximum
+ * since being discovered.
+ */
+public class PreTradeRisk implements EventHandler<EngineEvent> {
+  private static final Logger LOG = LoggerFactory.getLogger(PreTradeRisk.class);
+
+  // 0 disables the age check
+  private final long maxIntentAgeMillis;
+  private boolean halted;
+  private long rejectedCount;
+
+  public PreTradeRisk(Configuration config) {
+    this(config.getRiskConfig().getMaxIntentAgeMillis());
+  }
+
+  public PreTradeRisk(long maxIntentAgeMillis) {
+    this.maxIntentAgeMillis = maxIntentAgeMillis;
+  }
+
+  @Override
+  public void onEvent(EngineEvent event, long sequence, boolean endOfBatch) {
+    switch (event.getType()) {
+      case CONTROL:
+        if (event.getCommand() == ControlCommand.SHUTDOWN) {
+          halted = true;
+          LOG.info("Trading halted, rejecting every further trade intent.");
+        }
+        break;
+      case TRADE_INTENT:
+        event.setApproved(approve(event, Instant.now()));
+        if (!event.isApproved()) rejectedCount++;
+        break;
+      default:
+    }
+  }
+
+  private boolean approve(EngineEvent event, Instant now) {
+    if (halted) return false;
+    for (Trade trade : new Trade[] {event.getTrade1(), event.getTrade2(), event.getTrade3()}) {
+      if (trade == null) continue;
+      if (!isPositive(trade.getPrice()) || !isPositive(trade.getAmount())) {
+        LOG.warn("Rejected trade intent with a non-positive leg: {}", trade);
+        return false;
+      }
+      if (maxIntentAgeMillis > 0
+          && trade.getTimeDiscovered() != null
+          && Duration.between(trade.getTimeDiscovered(), now).toMillis() > maxIntentAgeMillis) {
+        LOG.info(
+            "Rejected trade intent for {} discovered at {}, older than {}ms",
+            trade.getCurrencyPair(),
+            trade.getTimeDiscovered(),
+            maxIntentAgeMillis);
+        return false;
+      }
+    }
+    return event.getTrade1() != null && event.getTrade2() != null;
+  }
+
+  private static boolean isPositive(BigDecimal value) {
+    return value != null && value.signum() > 0;
+  }
+
+  public boolean isHalted() {
+    return halted;
+  }
+
+  /** Only consistent when read from the stage's own thread or after the buffer is shut down. */
+  public long getRejectedCount() {
+    return rejectedCount;
+  }
+}
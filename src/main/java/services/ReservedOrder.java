@@ -0,0 +1,72 @@
+package services;
+
+import domain.constants.Exchange;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.dto.Order;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Open reservation of an acknowledged order in the BalanceLedger. Settled in proportion to the
+ * amount the exchange reports filled, and once the order is closed what it left unfilled is
+ * cancelled back to available. Only updated by its exchange's refresh.
+ */
+public class ReservedOrder {
+  private final Exchange exchange;
+  private final Currency spentCurrency;
+  // At QUANTITY_SCALE
+  private final long reserved;
+  private final BigDecimal amount;
+  private long settled;
+
+  /**
+   * @param reserved - spent amount reserved for the order, at QUANTITY_SCALE
+   * @param amount - base amount ordered
+   */
+  public ReservedOrder(
+      Exchange exchange, Currency spentCurrency, long reserved, BigDecimal amount) {
+    this.exchange = exchange;
+    this.spentCurrency = spentCurrency;
+    this.reserved = reserved;
+    this.amount = amount;
+  }
+
+  /**
+   * Settles the share of the reservation filled since the last update, and cancels the rest once
+   * status is final.
+   *
+   * @param filled - cumulative base amount filled, null if not reported
+   * @return whether the order is closed and its reservation fully accounted for
+   */
+  public boolean update(BalanceLedger balanceLedger, Order.OrderStatus status, BigDecimal filled) {
+    long filledReserved = settled;
+    if (status == Order.OrderStatus.FILLED) {
+      filledReserved = reserved;
+    } else if (filled != null && amount.signum() > 0) {
+      filledReserved =
+          BigDecimal.valueOf(reserved)
+              .multiply(filled.min(amount))
+              .divide(amount, 0, RoundingMode.DOWN)
+              .longValueExact();
+    }
+    if (filledReserved > settled) {
+      balanceLedger.settle(exchange, spentCurrency, filledReserved - settled);
+      settled = filledReserved;
+    }
+    if (status == null || !status.isFinal()) return false;
+    if (reserved > settled) {
+      balanceLedger.cancel(exchange, spentCurrency, reserved - settled);
+      settled = reserved;
+    }
+    return true;
+  }
+
+  /** Drops what is still reserved without crediting it, the next refresh accounts for it. */
+  public void abandon(BalanceLedger balanceLedger) {
+    if (reserved > settled) {
+      balanceLedger.settle(exchange, spentCurrency, reserved - settled);
+      settled = reserved;
+    }
+  }
+}
@@ -1,24 +1,32 @@
 package services;
 
-import buffer.events.TradeEvent;
+import buffer.events.EngineEvent;
 import com.lmax.disruptor.EventHandler;
+import domain.SymbolRegistry;
 import domain.Trade;
+import domain.TradingParameters;
 import domain.constants.Exchange;
+import org.knowm.xchange.currency.Currency;
 import org.knowm.xchange.dto.Order;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rest.AbstractExchangeRestAPI;
 import services.journal.TradeJournaler;
+import util.FixedPoint;
 import util.ThreadFactory;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-public class TradePublisher implements EventHandler<TradeEvent> {
+import static util.FixedPoint.QUANTITY_SCALE;
+
+/** Last stage of the TradeBuffer, submits the trade intents approved by PreTradeRisk. */
+public class TradePublisher implements EventHandler<EngineEvent> {
   private static final Logger LOG = LoggerFactory.getLogger(TradePublisher.class);
 
   private MetadataAggregator metadataAggregator;
@@ -48,7 +56,9 @@ public class TradePublisher implements EventHandler<TradeEvent> {
   }
 
   @Override
-  public void onEvent(TradeEvent event, long sequence, boolean endOfBatch) {
+  public void onEvent(EngineEvent event, long sequence, boolean endOfBatch) {
+    if (event.getType() != EngineEvent.Type.TRADE_INTENT || !event.isApproved()) return;
+
     Trade trade1 = event.getTrade1();
     Trade trade2 = event.getTrade2();
     Trade trade3 = event.getTrade3();
@@ -58,97 +68,111 @@ public class TradePublisher implements EventHandler<TradeEvent> {
         processSpatialArbitrageTrade(trade1, trade2);
       }
     } else {
-        processTriangularArbitrage(trade1, trade2, trade3);
+      processTriangularArbitrage(trade1, trade2, trade3);
     }
   }
 
-  // TODO: Perform scaling and minimum checks in the arbitrage layer instead...
-  // Assumes that the Amount on both Trades are equivalent
-  public BigDecimal calculateMaxActionableAmount(Trade t1, Trade t2) {
-    // Example:
-    // A bid for BTC/USD would require a check on the USD balance
-    // An ask for BTC/USD would require a check on the BTC balance
-    BigDecimal availableCounterBalance =
-        metadataAggregator
-            .getBalance(
-                t1.getExchange(),
-                t1.getOrderActionType().equals(Order.OrderType.BID)
-                    ? t1.getCurrencyPair().counter
-                    : t1.getCurrencyPair().base)
-            .getAvailable();
-    BigDecimal availableBaseBalance =
-        metadataAggregator
-            .getBalance(
-                t2.getExchange(),
-                t2.getOrderActionType().equals(Order.OrderType.BID)
-                    ? t2.getCurrencyPair().counter
-                    : t2.getCurrencyPair().base)
-            .getAvailable();
-
-    LOG.info(
-        "Available counter ({}) balance on {} : {}, Available base ({}) balance on {} : {}",
-        t1.getCurrencyPair().counter,
-        t1.getExchange(),
-        availableCounterBalance,
-        t2.getCurrencyPair().base,
-        t2.getExchange(),
-        availableBaseBalance);
-
-    // TODO: implement counterMaximum and baseMaximum if you become an arbitrage whale
-    Integer counterPriceScale =
-        metadataAggregator.getPriceScale(t1.getExchange(), t1.getCurrencyPair());
-    BigDecimal ex1OrderMinimum =
-        metadataAggregator.getMinimumOrderAmount(t1.getExchange(), t1.getCurrencyPair());
-
-    Integer basePriceScale =
-        metadataAggregator.getPriceScale(t2.getExchange(), t2.getCurrencyPair());
-    BigDecimal ex2OrderMinimum =
-        metadataAggregator.getMinimumOrderAmount(t2.getExchange(), t2.getCurrencyPair());
-
-    BigDecimal maxBaseAmount =
-        t1.getAmount(); // t1.getAmount() && t2.getAmount() are assumed equivalent
-    BigDecimal reqCounterToBuy = t1.getPrice().multiply(maxBaseAmount);
-    reqCounterToBuy =
-        reqCounterToBuy.add(
-            reqCounterToBuy.multiply(t1.getFee())); // Assumes fees are in counter currency
-
-    if (availableCounterBalance.compareTo(reqCounterToBuy) >= 0
-        && availableBaseBalance.compareTo(maxBaseAmount) >= 0) {
-      maxBaseAmount =
-          maxBaseAmount.setScale(
-              Integer.min(counterPriceScale, basePriceScale), BigDecimal.ROUND_DOWN);
-      LOG.info(
-          "Base and counter balances are sufficient to buy and sell {} (scaled) of {}",
-          maxBaseAmount,
-          t1.getCurrencyPair());
-    } else {
-      LOG.info("Insufficient base or counter balances...calculating max actionable base amount...");
-      BigDecimal maxBaseBuyable =
-          (availableCounterBalance.subtract(availableCounterBalance.multiply(t1.getFee())))
-              .divide(t1.getPrice(), counterPriceScale, BigDecimal.ROUND_DOWN);
-      LOG.info("Max base buyable: {}", maxBaseBuyable);
+  /**
+   * Largest base volume, at QUANTITY_SCALE, both legs of a spatial opportunity can trade with the
+   * balances available in the BalanceLedger. Only primitives are read, the ledger's balances and
+   * the snapshot's taker factor, price scales and minimum volumes. The buy leg is costed with the
+   * same taker factor its reservation is computed with, so the volume sized here can be reserved
+   * unless an earlier trade reserved the balance first.
+   *
+   * @param buy - BID leg, its amount is the volume the opportunity offers
+   * @param sell - ASK leg of the same pair and volume on the other exchange
+   * @return 0 if either leg would fall below its exchange's minimum volume
+   */
+  public long calculateMaxActionableVolume(
+      Trade buy, Trade sell, TradingParameters tradingParameters) {
+    // A bid for BTC/USD spends USD, an ask for BTC/USD spends BTC
+    SymbolRegistry symbolRegistry = metadataAggregator.getSymbolRegistry();
+    BalanceLedger balanceLedger = metadataAggregator.getBalanceLedger();
+    int pairId = buy.getPairId();
+    long availableCounter =
+        balanceLedger.getAvailable(buy.getExchange(), symbolRegistry.getCounterCurrencyId(pairId));
+    long availableBase =
+        balanceLedger.getAvailable(sell.getExchange(), symbolRegistry.getBaseCurrencyId(pairId));
 
-      BigDecimal maxBaseSellable = availableBaseBalance.min(maxBaseAmount);
-      LOG.info("Max base sellable: {}", maxBaseSellable);
+    int buyPriceScale = priceScale(tradingParameters, buy);
+    int sellPriceScale = priceScale(tradingParameters, sell);
+    long buyPrice = FixedPoint.toScaled(buy.getPrice(), buyPriceScale, RoundingMode.CEILING);
+    long buyFactor = tradingParameters.getTakerBuyFactor(buy.getExchange(), pairId);
 
-      if (maxBaseBuyable.compareTo(ex1OrderMinimum) < 1) {
-        LOG.info(
-            "Max base buyable is less than minimum order volume: {} on exchange {}",
-            ex1OrderMinimum,
-            t1.getExchange());
-        return BigDecimal.ZERO;
-      }
-      if (maxBaseSellable.compareTo(ex2OrderMinimum) < 1) {
-        LOG.info(
-            "Max base sellable is less than minimum order volume: {} on exchange {}",
-            ex2OrderMinimum,
-            t2.getExchange());
-        return BigDecimal.ZERO;
-      }
+    long volume =
+        Math.min(
+            FixedPoint.toScaled(buy.getAmount(), QUANTITY_SCALE, RoundingMode.DOWN),
+            availableBase);
+    volume = maxBuyableVolume(availableCounter, buyPrice, buyPriceScale, buyFactor, volume);
+    // Both orders are placed at the coarser of the two exchanges' scales
+    int amountScale = Math.min(buyPriceScale, sellPriceScale);
+    if (amountScale < QUANTITY_SCALE) {
+      volume -= volume % FixedPoint.pow10(QUANTITY_SCALE - amountScale);
+    }
+
+    if (volume < tradingParameters.getMinimumVolume(buy.getExchange(), pairId)
+        || volume < tradingParameters.getMinimumVolume(sell.getExchange(), pairId)) {
+      return 0;
+    }
+    return volume;
+  }
 
-      maxBaseAmount = maxBaseBuyable.min(maxBaseSellable);
+  /** Price scale the exchange publishes for the trade's pair, as its stream falls back to. */
+  private static int priceScale(TradingParameters tradingParameters, Trade trade) {
+    int priceScale = tradingParameters.getPriceScale(trade.getExchange(), trade.getPairId());
+    return priceScale == -1 ? FixedPoint.DEFAULT_PRICE_SCALE : priceScale;
+  }
+
+  /**
+   * @return the largest volume up to limit whose cost, volume * price * buyFactor, counter covers
+   */
+  private static long maxBuyableVolume(
+      long counter, long price, int priceScale, long buyFactor, long limit) {
+    // Estimated in double then settled exactly, the estimate is at most a few units off
+    double estimate =
+        (double) counter * FixedPoint.pow10(priceScale) / price * FixedPoint.FACTOR_ONE / buyFactor;
+    long volume = (long) Math.min(estimate, limit);
+    while (volume > 0 && !covers(counter, volume, price, priceScale, buyFactor)) volume--;
+    while (volume < limit && covers(counter, volume + 1, price, priceScale, buyFactor)) volume++;
+    return volume;
+  }
+
+  /** Exactly checks volume * price * buyFactor against counter, all at their own scales. */
+  private static boolean covers(
+      long counter, long volume, long price, int priceScale, long buyFactor) {
+    long scale = FixedPoint.pow10(priceScale);
+    return FixedPoint.compareWideProducts(
+            FixedPoint.multiplyHighUnsigned(volume, price),
+            volume * price,
+            buyFactor,
+            FixedPoint.multiplyHighUnsigned(counter, scale),
+            counter * scale,
+            FixedPoint.FACTOR_ONE)
+        <= 0;
+  }
+
+  /** Currency a trade spends, the counter for a bid and the base for an ask. */
+  private static Currency spentCurrency(Trade trade) {
+    return trade.getOrderActionType().equals(Order.OrderType.BID)
+        ? trade.getCurrencyPair().counter
+        : trade.getCurrencyPair().base;
+  }
+
+  /**
+   * Amount of its spent currency a trade needs at QUANTITY_SCALE, for a bid its cost multiplied by
+   * the taker buy factor of its exchange and pair.
+   */
+  private static long spentAmount(Trade trade, TradingParameters tradingParameters) {
+    if (trade.getOrderActionType().equals(Order.OrderType.ASK)) {
+      return FixedPoint.toScaled(trade.getAmount(), QUANTITY_SCALE, RoundingMode.CEILING);
     }
-    return maxBaseAmount;
+    long buyFactor = tradingParameters.getTakerBuyFactor(trade.getExchange(), trade.getPairId());
+    BigDecimal cost =
+        trade
+            .getPrice()
+            .multiply(trade.getAmount())
+            .multiply(FixedPoint.toBigDecimal(buyFactor, FixedPoint.FACTOR_SCALE));
+    return FixedPoint.toScaled(cost, QUANTITY_SCALE, RoundingMode.CEILING);
   }
 
   /**
@@ -169,36 +193,110 @@ public class TradePublisher implements EventHandler<TradeEvent> {
       return;
     }
 
-    BigDecimal maxActionableAmount = calculateMaxActionableAmount(trade1, trade2);
-    LOG.info("Max Actionable Amount: {}", maxActionableAmount);
-    trade1.setAmount(maxActionableAmount);
-    trade2.setAmount(maxActionableAmount);
-
-    if (maxActionableAmount.compareTo(BigDecimal.ZERO) > 0) {
-      tradeJournaler.logSubmittedTrade(trade1);
-      executorService.execute(
-          () -> {
-            try {
-              exchangeRestAPI1.submitTrade(trade1);
-            } catch (IOException e) {
-              LOG.error("Caught exception while executing order submission: {}", e);
-              LOG.error("Extended Stack Trace: {}", e.getStackTrace());
-            }
-          });
-      tradeJournaler.logSubmittedTrade(trade2);
-      executorService.execute(
-          () -> {
-            try {
-              exchangeRestAPI2.submitTrade(trade2);
-            } catch (IOException e) {
-              LOG.error("Caught exception while executing order submission: {}", e);
-              LOG.error("Extended Stack Trace: {}", e.getStackTrace());
-            }
-          });
+    TradingParameters tradingParameters = metadataAggregator.getTradingParameters();
+    if (!tradingParameters.isReady(trade1.getExchange(), trade1.getPairId())
+        || !tradingParameters.isReady(trade2.getExchange(), trade2.getPairId())) {
+      LOG.warn("Missing fees or metadata for {}, dropping opportunity", trade1.getCurrencyPair());
+      return;
     }
+    long maxActionableVolume = calculateMaxActionableVolume(trade1, trade2, tradingParameters);
+    LOG.debug("Max actionable volume: {}", maxActionableVolume);
+
+    if (maxActionableVolume > 0) {
+      // Submit sized copies, the TradeJournaler stage reads the detected trades concurrently
+      BigDecimal maxActionableAmount =
+          FixedPoint.toBigDecimal(maxActionableVolume, QUANTITY_SCALE);
+      trade1 = trade1.toBuilder().amount(maxActionableAmount).build();
+      trade2 = trade2.toBuilder().amount(maxActionableAmount).build();
+
+      // Reserve both legs before submitting either, so later opportunities size against the rest
+      BalanceLedger balanceLedger = metadataAggregator.getBalanceLedger();
+      long spent1 = spentAmount(trade1, tradingParameters);
+      long spent2 = spentAmount(trade2, tradingParameters);
+      if (!balanceLedger.reserve(trade1.getExchange(), spentCurrency(trade1), spent1)) {
+        LOG.info("Balance on {} was reserved by an earlier trade", trade1.getExchange());
+        return;
+      }
+      if (!balanceLedger.reserve(trade2.getExchange(), spentCurrency(trade2), spent2)) {
+        balanceLedger.release(trade1.getExchange(), spentCurrency(trade1), spent1);
+        LOG.info("Balance on {} was reserved by an earlier trade", trade2.getExchange());
+        return;
+      }
+
+      submitReserved(exchangeRestAPI1, trade1, spent1);
+      submitReserved(exchangeRestAPI2, trade2, spent2);
+    }
+  }
+
+  /**
+   * Submits a trade whose spent amount is reserved in the BalanceLedger. Once the exchange
+   * acknowledges the order the reservation stays open until the exchange's refreshes report it
+   * filled or closed, a rejected order releases it.
+   */
+  private void submitReserved(AbstractExchangeRestAPI exchangeRestAPI, Trade trade, long spent) {
+    BalanceLedger balanceLedger = metadataAggregator.getBalanceLedger();
+    executorService.execute(
+        () -> {
+          String orderId = null;
+          try {
+            orderId = exchangeRestAPI.submitTrade(trade);
+          } catch (IOException e) {
+            LOG.error("Caught exception while executing order submission: {}", e);
+            LOG.error("Extended Stack Trace: {}", e.getStackTrace());
+          } finally {
+            if (orderId != null) {
+              balanceLedger.acknowledge(trade.getExchange(), spentCurrency(trade), spent);
+              exchangeRestAPI.trackReservedOrder(
+                  orderId,
+                  new ReservedOrder(
+                      trade.getExchange(), spentCurrency(trade), spent, trade.getAmount()));
+            } else {
+              balanceLedger.release(trade.getExchange(), spentCurrency(trade), spent);
+            }
+            tradeJournaler.logSubmittedTrade(trade, orderId);
+          }
+        });
   }
 
+  /**
+   * Submits the three legs of a triangular arbitrage opportunity to their exchange. Legs are sized by
+   * the arbitrage layer against the top of each book, the input currency of every leg is reserved
+   * before any is submitted so the cycle is dropped if one of them is not covered.
+   */
   private void processTriangularArbitrage(Trade trade1, Trade trade2, Trade trade3) {
-    //TODO: To-implement
+    AbstractExchangeRestAPI exchangeRestAPI = exchangeRestAPIMap.get(trade1.getExchange());
+    if (exchangeRestAPI == null) {
+      LOG.error("Unable to load {}'s exchangeRestAPI", trade1.getExchange());
+      return;
+    }
+
+    Trade[] trades = {trade1, trade2, trade3};
+    TradingParameters tradingParameters = metadataAggregator.getTradingParameters();
+    for (Trade trade : trades) {
+      if (!tradingParameters.isReady(trade.getExchange(), trade.getPairId())) {
+        LOG.warn("Missing fees or metadata for {}, dropping cycle", trade.getCurrencyPair());
+        return;
+      }
+    }
+    long[] spent = new long[trades.length];
+    BalanceLedger balanceLedger = metadataAggregator.getBalanceLedger();
+    for (int i = 0; i < trades.length; i++) {
+      spent[i] = spentAmount(trades[i], tradingParameters);
+      if (!balanceLedger.reserve(trades[i].getExchange(), spentCurrency(trades[i]), spent[i])) {
+        for (int j = 0; j < i; j++) {
+          balanceLedger.release(trades[j].getExchange(), spentCurrency(trades[j]), spent[j]);
+        }
+        LOG.info(
+            "Insufficient {} balance on {} for triangular arbitrage leg {}",
+            spentCurrency(trades[i]),
+            trades[i].getExchange(),
+            i + 1);
+        return;
+      }
+    }
+
+    for (int i = 0; i < trades.length; i++) {
+      submitReserved(exchangeRestAPI, trades[i], spent[i]);
+    }
   }
 }
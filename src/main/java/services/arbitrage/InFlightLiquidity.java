@@ -0,0 +1,162 @@
+package services.arbitrage;
+
+import domain.constants.Exchange;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Quantity claimed by trades already published against each (exchange, pair, side, price) level,
+ * shared by every ComputeArbitrageTaskV2. Claims for an (exchange, pair) are held in an immutable
+ * list swapped in with a CAS, so concurrent tasks never claim more of a level than it holds and no
+ * locks are taken. Claims are keyed by price level rather than by the book they were read from, so
+ * they outlive the venue's next updates, and each expires after a TTL long enough for our orders to
+ * reach the venue and its book to reflect them. Until then the level's quantity may already be
+ * reduced by our own orders, so claims err on the side of under-using it.
+ */
+public class InFlightLiquidity {
+  private static final int EXCHANGE_COUNT = Exchange.values().length;
+
+  private final long ttlNanos;
+  // [pairId * EXCHANGE_COUNT + exchange ordinal], null until a claim is made
+  private final AtomicReferenceArray<Claims> claims;
+
+  /** @param ttlMillis - how long a claim holds its level */
+  public InFlightLiquidity(int pairCount, long ttlMillis) {
+    this.ttlNanos = ttlMillis * 1_000_000L;
+    this.claims = new AtomicReferenceArray<>(pairCount * EXCHANGE_COUNT);
+  }
+
+  private static int slot(Exchange exchange, int pairId) {
+    return pairId * EXCHANGE_COUNT + exchange.ordinal();
+  }
+
+  /**
+   * Claims up to quantity of the level at price.
+   *
+   * @param price - at the book's price scale
+   * @param levelQuantity - quantity the level holds in the book the task read
+   * @param now - current System.nanoTime()
+   * @return quantity granted, 0 if the level is fully claimed
+   */
+  public long claim(
+      Exchange exchange,
+      int pairId,
+      boolean bidSide,
+      long price,
+      long quantity,
+      long levelQuantity,
+      long now) {
+    int slot = slot(exchange, pairId);
+    while (true) {
+      Claims current = claims.get(slot);
+      long claimed = current == null ? 0 : current.claimed(bidSide, price, now);
+      long granted = Math.min(quantity, levelQuantity - claimed);
+      if (granted <= 0) return 0;
+      Claims base = current == null ? Claims.EMPTY : current;
+      Claims next = base.with(bidSide, price, granted, now + ttlNanos, now);
+      if (claims.compareAndSet(slot, current, next)) {
+        return granted;
+      }
+    }
+  }
+
+  /** Gives back part of a claim that could not be used, e.g. when the other leg came up short. */
+  public void unclaim(
+      Exchange exchange, int pairId, boolean bidSide, long price, long quantity, long now) {
+    int slot = slot(exchange, pairId);
+    while (true) {
+      Claims current = claims.get(slot);
+      // Already expired
+      if (current == null) return;
+      if (claims.compareAndSet(slot, current, current.without(bidSide, price, quantity, now))) {
+        return;
+      }
+    }
+  }
+
+  /** @return quantity claimed at the level and not yet expired */
+  public long getClaimed(Exchange exchange, int pairId, boolean bidSide, long price, long now) {
+    Claims current = claims.get(slot(exchange, pairId));
+    return current == null ? 0 : current.claimed(bidSide, price, now);
+  }
+
+  /**
+   * Immutable claims on one (exchange, pair), one entry per claim so each expires on its own. A
+   * handful of entries at most, so they are scanned linearly.
+   */
+  private static class Claims {
+    private static final Claims EMPTY =
+        new Claims(new boolean[0], new long[0], new long[0], new long[0]);
+
+    private final boolean[] bidSides;
+    private final long[] prices;
+    private final long[] quantities;
+    private final long[] expiries;
+
+    private Claims(boolean[] bidSides, long[] prices, long[] quantities, long[] expiries) {
+      this.bidSides = bidSides;
+      this.prices = prices;
+      this.quantities = quantities;
+      this.expiries = expiries;
+    }
+
+    private boolean matches(int i, boolean bidSide, long price, long now) {
+      return bidSides[i] == bidSide && prices[i] == price && expiries[i] - now > 0;
+    }
+
+    private long claimed(boolean bidSide, long price, long now) {
+      long claimed = 0;
+      for (int i = 0; i < prices.length; i++) {
+        if (matches(i, bidSide, price, now)) claimed += quantities[i];
+      }
+      return claimed;
+    }
+
+    /** @return these claims less expired ones, plus a claim of quantity at the level */
+    private Claims with(boolean bidSide, long price, long quantity, long expiry, long now) {
+      Claims live = live(now, 1);
+      int last = live.prices.length - 1;
+      live.bidSides[last] = bidSide;
+      live.prices[last] = price;
+      live.quantities[last] = quantity;
+      live.expiries[last] = expiry;
+      return live;
+    }
+
+    /** @return these claims less expired ones, with quantity taken off the level's latest claims */
+    private Claims without(boolean bidSide, long price, long quantity, long now) {
+      Claims live = live(now, 0);
+      for (int i = live.prices.length - 1; i >= 0 && quantity > 0; i--) {
+        if (!live.matches(i, bidSide, price, now)) continue;
+        long taken = Math.min(quantity, live.quantities[i]);
+        live.quantities[i] -= taken;
+        quantity -= taken;
+      }
+      return live;
+    }
+
+    /** @return a copy of the unexpired, non-empty claims with room for extra more */
+    private Claims live(long now, int extra) {
+      int count = 0;
+      for (int i = 0; i < prices.length; i++) {
+        if (quantities[i] > 0 && expiries[i] - now > 0) count++;
+      }
+      Claims live =
+          new Claims(
+              new boolean[count + extra],
+              new long[count + extra],
+              new long[count + extra],
+              new long[count + extra]);
+      int index = 0;
+      for (int i = 0; i < prices.length; i++) {
+        if (quantities[i] <= 0 || expiries[i] - now <= 0) continue;
+        live.bidSides[index] = bidSides[i];
+        live.prices[index] = prices[i];
+        live.quantities[index] = quantities[i];
+        live.expiries[index] = expiries[i];
+        index++;
+      }
+      return live;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package services.arbitrage;
+
+import domain.constants.Exchange;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suppresses re-emission of an opportunity whose crossed levels have not changed. Crossed levels
+ * typically persist across several consecutive book updates, each of which would otherwise publish
+ * and journal an identical trade. Opportunities are keyed by (pair, buy exchange, sell exchange, ask
+ * price, bid price), with one slot per (pair, buy exchange, sell exchange) holding the prices last
+ * emitted, so the cache is bounded by construction. A slot is overwritten when its prices change and
+ * expires once the TTL has elapsed since its emission, after which the same opportunity is emitted
+ * again.
+ *
+ * <p>Not thread-safe, expected to be owned by a single event handler. The counters may be read from
+ * any thread.
+ */
+public class OpportunityCache {
+  private static final int EXCHANGE_COUNT = Exchange.values().length;
+
+  private final long ttlNanos;
+
+  // [pairId * EXCHANGE_COUNT^2 + buyExchangeId * EXCHANGE_COUNT + sellExchangeId]
+  private final long[] askPrices;
+  private final long[] bidPrices;
+  private final int[] priceScales;
+  // 0 where the slot was never emitted
+  private final long[] emittedAt;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /** @param ttlMillis - how long an unchanged opportunity is suppressed for, 0 disables the cache */
+  public OpportunityCache(int pairCount, long ttlMillis) {
+    this.ttlNanos = ttlMillis * 1_000_000L;
+    int slots = pairCount * EXCHANGE_COUNT * EXCHANGE_COUNT;
+    this.askPrices = new long[slots];
+    this.bidPrices = new long[slots];
+    this.priceScales = new int[slots];
+    this.emittedAt = new long[slots];
+  }
+
+  /**
+   * Records the opportunity as emitted unless an identical one was emitted within the TTL.
+   *
+   * @param askPrice - price bought at on buyExchange, at priceScale
+   * @param bidPrice - price sold at on sellExchange, at priceScale
+   * @param now - current System.nanoTime()
+   * @return true if the opportunity should be suppressed
+   */
+  public boolean isDuplicate(
+      int pairId,
+      Exchange buyExchange,
+      Exchange sellExchange,
+      long askPrice,
+      long bidPrice,
+      int priceScale,
+      long now) {
+    if (ttlNanos == 0) return false;
+
+    int slot =
+        (pairId * EXCHANGE_COUNT + buyExchange.ordinal()) * EXCHANGE_COUNT
+            + sellExchange.ordinal();
+    if (emittedAt[slot] != 0
+        && now - emittedAt[slot] < ttlNanos
+        && askPrices[slot] == askPrice
+        && bidPrices[slot] == bidPrice
+        && priceScales[slot] == priceScale) {
+      hitCount.incrementAndGet();
+      return true;
+    }
+
+    askPrices[slot] = askPrice;
+    bidPrices[slot] = bidPrice;
+    priceScales[slot] = priceScale;
+    // 0 is reserved for slots never emitted
+    emittedAt[slot] = now == 0 ? 1 : now;
+    missCount.incrementAndGet();
+    return false;
+  }
+
+  /** Number of opportunities suppressed. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Number of opportunities let through while the cache is enabled. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+}
@@ -1,66 +1,76 @@
 package services.arbitrage;
 
+import buffer.BatchEndAware;
 import buffer.TradeBuffer;
 import buffer.events.OrderBookEvent;
 import com.lmax.disruptor.EventHandler;
 import config.Configuration;
+import domain.CompactOrderBook;
+import domain.DepthSweep;
+import domain.LiquidityOverlay;
+import domain.OrderBookDelta;
+import domain.SymbolRegistry;
+import domain.TradingParameters;
 import domain.Trade;
 import domain.constants.Exchange;
 import org.knowm.xchange.currency.CurrencyPair;
-import org.knowm.xchange.dto.account.Fee;
-import org.knowm.xchange.dto.marketdata.OrderBook;
-import org.knowm.xchange.dto.trade.LimitOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import services.MetadataAggregator;
-import services.journal.TradeJournaler;
-import util.ThreadFactory;
+import util.FixedPoint;
+import util.TimingWheel;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeSet;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
 
 import static domain.constants.OrderType.LIMIT;
 import static org.knowm.xchange.dto.Order.OrderType.ASK;
 import static org.knowm.xchange.dto.Order.OrderType.BID;
-
-/** A basic, naive spatial arbitrage algorithm for initial testing purposes. */
-public class SpatialArbitrager implements EventHandler<OrderBookEvent> {
+import static util.FixedPoint.QUANTITY_SCALE;
+
+/**
+ * A basic, naive spatial arbitrage algorithm for initial testing purposes. State is held per pair
+ * and only touched from onEvent, so instances may be sharded by pair across consumer threads (see
+ * PairPartitionedHandler), one instance per shard.
+ *
+ * <p>Updates are applied to the held books as they arrive, the cross-exchange scan is deferred to
+ * the end of the Disruptor batch and runs once per pair updated within it. A consumer catching up
+ * on a backlog therefore scans each dirty pair once rather than once per superseded update.
+ */
+public class SpatialArbitrager implements EventHandler<OrderBookEvent>, BatchEndAware {
 
   private static final Logger LOG = LoggerFactory.getLogger(SpatialArbitrager.class);
+  private static final Exchange[] EXCHANGES = Exchange.values();
+  private static final long STALENESS_TICK_NANOS = 10_000_000L;
+  private static final int STALENESS_WHEEL_SIZE = 256;
 
-  // Sort OrderBooks in ascending order according to each book's first ask
-  private static final Comparator<Map.Entry<Exchange, OrderBook>> ascendingAskComparator =
-      (e1, e2) -> {
-        if (e1.getKey().name().equals(e2.getKey().name())) return 0;
-        return e1.getValue().getAsks().get(0).compareTo(e2.getValue().getAsks().get(0));
-      };
-
-  // Sort OrderBooks in descending order according to each book's first bid
-  private static final Comparator<Map.Entry<Exchange, OrderBook>> descendingBidComparator =
-      (e1, e2) -> {
-        if (e1.getKey().name().equals(e2.getKey().name())) return 0;
-        return e1.getValue().getBids().get(0).compareTo(e2.getValue().getBids().get(0));
-      };
-
-  private TradeJournaler tradeJournaler;
   private MetadataAggregator metadataAggregator;
   private TradeBuffer tradeBuffer;
-  private ExecutorService executorService;
-
-  private final Map<CurrencyPair, TreeSet<Entry<Exchange, OrderBook>>> orderBooksAscendingAsks =
-      new ConcurrentHashMap<>();
-  private final Map<CurrencyPair, TreeSet<Entry<Exchange, OrderBook>>> orderBooksDescendingBids =
-      new ConcurrentHashMap<>();
+  private SymbolRegistry symbolRegistry;
+
+  // Indexed by pairId. Books are owned by this handler, ring slots are copied in since they are
+  // reused after onEvent
+  private final TopOfBookIndex[] topOfBookIndices;
+  private final TriggerThresholds triggerThresholds;
+  // Liquidity taken by trades detected during the current processOrderbooks pass, by exchange
+  // ordinal. Sized lazily to the capacity of the books seen
+  private LiquidityOverlay liquidityOverlay;
+  // Sizes each book pairing's trade, regrown to the deepest book seen
+  private final DepthSweep depthSweep = new DepthSweep(0);
+  private final OpportunityCache opportunityCache;
+  // Max book age by exchange ordinal, 0 where books never go stale
+  private final long[] maxBookAgeNanos = new long[EXCHANGES.length];
+  // Deadlines by pairId * EXCHANGES.length + exchange ordinal, stale books are evicted from their
+  // TopOfBookIndex
+  private final TimingWheel stalenessWheel;
+  private final IntConsumer evictStaleBook = this::evictStaleBook;
+  // Pairs updated since the last scan, in the order first updated
+  private final int[] dirtyPairs;
+  private int dirtyPairCount;
+  // Exchanges updated since the last scan by pairId, a bit per exchange ordinal
+  private final int[] dirtyExchanges;
 
   private BigDecimal minGain;
 
@@ -68,254 +78,412 @@ public class SpatialArbitrager implements EventHandler<OrderBookEvent> {
       Configuration cfg,
       MetadataAggregator metadataAggregator,
       TradeBuffer tradeBuffer,
-      TradeJournaler tradeJournaler) {
+      SymbolRegistry symbolRegistry) {
     this.minGain = cfg.getSpatialArbitragerConfig().getMinGain();
 
     this.metadataAggregator = metadataAggregator;
     this.tradeBuffer = tradeBuffer;
-    executorService = Executors.newFixedThreadPool(3, new ThreadFactory("V1WorkerPool"));
+    this.symbolRegistry = symbolRegistry;
+    this.triggerThresholds = new TriggerThresholds(metadataAggregator, symbolRegistry);
+    this.opportunityCache =
+        new OpportunityCache(
+            symbolRegistry.getPairCount(), cfg.getSpatialArbitragerConfig().getDedupTtlMillis());
+    for (Configuration.ExchangeConfig exchangeConfig : cfg.getExchangeConfigs()) {
+      if (exchangeConfig == null) continue;
+      maxBookAgeNanos[exchangeConfig.getExchange().ordinal()] =
+          exchangeConfig.getMaxBookAgeMillis() * 1_000_000L;
+    }
+    this.stalenessWheel =
+        new TimingWheel(
+            symbolRegistry.getPairCount() * EXCHANGES.length,
+            STALENESS_WHEEL_SIZE,
+            STALENESS_TICK_NANOS,
+            System.nanoTime());
+    this.dirtyPairs = new int[symbolRegistry.getPairCount()];
+    this.dirtyExchanges = new int[symbolRegistry.getPairCount()];
+    this.topOfBookIndices = new TopOfBookIndex[symbolRegistry.getPairCount()];
+    for (int pairId = 0; pairId < topOfBookIndices.length; pairId++) {
+      topOfBookIndices[pairId] = new TopOfBookIndex();
+    }
   }
 
-  public class Entry<K, V> implements Map.Entry<K, V> {
-    private final K key;
-    private V value;
+  public BigDecimal getMinGain() {
+    return this.minGain;
+  }
 
-    public Entry(final K key) {
-      this.key = key;
-    }
+  public OpportunityCache getOpportunityCache() {
+    return opportunityCache;
+  }
 
-    public Entry(final K key, final V value) {
-      this.key = key;
-      this.value = value;
-    }
+  public TopOfBookIndex getTopOfBookIndex(int pairId) {
+    return topOfBookIndices[pairId];
+  }
 
-    public K getKey() {
-      return key;
+  @Override
+  public void onEvent(OrderBookEvent event, long sequence, boolean endOfBatch) {
+    switch (event.type) {
+      case SNAPSHOT:
+        storeOrderBook(event.exchange, event.pairId, event.orderBook, event.receivedAt);
+        break;
+      case DELTA:
+        storeDelta(event.exchange, event.pairId, event.delta, event.receivedAt);
+        break;
+      case HEARTBEAT:
+        storeHeartbeat(event.exchange, event.pairId, event.receivedAt);
+        break;
     }
+    if (endOfBatch) scanDirtyPairs();
+  }
 
-    public V getValue() {
-      return value;
-    }
+  /** Called by a PairPartitionedHandler when the batch's last event belongs to another shard. */
+  @Override
+  public void onBatchEnd() {
+    scanDirtyPairs();
+  }
 
-    public V setValue(final V value) {
-      final V oldValue = this.value;
-      this.value = value;
-      return oldValue;
+  public void upsertOrderBook(Exchange exchange, int pairId, CompactOrderBook orderBook) {
+    upsertOrderBook(exchange, pairId, orderBook, System.nanoTime());
+  }
+
+  /**
+   * Stores the book held for an exchange, then scans every pair updated since the last scan.
+   *
+   * @param receivedAt - System.nanoTime() at which the book was received
+   */
+  public void upsertOrderBook(
+      Exchange exchange, int pairId, CompactOrderBook orderBook, long receivedAt) {
+    storeOrderBook(exchange, pairId, orderBook, receivedAt);
+    scanDirtyPairs();
+  }
+
+  private void storeOrderBook(
+      Exchange exchange, int pairId, CompactOrderBook orderBook, long receivedAt) {
+    TopOfBookIndex topOfBookIndex = topOfBookIndices[pairId];
+    CompactOrderBook ownedOrderBook = topOfBookIndex.getOrderBook(exchange);
+    if (ownedOrderBook == null) {
+      ownedOrderBook = new CompactOrderBook(orderBook.getCapacity());
     }
+    ownedOrderBook.copyFrom(orderBook);
+    topOfBookIndex.update(exchange, ownedOrderBook);
+    trackBookAge(exchange, pairId, receivedAt);
+    markDirty(exchange, pairId);
   }
 
-  public BigDecimal getMinGain() {
-    return this.minGain;
+  public void applyDelta(Exchange exchange, int pairId, OrderBookDelta delta) {
+    applyDelta(exchange, pairId, delta, System.nanoTime());
   }
 
-  public TreeSet<Entry<Exchange, OrderBook>> getOrderBooksAscendingAsks(CurrencyPair currencyPair) {
-    return orderBooksAscendingAsks.get(currencyPair);
+  /**
+   * Applies level changes to the book held for an exchange, then scans every pair updated since the
+   * last scan.
+   */
+  public void applyDelta(Exchange exchange, int pairId, OrderBookDelta delta, long receivedAt) {
+    storeDelta(exchange, pairId, delta, receivedAt);
+    scanDirtyPairs();
   }
 
-  public TreeSet<Entry<Exchange, OrderBook>> getOrderBooksDescendingBids(
-      CurrencyPair currencyPair) {
-    return orderBooksDescendingBids.get(currencyPair);
+  private void storeDelta(Exchange exchange, int pairId, OrderBookDelta delta, long receivedAt) {
+    TopOfBookIndex topOfBookIndex = topOfBookIndices[pairId];
+    CompactOrderBook ownedOrderBook = topOfBookIndex.getOrderBook(exchange);
+    if (ownedOrderBook == null) {
+      LOG.warn(
+          "Discarding delta for {} : {} received before its snapshot",
+          exchange,
+          symbolRegistry.getCurrencyPair(pairId));
+      return;
+    }
+    ownedOrderBook.apply(delta);
+    topOfBookIndex.update(exchange, ownedOrderBook);
+    trackBookAge(exchange, pairId, receivedAt);
+    markDirty(exchange, pairId);
   }
 
-  @Override
-  public void onEvent(OrderBookEvent event, long sequence, boolean endOfBatch) {
-    this.upsertOrderBook(event.exchange, event.currencyPair, event.orderBook);
+  /**
+   * Refreshes the age of a book whose venue sent an update leaving its levels unchanged, restoring
+   * it to the index if it had been evicted in the meantime.
+   */
+  private void storeHeartbeat(Exchange exchange, int pairId, long receivedAt) {
+    TopOfBookIndex topOfBookIndex = topOfBookIndices[pairId];
+    CompactOrderBook ownedOrderBook = topOfBookIndex.getOrderBook(exchange);
+    if (ownedOrderBook == null) return;
+    trackBookAge(exchange, pairId, receivedAt);
+    if (!topOfBookIndex.isRanked(exchange)) {
+      topOfBookIndex.update(exchange, ownedOrderBook);
+      markDirty(exchange, pairId);
+    }
   }
 
-  // TODO: Not sure why but long-running executions results in a single exchange with a duplicate
-  // entry in the TreeSet...
-  public void upsertOrderBook(Exchange exchange, CurrencyPair currencyPair, OrderBook orderBook) {
-    // Update TreeSets
-    orderBooksAscendingAsks.computeIfAbsent(
-        currencyPair,
-        (k) -> {
-          return new TreeSet(ascendingAskComparator);
-        });
-    orderBooksDescendingBids.computeIfAbsent(
-        currencyPair,
-        (k) -> {
-          return new TreeSet(descendingBidComparator);
-        });
-
-    Entry<Exchange, OrderBook> entry = new Entry(exchange, orderBook);
-    if (orderBooksAscendingAsks.get(currencyPair).contains(entry)) {
-      orderBooksAscendingAsks.get(currencyPair).remove(entry);
+  private void markDirty(Exchange exchange, int pairId) {
+    if (dirtyExchanges[pairId] == 0) {
+      dirtyPairs[dirtyPairCount++] = pairId;
     }
-    if (orderBooksDescendingBids.get(currencyPair).contains(entry)) {
-      orderBooksDescendingBids.get(currencyPair).remove(entry);
+    dirtyExchanges[pairId] |= 1 << exchange.ordinal();
+  }
+
+  /** Scans each dirty pair once, however many updates it received since the last scan. */
+  private void scanDirtyPairs() {
+    try {
+      for (int i = 0; i < dirtyPairCount; i++) {
+        int pairId = dirtyPairs[i];
+        int exchanges = dirtyExchanges[pairId];
+        dirtyExchanges[pairId] = 0;
+        if (crossingExists(pairId, exchanges)) {
+          processOrderbooks(pairId);
+        }
+      }
+    } finally {
+      dirtyPairCount = 0;
     }
-    orderBooksAscendingAsks.get(currencyPair).add(entry);
-    orderBooksDescendingBids.get(currencyPair).add(entry);
+  }
 
-    // Perform Checks
-    if (orderBooksAscendingAsks.size() != orderBooksDescendingBids.size()) {
-      LOG.error("Different TreeSet sizes for currency pair {}", currencyPair);
-      return;
+  /**
+   * Moves the book's staleness deadline to its max age past receivedAt, then evicts every book whose
+   * deadline has passed. Only the wheel's elapsed ticks are visited, books are never scanned.
+   */
+  private void trackBookAge(Exchange exchange, int pairId, long receivedAt) {
+    long maxAge = maxBookAgeNanos[exchange.ordinal()];
+    if (maxAge > 0) {
+      stalenessWheel.schedule(pairId * EXCHANGES.length + exchange.ordinal(), receivedAt + maxAge);
     }
-    // Not enough exchanges to analyze price deviations
-    if (orderBooksAscendingAsks.get(currencyPair).size() <= 1) {
-      LOG.debug(
-          "Currency Pair: {} does not possess the minimum number of exchanges to perform spatial arbitrage analysis",
-          currencyPair);
-      return;
+    stalenessWheel.advance(System.nanoTime(), evictStaleBook);
+  }
+
+  private void evictStaleBook(int key) {
+    int pairId = key / EXCHANGES.length;
+    Exchange exchange = EXCHANGES[key % EXCHANGES.length];
+    topOfBookIndices[pairId].evict(exchange);
+    LOG.warn(
+        "Evicted stale orderbook for {} : {}, no update within {}ms",
+        exchange,
+        symbolRegistry.getCurrencyPair(pairId),
+        maxBookAgeNanos[exchange.ordinal()] / 1_000_000L);
+  }
+
+  /**
+   * Screens the top of book of each exchange updated since the last scan against the others', the
+   * pair's levels are only scanned if one of them crosses.
+   *
+   * @param exchanges - updated exchanges, a bit per exchange ordinal
+   */
+  private boolean crossingExists(int pairId, int exchanges) {
+    TopOfBookIndex topOfBookIndex = topOfBookIndices[pairId];
+    for (Exchange exchange : EXCHANGES) {
+      if ((exchanges & (1 << exchange.ordinal())) == 0) continue;
+      // A book missing either side has no top level to be ordered by
+      if (topOfBookIndex.getOrderBook(exchange).isEmpty()) {
+        LOG.debug(
+            "Orderbook for {} : {} has an empty side",
+            exchange,
+            symbolRegistry.getCurrencyPair(pairId));
+        continue;
+      }
+      // Already older than its max age when it was handled
+      if (!topOfBookIndex.isRanked(exchange)) continue;
+      // Not enough exchanges to analyze price deviations
+      if (topOfBookIndex.size() <= 1) {
+        LOG.debug(
+            "Currency Pair: {} does not possess the minimum number of exchanges to perform spatial arbitrage analysis",
+            symbolRegistry.getCurrencyPair(pairId));
+        return false;
+      }
+      if (crossingExists(exchange, pairId, topOfBookIndex)) return true;
     }
+    return false;
+  }
 
-    processOrderbooks(currencyPair);
+  /**
+   * Screens the updated exchange's top of book against every other exchange's, in both directions,
+   * with the precomputed trigger factors.
+   */
+  private boolean crossingExists(Exchange exchange, int pairId, TopOfBookIndex topOfBookIndex) {
+    triggerThresholds.refresh(minGain);
+    CompactOrderBook updated = topOfBookIndex.getOrderBook(exchange);
+    for (int rank = 0; rank < topOfBookIndex.size(); rank++) {
+      Exchange other = topOfBookIndex.getAskExchange(rank);
+      if (other == exchange) continue;
+      CompactOrderBook otherBook = topOfBookIndex.getAskOrderBook(rank);
+      if (triggerThresholds.crosses(pairId, exchange, updated, other, otherBook)
+          || triggerThresholds.crosses(pairId, other, otherBook, exchange, updated)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
    * TODO: Add user enable-able logic to place a maker order on either buy/sell side (in the spread
    * zone)
    *
-   * @param currencyPair
-   * @param askOrderBook
-   * @param bidOrderBook
+   * <p>Both books are compared at the larger of their price scales. Rather than matching ask and bid
+   * levels one pair at a time, the DepthSweep finds the largest quantity whose aggregate
+   * fee-adjusted gain still meets minGain, which is published as a single limit order per leg at the
+   * marginal price. Quantity taken by a detected trade is recorded in the pass' LiquidityOverlay,
+   * the books themselves are left untouched.
+   *
+   * @param tradingParameters
+   * @param pairId
+   * @param askExchange
+   * @param asks
+   * @param bidExchange
+   * @param bids
    * @return
    */
   private boolean extractTrades(
-      CurrencyPair currencyPair,
-      Entry<Exchange, OrderBook> askOrderBook,
-      Entry<Exchange, OrderBook> bidOrderBook) {
-    Integer ex1PriceScale = metadataAggregator.getPriceScale(askOrderBook.getKey(), currencyPair);
-    BigDecimal ex1MinOrderAmount =
-        metadataAggregator.getMinimumOrderAmount(askOrderBook.getKey(), currencyPair);
-    BigDecimal ex1MaxOrder;
-    Fee ex1Fees = metadataAggregator.getFees(askOrderBook.getKey(), currencyPair);
-    BigDecimal ex1MakerFee = ex1Fees.getMakerFee();
-    BigDecimal ex1TakerFee = ex1Fees.getTakerFee();
-
-    Integer ex2PriceScale = metadataAggregator.getPriceScale(bidOrderBook.getKey(), currencyPair);
-    BigDecimal ex2MinOrderAmount =
-        metadataAggregator.getMinimumOrderAmount(bidOrderBook.getKey(), currencyPair);
-    BigDecimal ex2MaxOrder;
-    Fee ex2Fees = metadataAggregator.getFees(bidOrderBook.getKey(), currencyPair);
-    BigDecimal ex2MakerFee = ex2Fees.getMakerFee();
-    BigDecimal ex2TakerFee = ex2Fees.getTakerFee();
+      TradingParameters tradingParameters,
+      int pairId,
+      Exchange askExchange,
+      CompactOrderBook asks,
+      Exchange bidExchange,
+      CompactOrderBook bids) {
+    // Pairings missing fees or metadata are skipped
+    if (!tradingParameters.isReady(askExchange, pairId)
+        || !tradingParameters.isReady(bidExchange, pairId)) {
+      return true;
+    }
+    BigDecimal ex1TakerFee = tradingParameters.getTakerFee(askExchange, pairId);
+    BigDecimal ex2TakerFee = tradingParameters.getTakerFee(bidExchange, pairId);
 
     // To determine price level ceiling for a maker order on ex1
-    BigDecimal ex1HighestBid = askOrderBook.getValue().getBids().get(0).getLimitPrice();
+    long ex1HighestBid = asks.getBidPrice(0);
     // To determine price level floor for a maker order on ex2
-    BigDecimal ex2LowestAsk = bidOrderBook.getValue().getAsks().get(0).getLimitPrice();
-
-    boolean tradesDiscovered = true; // Set to true so that the initial iteration may occur
-    List<LimitOrder> asks = askOrderBook.getValue().getAsks();
-    List<LimitOrder> bids = bidOrderBook.getValue().getBids();
-    List<LimitOrder> consumedAsks = new ArrayList<>();
-    List<LimitOrder> consumedBids = new ArrayList<>();
-    for (int i = 0; i < asks.size(); i++) {
-      if (!tradesDiscovered) break;
-
-      BigDecimal ex1CurLowestAskPrice = asks.get(i).getLimitPrice();
-      BigDecimal ex1CurLowestAskVolume = asks.get(i).getOriginalAmount();
-
-      // Min-volume Check for ex1
-      if (ex1CurLowestAskVolume.compareTo(ex1MinOrderAmount) < 0) continue;
-
-      for (int j = 0; j < bids.size(); j++) {
-        BigDecimal ex2CurHighestBidPrice = bids.get(j).getLimitPrice();
-        BigDecimal ex2CurHighestBidVolume = bids.get(j).getOriginalAmount();
-
-        // Min-volume Check for ex2
-        if (ex2CurHighestBidVolume.compareTo(ex2MinOrderAmount) < 0) continue;
-
-        BigDecimal effectiveBaseOrderVolume = ex1CurLowestAskVolume.min(ex2CurHighestBidVolume);
-
-        // Check for costToBuy = 0: .02371 * .0000004 / (1 - .0026)
-        // Prices AND Fees are assumed to be in the quote currency (See README for details)
-        BigDecimal costToBuy = ex1CurLowestAskPrice.multiply(effectiveBaseOrderVolume);
-        BigDecimal buyFee = costToBuy.multiply(ex1TakerFee);
-        BigDecimal totalCostToBuy = costToBuy.add(costToBuy.multiply(buyFee));
-
-        BigDecimal incomeSold = ex2CurHighestBidPrice.multiply(effectiveBaseOrderVolume);
-        BigDecimal sellFee = incomeSold.multiply(ex2TakerFee);
-        BigDecimal totalIncomeSold = incomeSold.subtract(sellFee);
-
-        // Arbitrage Opportunity Detected!
-        if (totalIncomeSold.compareTo(totalCostToBuy) > 0
-            && totalIncomeSold
-                    .subtract(totalCostToBuy)
-                    .divide(totalCostToBuy, 5, RoundingMode.HALF_EVEN)
-                    .compareTo(minGain)
-                >= 0) {
-
-          UUID uuid = UUID.randomUUID();
-          Instant now = Instant.now();
-
-          Trade buyLow =
-              Trade.builder()
-                  .uuid(uuid)
-                  .exchange(askOrderBook.getKey())
-                  .currencyPair(currencyPair)
-                  .orderActionType(BID)
-                  .orderType(LIMIT)
-                  .price(ex1CurLowestAskPrice)
-                  .amount(effectiveBaseOrderVolume)
-                  .feePercentage(ex1TakerFee)
-                  .timeDiscovered(now)
-                  .fee(buyFee)
-                  .total(totalCostToBuy)
-                  .build();
-          Trade sellHigh =
-              Trade.builder()
-                  .uuid(uuid)
-                  .exchange(bidOrderBook.getKey())
-                  .currencyPair(currencyPair)
-                  .orderActionType(ASK)
-                  .orderType(LIMIT)
-                  .price(ex2CurHighestBidPrice)
-                  .amount(effectiveBaseOrderVolume)
-                  .feePercentage(ex2TakerFee)
-                  .timeDiscovered(now)
-                  .fee(sellFee)
-                  .total(totalIncomeSold)
-                  .build();
-
-          // Submit + Journal Trade
-          tradeBuffer.insert(buyLow, sellHigh);
-          tradeJournaler.logDetectedTrade(buyLow, sellHigh);
-
-          tradesDiscovered = true;
-          consumedAsks.add(asks.get(i));
-          consumedBids.add(bids.get(j));
-        } else {
-          // No other opportunities can possibly exist
-          tradesDiscovered = false;
-          break;
-        }
-      }
+    long ex2LowestAsk = bids.getAskPrice(0);
+
+    // Scaled-long parameters, computed once per book pairing
+    int priceScale = Math.max(asks.getPriceScale(), bids.getPriceScale());
+    long ex1MinVolume = tradingParameters.getMinimumVolume(askExchange, pairId);
+    long ex2MinVolume = tradingParameters.getMinimumVolume(bidExchange, pairId);
+    long buyFactor = FixedPoint.buyFactor(ex1TakerFee, minGain);
+    long sellFactor = FixedPoint.sellFactor(ex2TakerFee);
+
+    long quantity =
+        depthSweep.sweep(
+            asks,
+            askExchange.ordinal(),
+            bids,
+            bidExchange.ordinal(),
+            liquidityOverlay,
+            priceScale,
+            buyFactor,
+            sellFactor);
+    // Min-volume Check for both exchanges
+    if (quantity == 0 || quantity < ex1MinVolume || quantity < ex2MinVolume) return true;
+
+    // Already published at these prices, its liquidity is still spoken for
+    if (opportunityCache.isDuplicate(
+        pairId,
+        askExchange,
+        bidExchange,
+        depthSweep.getAskPrice(),
+        depthSweep.getBidPrice(),
+        priceScale,
+        System.nanoTime())) {
+      depthSweep.consume(liquidityOverlay, askExchange.ordinal(), bidExchange.ordinal());
+      return true;
     }
-    asks.removeAll(consumedAsks);
-    bids.removeAll(consumedBids);
 
-    return consumedAsks.isEmpty() && consumedBids.isEmpty();
+    // Arbitrage Opportunity Detected!
+    // Prices AND Fees are assumed to be in the quote currency (See README for details)
+    BigDecimal amount = FixedPoint.toBigDecimal(quantity, QUANTITY_SCALE);
+    BigDecimal askPrice = FixedPoint.toBigDecimal(depthSweep.getAskPrice(), priceScale);
+    BigDecimal bidPrice = FixedPoint.toBigDecimal(depthSweep.getBidPrice(), priceScale);
+
+    BigDecimal costToBuy = depthSweep.getCost();
+    BigDecimal buyFee = costToBuy.multiply(ex1TakerFee);
+    BigDecimal totalCostToBuy = costToBuy.add(buyFee);
+
+    BigDecimal incomeSold = depthSweep.getIncome();
+    BigDecimal sellFee = incomeSold.multiply(ex2TakerFee);
+    BigDecimal totalIncomeSold = incomeSold.subtract(sellFee);
+
+    CurrencyPair currencyPair = symbolRegistry.getCurrencyPair(pairId);
+    UUID uuid = UUID.randomUUID();
+    Instant now = Instant.now();
+
+    Trade buyLow =
+        Trade.builder()
+            .uuid(uuid)
+            .exchange(askExchange)
+            .currencyPair(currencyPair)
+            .pairId(pairId)
+            .orderActionType(BID)
+            .orderType(LIMIT)
+            .price(askPrice)
+            .amount(amount)
+            .feePercentage(ex1TakerFee)
+            .timeDiscovered(now)
+            .fee(buyFee)
+            .total(totalCostToBuy)
+            .build();
+    Trade sellHigh =
+        Trade.builder()
+            .uuid(uuid)
+            .exchange(bidExchange)
+            .currencyPair(currencyPair)
+            .pairId(pairId)
+            .orderActionType(ASK)
+            .orderType(LIMIT)
+            .price(bidPrice)
+            .amount(amount)
+            .feePercentage(ex2TakerFee)
+            .timeDiscovered(now)
+            .fee(sellFee)
+            .total(totalIncomeSold)
+            .build();
+
+    // Journaled by the TradeBuffer's TradeJournaler stage
+    tradeBuffer.insert(buyLow, sellHigh);
+
+    depthSweep.consume(liquidityOverlay, askExchange.ordinal(), bidExchange.ordinal());
+    return false;
   }
 
   /**
    * Iterative Approach to computing arbitrage opportunities.
    *
-   * @param currencyPair
+   * @param pairId
    */
-  public void processOrderbooks(CurrencyPair currencyPair) {
+  public void processOrderbooks(int pairId) {
     try {
-      Entry<Exchange, OrderBook>[] ascendingAsksArr =
-          new Entry[orderBooksAscendingAsks.get(currencyPair).size()];
-      Entry<Exchange, OrderBook>[] descendingBidsArr =
-          new Entry[orderBooksDescendingBids.get(currencyPair).size()];
-      ascendingAsksArr = orderBooksAscendingAsks.get(currencyPair).toArray(ascendingAsksArr);
-      descendingBidsArr = orderBooksDescendingBids.get(currencyPair).toArray(descendingBidsArr);
+      TopOfBookIndex topOfBookIndex = topOfBookIndices[pairId];
+      resetLiquidityOverlay(topOfBookIndex);
+      // A single snapshot for the whole pass
+      TradingParameters tradingParameters = metadataAggregator.getTradingParameters();
 
       boolean tradesPublished = false;
-      for (SpatialArbitrager.Entry<Exchange, OrderBook> askOrderBook : ascendingAsksArr) {
-        for (SpatialArbitrager.Entry<Exchange, OrderBook> bidOrderBook : descendingBidsArr) {
+      for (int i = 0; i < topOfBookIndex.size(); i++) {
+        for (int j = 0; j < topOfBookIndex.size(); j++) {
 
           // If no orders were submitted for the current bidOrderBook, there's no need
           // for further processing of bidOrderBooks against the current askOrderBook
-          tradesPublished = extractTrades(currencyPair, askOrderBook, bidOrderBook);
+          tradesPublished =
+              extractTrades(
+                  tradingParameters,
+                  pairId,
+                  topOfBookIndex.getAskExchange(i),
+                  topOfBookIndex.getAskOrderBook(i),
+                  topOfBookIndex.getBidExchange(j),
+                  topOfBookIndex.getBidOrderBook(j));
           if (!tradesPublished) break;
         }
       }
     } catch (Exception e) {
-      LOG.error("Exception caught while performing computation for {}", currencyPair, e);
+      LOG.error(
+          "Exception caught while performing computation for {}",
+          symbolRegistry.getCurrencyPair(pairId),
+          e);
+    }
+  }
+
+  /** Clears the overlay for a new pass, regrowing it if a book holds more levels than it covers. */
+  private void resetLiquidityOverlay(TopOfBookIndex topOfBookIndex) {
+    int levels = 0;
+    for (int i = 0; i < topOfBookIndex.size(); i++) {
+      levels = Math.max(levels, topOfBookIndex.getAskOrderBook(i).getCapacity());
+    }
+    if (liquidityOverlay == null || liquidityOverlay.getLevels() < levels) {
+      liquidityOverlay = new LiquidityOverlay(Exchange.values().length, levels);
+    } else {
+      liquidityOverlay.reset();
     }
   }
 }
@@ -4,161 +4,156 @@ import buffer.TradeBuffer;
 import buffer.events.OrderBookEvent;
 import com.lmax.disruptor.EventHandler;
 import config.Configuration;
-import domain.ExchangeLimitOrder;
+import domain.CompactOrderBook;
+import domain.OrderBookDelta;
+import domain.SymbolRegistry;
 import domain.Trade;
 import domain.constants.Exchange;
 import org.knowm.xchange.currency.CurrencyPair;
-import org.knowm.xchange.dto.Order;
-import org.knowm.xchange.dto.marketdata.OrderBook;
-import org.knowm.xchange.dto.trade.LimitOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import services.MetadataAggregator;
 import util.ThreadFactory;
+import util.task.CoalescingScheduler;
 import util.task.ComputeArbitrageTaskV2;
 
 import java.math.BigDecimal;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.stream.Collectors;
 
-/** To-Implement: Aggregate all asks and bids into respective, sorted arrays. */
+/**
+ * Considers the asks and bids of every exchange of a pair together. The per-exchange books are kept
+ * sorted as received and merged lazily by ComputeArbitrageTaskV2 on the worker pool.
+ */
 public class SpatialArbitragerV2 implements EventHandler<OrderBookEvent> {
   private static final Logger LOG = LoggerFactory.getLogger(SpatialArbitragerV2.class);
-
-  public static final Comparator<ExchangeLimitOrder> ascendingAskComparator =
-          Comparator.comparing(e -> e.getLimitOrder().getLimitPrice());
-  public static final Comparator<ExchangeLimitOrder> descendingBidComparator =
-          Comparator.comparing(e -> e.getLimitOrder().getLimitPrice(), Comparator.reverseOrder());
+  // Long enough for published orders to reach their venue and show in its book
+  private static final long CLAIM_TTL_MILLIS = 1000;
 
   private MetadataAggregator metadataAggregator;
   private TradeBuffer tradeBuffer;
+  private SymbolRegistry symbolRegistry;
   private ExecutorService executorService;
+  //At most one computation queued or running per pair
+  private final CoalescingScheduler scheduler;
+  //Levels claimed by published opportunities, released once their orders have had time to land
+  private final InFlightLiquidity inFlightLiquidity;
 
-  private final Map<CurrencyPair, ArrayList<ExchangeLimitOrder>> aggregatedBids = new ConcurrentHashMap<>();
-  private final Map<CurrencyPair, ArrayList<ExchangeLimitOrder>> aggregatedAsks = new ConcurrentHashMap<>();
-
-  private final Map<CurrencyPair, Map<Exchange, OrderBook>> orderBooksAll = new ConcurrentHashMap<>();
-
-  private final Map<CurrencyPair, Map<Exchange, Set<LimitOrder>>> consumedBids =
-          new HashMap<>();
-  private final Map<CurrencyPair, Map<Exchange, Set<LimitOrder>>> consumedAsks =
-          new HashMap<>();
+  //Indexed by [pairId][exchangeId], written by the event handler and read by workers. Books are never modified
+  //once stored, every update stores a new one, so workers may hold on to them as snapshots
+  private final AtomicReferenceArray<CompactOrderBook>[] orderBooksAll;
 
   private BigDecimal minGain;
 
   public SpatialArbitragerV2(Configuration cfg,
                              MetadataAggregator metadataAggregator,
-                             TradeBuffer tradeBuffer) {
+                             TradeBuffer tradeBuffer,
+                             SymbolRegistry symbolRegistry) {
     this.minGain = new BigDecimal("0.001");
     this.metadataAggregator = metadataAggregator;
     this.tradeBuffer = tradeBuffer;
+    this.symbolRegistry = symbolRegistry;
+
+    int pairCount = symbolRegistry.getPairCount();
+    this.orderBooksAll = new AtomicReferenceArray[pairCount];
+    for (int pairId = 0; pairId < pairCount; pairId++) {
+      orderBooksAll[pairId] = new AtomicReferenceArray<>(symbolRegistry.getExchangeCount());
+    }
+    this.inFlightLiquidity = new InFlightLiquidity(pairCount, CLAIM_TTL_MILLIS);
     executorService = Executors.newFixedThreadPool(5, new ThreadFactory("V2WorkerPool"));
+    scheduler = new CoalescingScheduler(executorService, pairCount, this::computeArbitrage);
   }
 
   public BigDecimal getMinGain() {
     return this.minGain;
   }
 
-  public void processOrderBook(Exchange exchange, CurrencyPair currencyPair, OrderBook orderBook) {
-    orderBooksAll.computeIfAbsent(
-        currencyPair,
-        (k) -> {
-          return new ConcurrentHashMap<>();
-        });
-    aggregatedAsks.computeIfAbsent(
-        currencyPair,
-        (k) -> {
-          return new ArrayList<>();
-        });
-    aggregatedBids.computeIfAbsent(
-        currencyPair,
-        (k) -> {
-          return new ArrayList<>();
-        });
-
-    orderBooksAll.get(currencyPair).put(exchange, orderBook);
-
-    // Remove all orders matching the exchange
-    aggregatedBids.get(currencyPair).removeIf(o -> o.getExchange().equals(exchange));
-    aggregatedAsks.get(currencyPair).removeIf(o -> o.getExchange().equals(exchange));
-
-    // Reinsert
-    aggregatedAsks
-        .get(currencyPair)
-        .addAll(
-            orderBook.getAsks().stream()
-                .map(ask -> ExchangeLimitOrder.builder().exchange(exchange).limitOrder(ask).build())
-                .collect(Collectors.toList()));
-    aggregatedBids
-        .get(currencyPair)
-        .addAll(
-            orderBook.getBids().stream()
-                .map(bid -> ExchangeLimitOrder.builder().exchange(exchange).limitOrder(bid).build())
-                .collect(Collectors.toList()));
+  public InFlightLiquidity getInFlightLiquidity() {
+    return inFlightLiquidity;
   }
 
-  @Override
-  public void onEvent(OrderBookEvent event, long sequence, boolean endOfBatch) {
-    //Update the real-time books
-    this.processOrderBook(event.exchange, event.currencyPair, event.orderBook);
-
-    //Submit Task
-    executorService.submit(new ComputeArbitrageTaskV2(
-            this,
-            (ArrayList)aggregatedAsks.get(event.currencyPair).clone(),
-            (ArrayList)aggregatedBids.get(event.currencyPair).clone(),
-            event.currencyPair,
-            metadataAggregator
-            ));
-    LOG.debug("Worker Pool Active Count: {}", ((ThreadPoolExecutor)executorService).getActiveCount());
+  public void processOrderBook(Exchange exchange, int pairId, CompactOrderBook orderBook) {
+    // Keep a copy, the event's book belongs to a ring slot that is reused after onEvent
+    CompactOrderBook snapshot = new CompactOrderBook(orderBook.getCapacity());
+    snapshot.copyFrom(orderBook);
+    orderBooksAll[pairId].set(exchange.ordinal(), snapshot);
   }
 
-  private boolean tradeExists(Trade trade) {
-    OrderBook orderBook = orderBooksAll.get(trade.getCurrencyPair()).get(trade.getExchange());
-    if (orderBook == null) {
-      LOG.info("Orderbook was null");
+  /** @return false if no snapshot has been received for the exchange and pair yet */
+  public boolean applyDelta(Exchange exchange, int pairId, OrderBookDelta delta) {
+    CompactOrderBook previous = orderBooksAll[pairId].get(exchange.ordinal());
+    if (previous == null) {
+      LOG.warn("Discarding delta for {} : {} received before its snapshot",
+              exchange, symbolRegistry.getCurrencyPair(pairId));
       return false;
     }
+    // Copy-on-write, workers may still be reading the previous book
+    CompactOrderBook snapshot = new CompactOrderBook(previous.getCapacity());
+    snapshot.copyFrom(previous);
+    snapshot.apply(delta);
+    orderBooksAll[pairId].set(exchange.ordinal(), snapshot);
+    return true;
+  }
 
-    LimitOrder limitOrder;
-
-    if (trade.getOrderActionType().equals(Order.OrderType.ASK)) {
-      //If order type is ASK, search for the bid that we're fulfilling
-      LOG.info("Checking for bid...");
-      limitOrder = orderBook.getBids().stream().filter(bids -> bids.getLimitPrice().equals(trade.getPrice())).findFirst().orElse(null);
-    } else {
-      //If order type is BID, search for the ask that we're fulfilling
-      LOG.info("Checking for ask...");
-      limitOrder = orderBook.getAsks().stream().filter(asks -> asks.getLimitPrice().equals(trade.getPrice())).findFirst().orElse(null);
+  /** @return the pair's current books, slotted by exchange ordinal */
+  public CompactOrderBook[] getOrderBooks(int pairId) {
+    AtomicReferenceArray<CompactOrderBook> orderBooks = orderBooksAll[pairId];
+    CompactOrderBook[] snapshot = new CompactOrderBook[orderBooks.length()];
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = orderBooks.get(i);
     }
-    LOG.info("{}", limitOrder);
+    return snapshot;
+  }
 
-    if (limitOrder != null && limitOrder.getOriginalAmount().compareTo(trade.getAmount()) >= 0) {
-      LOG.info("Returning true");
-      return true;
+  @Override
+  public void onEvent(OrderBookEvent event, long sequence, boolean endOfBatch) {
+    //Update the real-time books
+    if (event.type == OrderBookEvent.Type.HEARTBEAT
+        || event.type == OrderBookEvent.Type.CONFLATED) {
+      return;
+    } else if (event.type == OrderBookEvent.Type.SNAPSHOT) {
+      this.processOrderBook(event.exchange, event.pairId, event.orderBook);
+    } else if (!this.applyDelta(event.exchange, event.pairId, event.delta)) {
+      return;
     }
-    LOG.info("Returning false");
-    return false;
+
+    //Schedule Task
+    scheduler.schedule(event.pairId);
+    LOG.debug("Worker Pool Active Count: {}, Queue Depth: {}",
+            ((ThreadPoolExecutor)executorService).getActiveCount(), scheduler.getQueueDepth());
   }
 
-  public void callback(Trade bid, Trade ask) {
-    //Check that the order has not already been executed on
-
-    //Check that the opportunity still exists
-    if (tradeExists(bid) && tradeExists(ask)) {
-      //Execute Order
-      LOG.info("Submitting Bid Trade: {}", bid);
-      LOG.info("Submitting Ask Trade: {}", ask);
-      tradeBuffer.insert(bid, ask);
-    } else {
-      LOG.info("Trades no longer exist!");
-    }
+  /** Runs on a worker, against the pair's books as of the start of the run. */
+  private void computeArbitrage(int pairId) {
+    new ComputeArbitrageTaskV2(
+            this,
+            getOrderBooks(pairId),
+            pairId,
+            symbolRegistry.getCurrencyPair(pairId),
+            metadataAggregator
+            ).run();
+  }
+
+  /** Number of computations waiting for a worker, at most one per pair. */
+  public int getQueueDepth() {
+    return scheduler.getQueueDepth();
+  }
 
-    //Mark
+  /** Number of book updates folded into a computation already queued or pending for their pair. */
+  public long getSkippedCount() {
+    return scheduler.getSkippedCount();
   }
 
+  /**
+   * Publishes an opportunity whose quantity the task already claimed in the InFlightLiquidity, so
+   * no other task can publish the same levels until the claims expire.
+   */
+  public void callback(Trade bid, Trade ask) {
+    LOG.info("Submitting Bid Trade: {}", bid);
+    LOG.info("Submitting Ask Trade: {}", ask);
+    tradeBuffer.insert(bid, ask);
+  }
 }
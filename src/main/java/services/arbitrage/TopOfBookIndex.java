@@ -0,0 +1,147 @@
+package services.arbitrage;
+
+import domain.CompactOrderBook;
+import domain.constants.Exchange;
+import util.FixedPoint;
+
+import java.util.Arrays;
+
+/**
+ * Per currency pair index of the books held for each exchange, ordered by best ask (ascending) and
+ * by best bid (descending). Books are slotted by exchange ordinal and both orderings are small
+ * sorted arrays of ordinals with a reverse position lookup, so a book is repositioned after an update
+ * by shifting it towards its new rank without allocating. With at most one book per exchange this is
+ * cheaper than a heap or tree. Ties on price are broken by ordinal so every exchange keeps exactly
+ * one rank.
+ *
+ * <p>Not thread-safe, expected to be owned by a single event handler.
+ */
+public class TopOfBookIndex {
+  private static final Exchange[] EXCHANGES = Exchange.values();
+
+  private final CompactOrderBook[] orderBooks = new CompactOrderBook[EXCHANGES.length];
+
+  private final int[] askOrder = new int[EXCHANGES.length];
+  private final int[] askRanks = new int[EXCHANGES.length];
+  private final int[] bidOrder = new int[EXCHANGES.length];
+  private final int[] bidRanks = new int[EXCHANGES.length];
+  private int size;
+
+  public TopOfBookIndex() {
+    Arrays.fill(askRanks, -1);
+    Arrays.fill(bidRanks, -1);
+  }
+
+  /** @return the book last updated for exchange, or null if none has been */
+  public CompactOrderBook getOrderBook(Exchange exchange) {
+    return orderBooks[exchange.ordinal()];
+  }
+
+  /**
+   * Slots orderBook for exchange and repositions it by its current top levels. Must be called
+   * whenever the top levels of a book held by the index change. A book with an empty side has no top
+   * of book and is left out of the orderings until it is updated again.
+   */
+  public void update(Exchange exchange, CompactOrderBook orderBook) {
+    int ordinal = exchange.ordinal();
+    orderBooks[ordinal] = orderBook;
+    if (orderBook.isEmpty()) {
+      remove(ordinal);
+      return;
+    }
+    if (askRanks[ordinal] == -1) {
+      askOrder[size] = ordinal;
+      askRanks[ordinal] = size;
+      bidOrder[size] = ordinal;
+      bidRanks[ordinal] = size;
+      size++;
+    }
+    reposition(askOrder, askRanks, askRanks[ordinal], false);
+    reposition(bidOrder, bidRanks, bidRanks[ordinal], true);
+  }
+
+  /**
+   * Leaves the exchange's book out of the orderings, e.g. once it has gone stale. The book itself is
+   * kept so later deltas still apply to it, and its next update reorders it.
+   */
+  public void evict(Exchange exchange) {
+    remove(exchange.ordinal());
+  }
+
+  private void remove(int ordinal) {
+    int askRank = askRanks[ordinal];
+    if (askRank == -1) return;
+    int bidRank = bidRanks[ordinal];
+
+    size--;
+    System.arraycopy(askOrder, askRank + 1, askOrder, askRank, size - askRank);
+    System.arraycopy(bidOrder, bidRank + 1, bidOrder, bidRank, size - bidRank);
+    askRanks[ordinal] = -1;
+    bidRanks[ordinal] = -1;
+    for (int i = askRank; i < size; i++) askRanks[askOrder[i]] = i;
+    for (int i = bidRank; i < size; i++) bidRanks[bidOrder[i]] = i;
+  }
+
+  /** Moves the ordinal at rank towards the front or back until order is restored. */
+  private void reposition(int[] order, int[] ranks, int rank, boolean bidSide) {
+    int ordinal = order[rank];
+    while (rank > 0 && ranksBefore(ordinal, order[rank - 1], bidSide)) {
+      order[rank] = order[rank - 1];
+      ranks[order[rank]] = rank;
+      rank--;
+    }
+    while (rank < size - 1 && ranksBefore(order[rank + 1], ordinal, bidSide)) {
+      order[rank] = order[rank + 1];
+      ranks[order[rank]] = rank;
+      rank++;
+    }
+    order[rank] = ordinal;
+    ranks[ordinal] = rank;
+  }
+
+  private boolean ranksBefore(int ordinal, int other, boolean bidSide) {
+    CompactOrderBook book = orderBooks[ordinal];
+    CompactOrderBook otherBook = orderBooks[other];
+    int comparison =
+        bidSide
+            ? FixedPoint.compareScaled(
+                otherBook.getBidPrice(0),
+                otherBook.getPriceScale(),
+                book.getBidPrice(0),
+                book.getPriceScale())
+            : FixedPoint.compareScaled(
+                book.getAskPrice(0),
+                book.getPriceScale(),
+                otherBook.getAskPrice(0),
+                otherBook.getPriceScale());
+    return comparison < 0 || (comparison == 0 && ordinal < other);
+  }
+
+  /** Whether the exchange's book is currently ordered. */
+  public boolean isRanked(Exchange exchange) {
+    return askRanks[exchange.ordinal()] != -1;
+  }
+
+  /** Number of exchanges currently ordered. */
+  public int size() {
+    return size;
+  }
+
+  /** @param rank - 0 for the exchange with the lowest ask */
+  public Exchange getAskExchange(int rank) {
+    return EXCHANGES[askOrder[rank]];
+  }
+
+  public CompactOrderBook getAskOrderBook(int rank) {
+    return orderBooks[askOrder[rank]];
+  }
+
+  /** @param rank - 0 for the exchange with the highest bid */
+  public Exchange getBidExchange(int rank) {
+    return EXCHANGES[bidOrder[rank]];
+  }
+
+  public CompactOrderBook getBidOrderBook(int rank) {
+    return orderBooks[bidOrder[rank]];
+  }
+}
@@ -0,0 +1,269 @@
+package services.arbitrage;
+
+import buffer.TradeBuffer;
+import buffer.events.OrderBookEvent;
+import com.lmax.disruptor.EventHandler;
+import config.Configuration;
+import domain.CompactOrderBook;
+import domain.OrderBookDelta;
+import domain.SymbolRegistry;
+import domain.Trade;
+import domain.TradingParameters;
+import domain.constants.Exchange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import services.MetadataAggregator;
+import util.FixedPoint;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.UUID;
+
+import static domain.constants.OrderType.LIMIT;
+import static org.knowm.xchange.dto.Order.OrderType.ASK;
+import static org.knowm.xchange.dto.Order.OrderType.BID;
+import static services.arbitrage.TriangularCycleIndex.LEGS;
+import static util.FixedPoint.QUANTITY_SCALE;
+
+/**
+ * Triangular arbitrage within a single exchange, against the top of each pair's book. Every update
+ * to an (exchange, pair) book re-evaluates only the cycles of the TriangularCycleIndex which trade
+ * that pair on that exchange. A cycle is profitable when the product of its fee-adjusted leg rates
+ * exceeds 1 + minGain. Rates are screened as doubles, trades are then built at the books' scaled
+ * prices. The three legs are published together as a single trade intent.
+ *
+ * <p>A crossing usually persists over several updates of the cycle's books, most of which leave
+ * their top levels untouched. A cycle is therefore not published again at the same leg prices until
+ * dedupTtlMillis has elapsed, as the OpportunityCache does for spatial opportunities.
+ *
+ * <p>Not thread-safe, expected to be run by a single event handler.
+ */
+public class TriangularArbitrager implements EventHandler<OrderBookEvent> {
+  private static final Logger LOG = LoggerFactory.getLogger(TriangularArbitrager.class);
+  private static final double QUANTITY_UNIT = FixedPoint.pow10(QUANTITY_SCALE);
+
+  private MetadataAggregator metadataAggregator;
+  private TradeBuffer tradeBuffer;
+  private SymbolRegistry symbolRegistry;
+  private TriangularCycleIndex cycleIndex;
+
+  // [exchangeId][pairId], owned copies of the ring slots' books
+  private final CompactOrderBook[][] orderBooks;
+
+  private BigDecimal minGain;
+  private double minGainFactor;
+
+  private final long dedupTtlNanos;
+  // [(exchangeId * cycleCount + cycle) * LEGS + leg], top level prices each leg was last published at
+  private final long[] publishedPrices;
+  // [exchangeId * cycleCount + cycle], 0 where the cycle was never published
+  private final long[] publishedAt;
+  private long suppressedCount;
+
+  // Snapshot taken once per processCycles
+  private TradingParameters tradingParameters;
+  // Scratch space for the cycle being evaluated
+  private final double[] legPrices = new double[LEGS];
+  private final double[] legInputFactors = new double[LEGS];
+  private final double[] legTakerFees = new double[LEGS];
+
+  public TriangularArbitrager(
+      Configuration cfg,
+      MetadataAggregator metadataAggregator,
+      TradeBuffer tradeBuffer,
+      SymbolRegistry symbolRegistry) {
+    this.minGain = cfg.getNAngularArbitragerConfig().getMinGain();
+    this.minGainFactor = BigDecimal.ONE.add(minGain).doubleValue();
+
+    this.metadataAggregator = metadataAggregator;
+    this.tradeBuffer = tradeBuffer;
+    this.symbolRegistry = symbolRegistry;
+    this.cycleIndex = new TriangularCycleIndex(symbolRegistry);
+    this.dedupTtlNanos = cfg.getNAngularArbitragerConfig().getDedupTtlMillis() * 1_000_000L;
+    int slots = symbolRegistry.getExchangeCount() * cycleIndex.getCycleCount();
+    this.publishedPrices = new long[slots * LEGS];
+    this.publishedAt = new long[slots];
+    this.orderBooks =
+        new CompactOrderBook[symbolRegistry.getExchangeCount()][symbolRegistry.getPairCount()];
+    LOG.info("Instantiated TriangularArbitrager with {} cycles.", cycleIndex.getCycleCount());
+  }
+
+  public TriangularCycleIndex getCycleIndex() {
+    return cycleIndex;
+  }
+
+  /** Number of cycles not re-published because their leg prices were unchanged. */
+  public long getSuppressedCount() {
+    return suppressedCount;
+  }
+
+  @Override
+  public void onEvent(OrderBookEvent event, long sequence, boolean endOfBatch) {
+    switch (event.type) {
+      case SNAPSHOT:
+        this.upsertOrderBook(event.exchange, event.pairId, event.orderBook);
+        break;
+      case DELTA:
+        this.applyDelta(event.exchange, event.pairId, event.delta);
+        break;
+    }
+  }
+
+  public void upsertOrderBook(Exchange exchange, int pairId, CompactOrderBook orderBook) {
+    CompactOrderBook ownedOrderBook = orderBooks[exchange.ordinal()][pairId];
+    if (ownedOrderBook == null) {
+      ownedOrderBook = new CompactOrderBook(orderBook.getCapacity());
+      orderBooks[exchange.ordinal()][pairId] = ownedOrderBook;
+    }
+    ownedOrderBook.copyFrom(orderBook);
+    processCycles(exchange, pairId);
+  }
+
+  public void applyDelta(Exchange exchange, int pairId, OrderBookDelta delta) {
+    CompactOrderBook ownedOrderBook = orderBooks[exchange.ordinal()][pairId];
+    if (ownedOrderBook == null) {
+      LOG.warn(
+          "Discarding delta for {} : {} received before its snapshot",
+          exchange,
+          symbolRegistry.getCurrencyPair(pairId));
+      return;
+    }
+    ownedOrderBook.apply(delta);
+    processCycles(exchange, pairId);
+  }
+
+  /** Evaluates every cycle trading the pair on the exchange. */
+  public void processCycles(Exchange exchange, int pairId) {
+    try {
+      tradingParameters = metadataAggregator.getTradingParameters();
+      for (int cycle : cycleIndex.getCycles(exchange, pairId)) {
+        processCycle(exchange, cycle);
+      }
+    } catch (Exception e) {
+      LOG.error(
+          "Exception caught while performing computation for {} : {}",
+          exchange,
+          symbolRegistry.getCurrencyPair(pairId),
+          e);
+    }
+  }
+
+  /** @return true if a trade was published for the cycle */
+  private boolean processCycle(Exchange exchange, int cycle) {
+    // Start currency -> currency held before each leg
+    double factor = 1;
+    // Largest executable amount of the start currency, bounded by each leg's top level
+    double startLimit = Double.MAX_VALUE;
+
+    for (int leg = 0; leg < LEGS; leg++) {
+      int pairId = cycleIndex.getPairId(cycle, leg);
+      CompactOrderBook orderBook = orderBooks[exchange.ordinal()][pairId];
+      if (orderBook == null || orderBook.isEmpty()) return false;
+      if (!tradingParameters.isReady(exchange, pairId)) return false;
+
+      double priceUnit = FixedPoint.pow10(orderBook.getPriceScale());
+      double takerFee = tradingParameters.getTakerFee(exchange, pairId).doubleValue();
+      double rate;
+      double inputCapacity;
+      if (cycleIndex.sellsBase(cycle, leg)) {
+        legPrices[leg] = orderBook.getBidPrice(0) / priceUnit;
+        rate = legPrices[leg] * (1 - takerFee);
+        inputCapacity = orderBook.getBidQuantity(0) / QUANTITY_UNIT;
+      } else {
+        legPrices[leg] = orderBook.getAskPrice(0) / priceUnit;
+        rate = (1 - takerFee) / legPrices[leg];
+        inputCapacity = orderBook.getAskQuantity(0) / QUANTITY_UNIT * legPrices[leg];
+      }
+      legTakerFees[leg] = takerFee;
+      legInputFactors[leg] = factor;
+      startLimit = Math.min(startLimit, inputCapacity / factor);
+      factor *= rate;
+    }
+
+    if (factor <= minGainFactor || startLimit <= 0) return false;
+    return publishCycle(exchange, cycle, startLimit, factor);
+  }
+
+  private boolean publishCycle(Exchange exchange, int cycle, double startLimit, double factor) {
+    int slot = exchange.ordinal() * cycleIndex.getCycleCount() + cycle;
+    long now = System.nanoTime();
+    if (isDuplicate(exchange, cycle, slot, now)) {
+      suppressedCount++;
+      return false;
+    }
+
+    UUID uuid = UUID.randomUUID();
+    Instant discovered = Instant.now();
+    Trade[] trades = new Trade[LEGS];
+
+    for (int leg = 0; leg < LEGS; leg++) {
+      int pairId = cycleIndex.getPairId(cycle, leg);
+      boolean sellsBase = cycleIndex.sellsBase(cycle, leg);
+      CompactOrderBook orderBook = orderBooks[exchange.ordinal()][pairId];
+
+      double input = startLimit * legInputFactors[leg];
+      double baseAmount = sellsBase ? input : input / legPrices[leg];
+      BigDecimal amount = BigDecimal.valueOf(baseAmount).setScale(QUANTITY_SCALE, RoundingMode.DOWN);
+      BigDecimal minimumAmount = tradingParameters.getMinimumOrderAmount(exchange, pairId);
+      if (amount.signum() <= 0 || amount.compareTo(minimumAmount) < 0) {
+        return false;
+      }
+
+      BigDecimal price =
+          FixedPoint.toBigDecimal(
+              sellsBase ? orderBook.getBidPrice(0) : orderBook.getAskPrice(0),
+              orderBook.getPriceScale());
+      BigDecimal takerFee = BigDecimal.valueOf(legTakerFees[leg]);
+      BigDecimal cost = price.multiply(amount);
+      BigDecimal fee = cost.multiply(takerFee);
+
+      trades[leg] =
+          Trade.builder()
+              .uuid(uuid)
+              .exchange(exchange)
+              .currencyPair(symbolRegistry.getCurrencyPair(pairId))
+              .pairId(pairId)
+              .orderActionType(sellsBase ? ASK : BID)
+              .orderType(LIMIT)
+              .price(price)
+              .amount(amount)
+              .feePercentage(takerFee)
+              .timeDiscovered(discovered)
+              .fee(fee)
+              .total(sellsBase ? cost.subtract(fee) : cost.add(fee))
+              .build();
+    }
+
+    LOG.debug(
+        "Cycle from {} on {} returns {}",
+        symbolRegistry.getCurrency(cycleIndex.getStartCurrencyId(cycle)),
+        exchange,
+        factor);
+    for (int leg = 0; leg < LEGS; leg++) {
+      publishedPrices[slot * LEGS + leg] = topPrice(exchange, cycle, leg);
+    }
+    // 0 is reserved for cycles never published
+    publishedAt[slot] = now == 0 ? 1 : now;
+    // Journaled by the TradeBuffer's TradeJournaler stage
+    tradeBuffer.insert(trades[0], trades[1], trades[2]);
+    return true;
+  }
+
+  /** @return true if the cycle was published at its current leg prices within the TTL */
+  private boolean isDuplicate(Exchange exchange, int cycle, int slot, long now) {
+    if (dedupTtlNanos == 0 || publishedAt[slot] == 0 || now - publishedAt[slot] >= dedupTtlNanos) {
+      return false;
+    }
+    for (int leg = 0; leg < LEGS; leg++) {
+      if (publishedPrices[slot * LEGS + leg] != topPrice(exchange, cycle, leg)) return false;
+    }
+    return true;
+  }
+
+  /** Price the leg trades at, the top bid when it sells the base and the top ask otherwise. */
+  private long topPrice(Exchange exchange, int cycle, int leg) {
+    CompactOrderBook orderBook = orderBooks[exchange.ordinal()][cycleIndex.getPairId(cycle, leg)];
+    return cycleIndex.sellsBase(cycle, leg) ? orderBook.getBidPrice(0) : orderBook.getAskPrice(0);
+  }
+}
@@ -0,0 +1,127 @@
+package services.arbitrage;
+
+import domain.SymbolRegistry;
+import domain.constants.Exchange;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precomputed index of the triangular cycles in the currency graph of the active pairs, e.g. USD ->
+ * BTC -> ETH -> USD over BTC/USD, ETH/BTC and ETH/USD. Both directions of a triangle are separate
+ * cycles. Each leg converts the currency held into the next one over a pair, either by selling the
+ * pair's base at the bid or by buying it at the ask. Cycles are looked up by the (exchange, pair)
+ * whose book was just updated, and only cycles whose three pairs the exchange streams are listed, so
+ * an update re-evaluates just the cycles it can affect.
+ *
+ * <p>Immutable once built, so it is safe to share across threads.
+ */
+public class TriangularCycleIndex {
+  public static final int LEGS = 3;
+  private static final int[] NO_CYCLES = new int[0];
+
+  // [cycle * LEGS + leg]
+  private final int[] legPairIds;
+  private final boolean[] legSellsBase;
+  private final int[] startCurrencyIds;
+  // [exchangeId][pairId], ids of the cycles listed on the exchange that trade the pair
+  private final int[][][] cyclesByPair;
+
+  public TriangularCycleIndex(SymbolRegistry symbolRegistry) {
+    int currencyCount = symbolRegistry.getCurrencyCount();
+    int pairCount = symbolRegistry.getPairCount();
+
+    int[][] pairBetween = new int[currencyCount][currencyCount];
+    for (int[] row : pairBetween) Arrays.fill(row, -1);
+    for (int pairId = 0; pairId < pairCount; pairId++) {
+      int base = symbolRegistry.getBaseCurrencyId(pairId);
+      int counter = symbolRegistry.getCounterCurrencyId(pairId);
+      pairBetween[base][counter] = pairId;
+      pairBetween[counter][base] = pairId;
+    }
+
+    // Each triangle is found once, from its lowest pair id
+    List<int[]> cycles = new ArrayList<>();
+    for (int p1 = 0; p1 < pairCount; p1++) {
+      int a = symbolRegistry.getBaseCurrencyId(p1);
+      int b = symbolRegistry.getCounterCurrencyId(p1);
+      for (int c = 0; c < currencyCount; c++) {
+        int p2 = pairBetween[b][c];
+        int p3 = pairBetween[c][a];
+        if (c == a || c == b || p2 == -1 || p3 == -1 || p2 < p1 || p3 < p1) continue;
+        // {start currency, pair of each leg}
+        cycles.add(new int[] {a, p1, p2, p3});
+        cycles.add(new int[] {a, p3, p2, p1});
+      }
+    }
+
+    this.legPairIds = new int[cycles.size() * LEGS];
+    this.legSellsBase = new boolean[cycles.size() * LEGS];
+    this.startCurrencyIds = new int[cycles.size()];
+    for (int cycle = 0; cycle < cycles.size(); cycle++) {
+      int held = cycles.get(cycle)[0];
+      startCurrencyIds[cycle] = held;
+      for (int leg = 0; leg < LEGS; leg++) {
+        int pairId = cycles.get(cycle)[leg + 1];
+        boolean sellsBase = symbolRegistry.getBaseCurrencyId(pairId) == held;
+        legPairIds[cycle * LEGS + leg] = pairId;
+        legSellsBase[cycle * LEGS + leg] = sellsBase;
+        held =
+            sellsBase
+                ? symbolRegistry.getCounterCurrencyId(pairId)
+                : symbolRegistry.getBaseCurrencyId(pairId);
+      }
+    }
+
+    this.cyclesByPair = new int[symbolRegistry.getExchangeCount()][pairCount][];
+    for (int exchangeId = 0; exchangeId < cyclesByPair.length; exchangeId++) {
+      Exchange exchange = symbolRegistry.getExchange(exchangeId);
+      List<List<Integer>> listed = new ArrayList<>(pairCount);
+      for (int pairId = 0; pairId < pairCount; pairId++) listed.add(new ArrayList<>());
+      for (int cycle = 0; cycle < startCurrencyIds.length; cycle++) {
+        if (!isListed(symbolRegistry, exchange, cycle)) continue;
+        for (int leg = 0; leg < LEGS; leg++) {
+          listed.get(legPairIds[cycle * LEGS + leg]).add(cycle);
+        }
+      }
+      for (int pairId = 0; pairId < pairCount; pairId++) {
+        List<Integer> pairCycles = listed.get(pairId);
+        cyclesByPair[exchangeId][pairId] =
+            pairCycles.isEmpty()
+                ? NO_CYCLES
+                : pairCycles.stream().mapToInt(Integer::intValue).toArray();
+      }
+    }
+  }
+
+  private boolean isListed(SymbolRegistry symbolRegistry, Exchange exchange, int cycle) {
+    for (int leg = 0; leg < LEGS; leg++) {
+      if (!symbolRegistry.isListed(exchange, legPairIds[cycle * LEGS + leg])) return false;
+    }
+    return true;
+  }
+
+  public int getCycleCount() {
+    return startCurrencyIds.length;
+  }
+
+  /** @return ids of the cycles listed on exchange which trade the pair, do not modify */
+  public int[] getCycles(Exchange exchange, int pairId) {
+    return cyclesByPair[exchange.ordinal()][pairId];
+  }
+
+  /** Currency held before the first leg and after the last. */
+  public int getStartCurrencyId(int cycle) {
+    return startCurrencyIds[cycle];
+  }
+
+  public int getPairId(int cycle, int leg) {
+    return legPairIds[cycle * LEGS + leg];
+  }
+
+  /** @return true if the leg sells the pair's base at the bid, false if it buys it at the ask */
+  public boolean sellsBase(int cycle, int leg) {
+    return legSellsBase[cycle * LEGS + leg];
+  }
+}
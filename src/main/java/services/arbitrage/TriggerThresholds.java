@@ -0,0 +1,91 @@
+package services.arbitrage;
+
+import domain.CompactOrderBook;
+import domain.SymbolRegistry;
+import domain.TradingParameters;
+import domain.constants.Exchange;
+import services.MetadataAggregator;
+import util.FixedPoint;
+
+import java.math.BigDecimal;
+
+import static util.FixedPoint.FACTOR_ONE;
+
+/**
+ * Matrix of fee-adjusted trigger factors k per pair and ordered (buy exchange, sell exchange), see
+ * {@link FixedPoint#triggerFactor}. The matrix is only rebuilt when MetadataAggregator publishes
+ * new TradingParameters or the min gain changes, so screening a pairing for a crossing is a single
+ * primitive comparison of the buy venue's best ask against the sell venue's best bid. Pairings
+ * which are not ready never trigger.
+ *
+ * <p>Not thread-safe, expected to be owned by a single event handler.
+ */
+public class TriggerThresholds {
+  private static final int EXCHANGE_COUNT = Exchange.values().length;
+
+  private final MetadataAggregator metadataAggregator;
+  private final SymbolRegistry symbolRegistry;
+
+  // [pairId][buyExchangeId * EXCHANGE_COUNT + sellExchangeId], at FACTOR_SCALE
+  private final long[][] factors;
+  private TradingParameters tradingParameters;
+  private BigDecimal minGain;
+
+  public TriggerThresholds(MetadataAggregator metadataAggregator, SymbolRegistry symbolRegistry) {
+    this.metadataAggregator = metadataAggregator;
+    this.symbolRegistry = symbolRegistry;
+    this.factors = new long[symbolRegistry.getPairCount()][EXCHANGE_COUNT * EXCHANGE_COUNT];
+  }
+
+  /** Rebuilds the matrix if the TradingParameters or minGain changed since it was last built. */
+  public void refresh(BigDecimal minGain) {
+    TradingParameters current = metadataAggregator.getTradingParameters();
+    if (minGain == this.minGain && current == tradingParameters) return;
+
+    for (int pairId = 0; pairId < factors.length; pairId++) {
+      for (int buy = 0; buy < EXCHANGE_COUNT; buy++) {
+        Exchange buyExchange = symbolRegistry.getExchange(buy);
+        boolean buyReady = isReady(current, buyExchange, pairId);
+        for (int sell = 0; sell < EXCHANGE_COUNT; sell++) {
+          Exchange sellExchange = symbolRegistry.getExchange(sell);
+          factors[pairId][buy * EXCHANGE_COUNT + sell] =
+              buyReady && isReady(current, sellExchange, pairId)
+                  ? FixedPoint.triggerFactor(
+                      current.getTakerFee(buyExchange, pairId),
+                      current.getTakerFee(sellExchange, pairId),
+                      minGain)
+                  : Long.MAX_VALUE;
+        }
+      }
+    }
+    this.minGain = minGain;
+    this.tradingParameters = current;
+  }
+
+  private boolean isReady(TradingParameters current, Exchange exchange, int pairId) {
+    return symbolRegistry.isListed(exchange, pairId) && current.isReady(exchange, pairId);
+  }
+
+  public long getFactor(int pairId, Exchange buyExchange, Exchange sellExchange) {
+    return factors[pairId][buyExchange.ordinal() * EXCHANGE_COUNT + sellExchange.ordinal()];
+  }
+
+  /**
+   * @return whether the best bid of bids clears the best ask of asks once fees and min gain are
+   *     accounted for. Both books must be non-empty
+   */
+  public boolean crosses(
+      int pairId,
+      Exchange buyExchange,
+      CompactOrderBook asks,
+      Exchange sellExchange,
+      CompactOrderBook bids) {
+    long factor = getFactor(pairId, buyExchange, sellExchange);
+    if (factor == Long.MAX_VALUE) return false;
+
+    int priceScale = Math.max(asks.getPriceScale(), bids.getPriceScale());
+    long ask = FixedPoint.rescale(asks.getAskPrice(0), asks.getPriceScale(), priceScale);
+    long bid = FixedPoint.rescale(bids.getBidPrice(0), bids.getPriceScale(), priceScale);
+    return FixedPoint.compareProducts(bid, FACTOR_ONE, ask, factor) >= 0;
+  }
+}
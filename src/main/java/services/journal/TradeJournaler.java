@@ -1,11 +1,18 @@
 package services.journal;
 
+import buffer.events.EngineEvent;
+import com.lmax.disruptor.EventHandler;
 import config.Configuration;
 import domain.Trade;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-public class TradeJournaler {
+/**
+ * TradeBuffer stage running in parallel with the TradePublisher, journals every trade intent after
+ * PreTradeRisk has ruled on it so neither detection nor submission threads format or write journal
+ * entries. Submissions are journaled by the publisher's executor once the exchange responded.
+ */
+public class TradeJournaler implements EventHandler<EngineEvent> {
   private static final Logger LOG = LogManager.getLogger(TradeJournaler.class);
 
   private final boolean dbEnabled;
@@ -14,6 +21,26 @@ public class TradeJournaler {
     dbEnabled = config.getApplicationConfig().getJournalerConfig().isEnabled();
   }
 
+  @Override
+  public void onEvent(EngineEvent event, long sequence, boolean endOfBatch) {
+    switch (event.getType()) {
+      case TRADE_INTENT:
+        if (event.getTrade3() == null) {
+          logDetectedTrade(event.getTrade1(), event.getTrade2());
+        } else {
+          logDetectedTrade(event.getTrade1(), event.getTrade2(), event.getTrade3());
+        }
+        if (!event.isApproved()) {
+          LOG.info("Opportunity rejected by pre-trade risk checks, not submitted");
+        }
+        break;
+      case CONTROL:
+        LOG.info("Control command received: {}", event.getCommand().getMessage().trim());
+        break;
+      default:
+    }
+  }
+
   public void logDetectedTrade(Trade trade1, Trade trade2) {
     LOG.info(
         "Spatial Arbitrage Opportunity Detected for {} ! Buy {} units on {} at {}, Sell {} units on {} at {}",
@@ -35,9 +62,33 @@ public class TradeJournaler {
     }
   }
 
-  public void logSubmittedTrade(Trade trade) {
+  public void logDetectedTrade(Trade trade1, Trade trade2, Trade trade3) {
+    LOG.info(
+        "Triangular Arbitrage Opportunity Detected on {} ! {} {} {} at {}, {} {} {} at {}, {} {} {} at {}",
+        trade1.getExchange(),
+        trade1.getOrderActionType(),
+        trade1.getAmount(),
+        trade1.getCurrencyPair(),
+        trade1.getPrice(),
+        trade2.getOrderActionType(),
+        trade2.getAmount(),
+        trade2.getCurrencyPair(),
+        trade2.getPrice(),
+        trade3.getOrderActionType(),
+        trade3.getAmount(),
+        trade3.getCurrencyPair(),
+        trade3.getPrice());
+
+    if (dbEnabled) {
+      // TODO: Save event to database
+    }
+  }
+
+  /** @param orderId - assigned by the exchange, null if the submission failed */
+  public void logSubmittedTrade(Trade trade, String orderId) {
     LOG.info(
-        "Submitting Trade: {} {} {} {} {} {} {}",
+        "Submitted Trade {}: {} {} {} {} {} {} {}",
+        orderId == null ? "(failed)" : orderId,
         trade.getExchange(),
         trade.getCurrencyPair(),
         trade.getOrderActionType(),
@@ -7,6 +7,8 @@ import info.bitrich.xchangestream.core.StreamingExchange;
 import io.reactivex.disposables.Disposable;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.slf4j.Logger;
+import services.MetadataAggregator;
+import util.FixedPoint;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -24,6 +26,7 @@ public abstract class AbstractExchangeStream {
   List<Disposable> subscriptions;
 
   OrderBookBuffer orderBookBuffer;
+  MetadataAggregator metadataAggregator;
   List<CurrencyPair> currencyPairs;
   int depth;
 
@@ -50,6 +53,8 @@ public abstract class AbstractExchangeStream {
       getLog().info("Resetting {}ExchangeStream subscriptions...", getExchange());
       disposeSubscriptions();
       disconnectStream();
+      // The new connection may deliver on another thread
+      orderBookBuffer.releasePublisher(getExchange());
       connectStream();
       createSubscriptions();
     } else {
@@ -79,6 +84,18 @@ public abstract class AbstractExchangeStream {
         .forEach(
             currencyPair -> {
               getLog().info("{}", currencyPair);
+              int pairId = metadataAggregator.getSymbolRegistry().getPairId(currencyPair);
+              if (pairId == -1) {
+                getLog()
+                    .error(
+                        "{} : {} is not in the symbol registry, not subscribing",
+                        getExchange(),
+                        currencyPair);
+                return;
+              }
+              int priceScale = resolvePriceScale(currencyPair, pairId);
+              OrderBookPublisher orderBookPublisher =
+                  new OrderBookPublisher(orderBookBuffer, getExchange(), pairId, priceScale, depth);
               subscriptions.add(
                   streamingExchange
                       .getStreamingMarketDataService()
@@ -91,12 +108,41 @@ public abstract class AbstractExchangeStream {
                                       "Orderbooks containing empty asks or bids detected for {} : {}",
                                       getExchange(),
                                       currencyPair);
-                            } else {
-                              orderBookBuffer.insert(orderBook, getExchange(), currencyPair);
+                              return;
+                            }
+
+                            try {
+                              orderBookPublisher.publish(orderBook);
+                            } catch (ArithmeticException e) {
+                              getLog()
+                                  .error(
+                                      "Unable to convert {} : {} orderbook to price scale {}",
+                                      getExchange(),
+                                      currencyPair,
+                                      priceScale,
+                                      e);
                             }
                           },
                           throwable -> getLog().error("Error in trade subscription", throwable)));
               // TODO: Send an empty order book to clear out state in arbitrage layer
             });
   }
+
+  /**
+   * Price scale used to hold a pair's book as scaled longs. Resolved once per subscription so that
+   * every book published for it shares the same scale.
+   */
+  private int resolvePriceScale(CurrencyPair currencyPair, int pairId) {
+    Integer priceScale = metadataAggregator.getPriceScale(getExchange(), pairId);
+    if (priceScale == null) {
+      getLog()
+          .warn(
+              "No price scale published for {} : {}, defaulting to {}",
+              getExchange(),
+              currencyPair,
+              FixedPoint.DEFAULT_PRICE_SCALE);
+      return FixedPoint.DEFAULT_PRICE_SCALE;
+    }
+    return priceScale;
+  }
 }
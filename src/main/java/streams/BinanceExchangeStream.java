@@ -11,6 +11,7 @@ import org.knowm.xchange.ExchangeSpecification;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import services.MetadataAggregator;
 
 import java.util.ArrayList;
 
@@ -32,7 +33,8 @@ public class BinanceExchangeStream extends AbstractExchangeStream {
 
     //TODO: Check knowm/XChange's source code and ensure that depth is enforced...subscribing to multiple pairs
     //does not work...?
-    public BinanceExchangeStream(Configuration config, OrderBookBuffer orderBookBuffer) {
+    public BinanceExchangeStream(
+            Configuration config, OrderBookBuffer orderBookBuffer, MetadataAggregator metadataAggregator) {
         if (config.getBinanceConfig().isEnabled()) {
             LOG.info("Initializing {}ExchangeStream.", exchangeName);
             this.isEnabled = true;
@@ -48,6 +50,7 @@ public class BinanceExchangeStream extends AbstractExchangeStream {
             this.productSubscription = builder.build();
 
             this.orderBookBuffer = orderBookBuffer;
+            this.metadataAggregator = metadataAggregator;
             this.currencyPairs = config.getBinanceConfig().getCurrencyPairs();
             this.depth = config.getBinanceConfig().getDepth();
             this.subscriptions = new ArrayList<>();
@@ -10,6 +10,7 @@ import org.knowm.xchange.ExchangeSpecification;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import services.MetadataAggregator;
 
 import java.util.ArrayList;
 
@@ -29,7 +30,8 @@ public class BitfinexExchangeStream extends AbstractExchangeStream {
     return this.exchangeName;
   }
 
-  public BitfinexExchangeStream(Configuration config, OrderBookBuffer orderBookBuffer) {
+  public BitfinexExchangeStream(
+      Configuration config, OrderBookBuffer orderBookBuffer, MetadataAggregator metadataAggregator) {
     if (config.getBitfinexConfig().isEnabled()) {
       LOG.info("Initializing {}ExchangeStream.", exchangeName);
       this.isEnabled = true;
@@ -45,6 +47,7 @@ public class BitfinexExchangeStream extends AbstractExchangeStream {
       this.productSubscription = builder.build();
 
       this.orderBookBuffer = orderBookBuffer;
+      this.metadataAggregator = metadataAggregator;
       this.currencyPairs = config.getBitfinexConfig().getCurrencyPairs();
       this.depth = config.getBitfinexConfig().getDepth();
       this.subscriptions = new ArrayList<>();
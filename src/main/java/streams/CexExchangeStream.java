@@ -10,6 +10,7 @@ import org.knowm.xchange.ExchangeSpecification;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import services.MetadataAggregator;
 
 import java.util.ArrayList;
 
@@ -30,7 +31,8 @@ public class CexExchangeStream extends AbstractExchangeStream {
         return this.exchangeName;
     }
 
-    public CexExchangeStream(Configuration config, OrderBookBuffer orderBookBuffer) {
+    public CexExchangeStream(
+            Configuration config, OrderBookBuffer orderBookBuffer, MetadataAggregator metadataAggregator) {
         if (config.getCexConfig().isEnabled()) {
             LOG.info("Initializing {}ExchangeStream.", exchangeName);
             this.isEnabled = true;
@@ -48,6 +50,7 @@ public class CexExchangeStream extends AbstractExchangeStream {
             this.productSubscription = builder.build();
 
             this.orderBookBuffer = orderBookBuffer;
+            this.metadataAggregator = metadataAggregator;
             this.currencyPairs = config.getCexConfig().getCurrencyPairs();
             this.depth = config.getCexConfig().getDepth();
             this.subscriptions = new ArrayList<>();
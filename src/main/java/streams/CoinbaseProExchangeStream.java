@@ -10,6 +10,7 @@ import org.knowm.xchange.ExchangeSpecification;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import services.MetadataAggregator;
 
 import java.util.ArrayList;
 
@@ -29,7 +30,8 @@ public class CoinbaseProExchangeStream extends AbstractExchangeStream {
     return this.exchangeName;
   }
 
-  public CoinbaseProExchangeStream(Configuration config, OrderBookBuffer orderBookBuffer) {
+  public CoinbaseProExchangeStream(
+      Configuration config, OrderBookBuffer orderBookBuffer, MetadataAggregator metadataAggregator) {
     if (config.getCoinbaseProConfig().isEnabled()) {
       LOG.info("Initializing {}ExchangeStream.", exchangeName);
       this.isEnabled = true;
@@ -45,6 +47,7 @@ public class CoinbaseProExchangeStream extends AbstractExchangeStream {
       this.productSubscription = builder.build();
 
       this.orderBookBuffer = orderBookBuffer;
+      this.metadataAggregator = metadataAggregator;
       this.currencyPairs = config.getCoinbaseProConfig().getCurrencyPairs();
       this.depth = config.getCoinbaseProConfig().getDepth();
       this.subscriptions = new ArrayList<>();
@@ -10,6 +10,7 @@ import org.knowm.xchange.ExchangeSpecification;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import services.MetadataAggregator;
 
 import java.util.ArrayList;
 
@@ -29,7 +30,8 @@ public class KrakenExchangeStream extends AbstractExchangeStream {
     return this.exchangeName;
   }
 
-  public KrakenExchangeStream(Configuration config, OrderBookBuffer orderBookBuffer) {
+  public KrakenExchangeStream(
+      Configuration config, OrderBookBuffer orderBookBuffer, MetadataAggregator metadataAggregator) {
     if (config.getKrakenConfig().isEnabled()) {
       LOG.info("Initializing {}ExchangeStream.", exchangeName);
       this.isEnabled = true;
@@ -45,6 +47,7 @@ public class KrakenExchangeStream extends AbstractExchangeStream {
       this.productSubscription = builder.build();
 
       this.orderBookBuffer = orderBookBuffer;
+      this.metadataAggregator = metadataAggregator;
       this.currencyPairs = config.getKrakenConfig().getCurrencyPairs();
       this.depth = config.getKrakenConfig().getDepth();
       this.subscriptions = new ArrayList<>();
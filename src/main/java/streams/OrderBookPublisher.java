@@ -0,0 +1,70 @@
+package streams;
+
+import buffer.OrderBookBuffer;
+import domain.CompactOrderBook;
+import domain.OrderBookDelta;
+import domain.constants.Exchange;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+
+/**
+ * Publishes the successive books of a single (exchange, pair) subscription to the OrderBookBuffer.
+ * The first book goes out as a SNAPSHOT, every later one as a DELTA against the book published
+ * before it, unless the delta would be larger than the book itself. A book unchanged from the one
+ * before it goes out as a HEARTBEAT, so a quiet venue is not evicted as stale. Books are delivered
+ * serially by a subscription, so no synchronization is needed.
+ */
+class OrderBookPublisher {
+  private final OrderBookBuffer orderBookBuffer;
+  private final Exchange exchange;
+  private final int pairId;
+  private final int priceScale;
+
+  // Mirrors the book held by the arbitrage layer
+  private CompactOrderBook previous;
+  private CompactOrderBook current;
+  private final OrderBookDelta delta;
+  private boolean published;
+
+  OrderBookPublisher(
+      OrderBookBuffer orderBookBuffer,
+      Exchange exchange,
+      int pairId,
+      int priceScale,
+      int depth) {
+    this.orderBookBuffer = orderBookBuffer;
+    this.exchange = exchange;
+    this.pairId = pairId;
+    this.priceScale = priceScale;
+    this.previous = new CompactOrderBook(depth);
+    this.current = new CompactOrderBook(depth);
+    this.delta = new OrderBookDelta(OrderBookDelta.capacityFor(depth));
+  }
+
+  /**
+   * Converts and publishes orderBook. Only a HEARTBEAT is published when it is unchanged from the
+   * previous book.
+   *
+   * @throws ArithmeticException if a level does not fit the price scale, the previous book is then
+   *     kept so later deltas stay consistent
+   */
+  void publish(OrderBook orderBook) {
+    current.fill(orderBook, priceScale);
+
+    if (published
+        && delta.compute(previous, current)
+        && delta.getCount() < current.getAskCount() + current.getBidCount()) {
+      if (delta.getCount() > 0) {
+        orderBookBuffer.insertDelta(delta, exchange, pairId);
+      } else {
+        orderBookBuffer.insertHeartbeat(exchange, pairId);
+      }
+    } else {
+      orderBookBuffer.insert(current, exchange, pairId);
+      published = true;
+    }
+
+    CompactOrderBook swap = previous;
+    previous = current;
+    current = swap;
+  }
+}
@@ -0,0 +1,189 @@
+package util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Scaled-long (fixed-point) helpers for the arbitrage hot paths. A decimal value v held at scale s
+ * is represented by the long v * 10^s, so prices and quantities can be compared and multiplied
+ * without allocating BigDecimals. Conversion back to BigDecimal is only expected when a Trade is
+ * built.
+ */
+public final class FixedPoint {
+
+  /** Scale used for base currency quantities (satoshi precision). */
+  public static final int QUANTITY_SCALE = 8;
+
+  /** Price scale used for books whose exchange has not published a price scale. */
+  public static final int DEFAULT_PRICE_SCALE = 8;
+
+  /** Scale used for fee and min gain multipliers, e.g. (1 + takerFee). */
+  public static final int FACTOR_SCALE = 9;
+
+  public static final long FACTOR_ONE = 1_000_000_000L;
+
+  private static final long[] POWERS_OF_TEN = {
+    1L,
+    10L,
+    100L,
+    1_000L,
+    10_000L,
+    100_000L,
+    1_000_000L,
+    10_000_000L,
+    100_000_000L,
+    1_000_000_000L,
+    10_000_000_000L,
+    100_000_000_000L,
+    1_000_000_000_000L,
+    10_000_000_000_000L,
+    100_000_000_000_000L,
+    1_000_000_000_000_000L,
+    10_000_000_000_000_000L,
+    100_000_000_000_000_000L,
+    1_000_000_000_000_000_000L
+  };
+
+  private FixedPoint() {}
+
+  public static long pow10(int scale) {
+    return POWERS_OF_TEN[scale];
+  }
+
+  /**
+   * Converts a decimal to its scaled-long representation.
+   *
+   * @param value - the decimal to convert
+   * @param scale - number of decimal places retained
+   * @param roundingMode - applied when value has more decimal places than scale
+   * @throws ArithmeticException if the scaled value does not fit in a long
+   */
+  public static long toScaled(BigDecimal value, int scale, RoundingMode roundingMode) {
+    return value.setScale(scale, roundingMode).unscaledValue().longValueExact();
+  }
+
+  public static BigDecimal toBigDecimal(long value, int scale) {
+    return BigDecimal.valueOf(value, scale);
+  }
+
+  /**
+   * Moves a scaled value to another scale. Downscaling truncates towards zero.
+   *
+   * @throws ArithmeticException if upscaling overflows
+   */
+  public static long rescale(long value, int fromScale, int toScale) {
+    if (fromScale == toScale) {
+      return value;
+    } else if (fromScale < toScale) {
+      return Math.multiplyExact(value, POWERS_OF_TEN[toScale - fromScale]);
+    } else {
+      return value / POWERS_OF_TEN[fromScale - toScale];
+    }
+  }
+
+  /** Compares two non-negative scaled values that may be held at different scales. */
+  public static int compareScaled(long a, int scaleA, long b, int scaleB) {
+    if (scaleA == scaleB) {
+      return Long.compare(a, b);
+    } else if (scaleA < scaleB) {
+      return compareProducts(a, POWERS_OF_TEN[scaleB - scaleA], b, 1L);
+    } else {
+      return compareProducts(a, 1L, b, POWERS_OF_TEN[scaleA - scaleB]);
+    }
+  }
+
+  /**
+   * Exactly compares a * b against c * d using 128-bit intermediate products. All operands must be
+   * non-negative.
+   *
+   * @return a negative number, zero, or a positive number as a * b is less than, equal to, or
+   *     greater than c * d
+   */
+  public static int compareProducts(long a, long b, long c, long d) {
+    long high1 = Math.multiplyHigh(a, b);
+    long high2 = Math.multiplyHigh(c, d);
+    if (high1 != high2) {
+      return Long.compare(high1, high2);
+    }
+    return Long.compareUnsigned(a * b, c * d);
+  }
+
+  /** High 64 bits of the unsigned 128-bit product of a and b. */
+  public static long multiplyHighUnsigned(long a, long b) {
+    return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+  }
+
+  /**
+   * Exactly compares a * b against c * d, where a and c are unsigned 128-bit values held as high and
+   * low words, e.g. sums of products accumulated with {@link #multiplyHighUnsigned}. b and d must be
+   * non-negative.
+   *
+   * @return a negative number, zero, or a positive number as a * b is less than, equal to, or
+   *     greater than c * d
+   */
+  public static int compareWideProducts(
+      long aHigh, long aLow, long b, long cHigh, long cLow, long d) {
+    // 192-bit products as words 2:1:0
+    long carryA = multiplyHighUnsigned(aLow, b);
+    long a1 = aHigh * b + carryA;
+    long a2 = multiplyHighUnsigned(aHigh, b) + (Long.compareUnsigned(a1, carryA) < 0 ? 1 : 0);
+    long carryC = multiplyHighUnsigned(cLow, d);
+    long c1 = cHigh * d + carryC;
+    long c2 = multiplyHighUnsigned(cHigh, d) + (Long.compareUnsigned(c1, carryC) < 0 ? 1 : 0);
+    if (a2 != c2) {
+      return Long.compareUnsigned(a2, c2);
+    }
+    if (a1 != c1) {
+      return Long.compareUnsigned(a1, c1);
+    }
+    return Long.compareUnsigned(aLow * b, cLow * d);
+  }
+
+  /**
+   * Multiplier applied to the cost of buying on a venue: (1 + takerFee) * (1 + minGain), rounded
+   * up so the profitability check never understates cost.
+   */
+  public static long buyFactor(BigDecimal takerFee, BigDecimal minGain) {
+    return toScaled(
+        BigDecimal.ONE.add(takerFee).multiply(BigDecimal.ONE.add(minGain)),
+        FACTOR_SCALE,
+        RoundingMode.CEILING);
+  }
+
+  /**
+   * Multiplier applied to the income of selling on a venue: (1 - takerFee), rounded down so the
+   * profitability check never overstates income.
+   */
+  public static long sellFactor(BigDecimal takerFee) {
+    return toScaled(BigDecimal.ONE.subtract(takerFee), FACTOR_SCALE, RoundingMode.FLOOR);
+  }
+
+  /**
+   * Trigger factor k of a (buy venue, sell venue) pairing: (1 + buyFee) * (1 + minGain) / (1 -
+   * sellFee). A bid on the sell venue only clears an ask on the buy venue when bid >= ask * k, so k
+   * screens a pairing with a single product comparison. Rounded down so the screen never rejects a
+   * pairing {@link #isProfitable} would accept. Long.MAX_VALUE if the sell venue keeps its whole
+   * income as fees.
+   */
+  public static long triggerFactor(BigDecimal buyFee, BigDecimal sellFee, BigDecimal minGain) {
+    BigDecimal income = BigDecimal.ONE.subtract(sellFee);
+    if (income.signum() <= 0) {
+      return Long.MAX_VALUE;
+    }
+    return toScaled(
+        BigDecimal.ONE
+            .add(buyFee)
+            .multiply(BigDecimal.ONE.add(minGain))
+            .divide(income, FACTOR_SCALE, RoundingMode.FLOOR),
+        FACTOR_SCALE,
+        RoundingMode.FLOOR);
+  }
+
+  /**
+   * Fee-adjusted crossing check between a bid and an ask held at the same price scale, i.e. whether
+   * bidPrice * (1 - sellFee) >= askPrice * (1 + buyFee) * (1 + minGain).
+   */
+  public static boolean isProfitable(long askPrice, long buyFactor, long bidPrice, long sellFactor) {
+    return compareProducts(bidPrice, sellFactor, askPrice, buyFactor) >= 0;
+  }
+}
@@ -0,0 +1,52 @@
+package util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Best-effort Linux CPU pinning of the calling thread. The JDK exposes neither the native thread id
+ * nor sched_setaffinity, so the id is resolved through /proc/thread-self and the thread's affinity
+ * mask is set with taskset. Unsupported platforms and failures are logged and leave the thread
+ * unpinned.
+ */
+public class ThreadAffinity {
+  private static final Logger LOG = LoggerFactory.getLogger(ThreadAffinity.class);
+  private static final Path THREAD_SELF = Paths.get("/proc/thread-self");
+
+  private ThreadAffinity() {}
+
+  /** @return whether the calling thread is now restricted to cpu */
+  public static boolean pinCurrentThread(int cpu) {
+    String threadName = Thread.currentThread().getName();
+    if (!Files.exists(THREAD_SELF)) {
+      LOG.warn("CPU pinning is only supported on Linux, {} left unpinned", threadName);
+      return false;
+    }
+    try {
+      // Resolves to <pid>/task/<tid>
+      String tid = Files.readSymbolicLink(THREAD_SELF).getFileName().toString();
+      Process process =
+          new ProcessBuilder("taskset", "-p", "-c", Integer.toString(cpu), tid)
+              .redirectErrorStream(true)
+              .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+              .start();
+      if (process.waitFor(5, TimeUnit.SECONDS) && process.exitValue() == 0) {
+        LOG.info("Pinned {} to CPU {}", threadName, cpu);
+        return true;
+      }
+      process.destroy();
+      LOG.warn("taskset failed to pin {} to CPU {}", threadName, cpu);
+    } catch (IOException e) {
+      LOG.warn("Unable to pin {} to CPU {}", threadName, cpu, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+}
@@ -1,19 +1,44 @@
 package util;
 
+import java.util.Collections;
+import java.util.List;
+
 public class ThreadFactory implements java.util.concurrent.ThreadFactory {
   private int counter;
   private String name;
+  private final int priority;
+  private final List<Integer> cpus;
 
   public ThreadFactory(String name) {
+    this(name, 0, Collections.emptyList());
+  }
+
+  /**
+   * @param priority - priority of the threads created, 0 to leave the JVM default
+   * @param cpus - cores the threads are pinned to round-robin as they start, empty for none
+   */
+  public ThreadFactory(String name, int priority, List<Integer> cpus) {
     counter = 1;
     this.name = name;
+    this.priority = priority;
+    this.cpus = cpus;
   }
 
   @Override
   public Thread newThread(Runnable r) {
-    Thread t = new Thread(r, String.format("%s-%d", name, counter++));
-    //            t.setPriority(Thread.MAX_PRIORITY); //TODO: possibly will be made configurable
-    // later on
+    Runnable task = r;
+    if (!cpus.isEmpty()) {
+      int cpu = cpus.get((counter - 1) % cpus.size());
+      task =
+          () -> {
+            ThreadAffinity.pinCurrentThread(cpu);
+            r.run();
+          };
+    }
+    Thread t = new Thread(task, String.format("%s-%d", name, counter++));
+    if (priority != 0) {
+      t.setPriority(priority);
+    }
     t.setDaemon(true);
     return t;
   }
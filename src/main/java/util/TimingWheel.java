@@ -0,0 +1,106 @@
+package util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hashed timing wheel of deadlines for a fixed range of int keys, e.g. one per (exchange, pair)
+ * book. Time is split into ticks and a key is bucketed by the tick of its deadline, so advancing the
+ * wheel only visits the buckets of the ticks elapsed since the last advance rather than every key.
+ * Moving a key's deadline is O(1) and never touches the wheel: a key stays in the bucket it was
+ * first filed under, and is re-filed by its latest deadline once that bucket comes due. Deadlines
+ * further out than a full rotation are handled the same way.
+ *
+ * <p>Not thread-safe, expected to be owned by a single event handler.
+ */
+public class TimingWheel {
+  private static final long NONE = Long.MIN_VALUE;
+
+  private final long tickNanos;
+  private final int mask;
+  private int[][] buckets;
+  private final int[] bucketSizes;
+  // Swapped with a bucket while it is drained, so keys may be re-filed into it
+  private int[] spare = new int[8];
+
+  // NONE where the key has no deadline
+  private final long[] deadlines;
+  private final boolean[] filed;
+  private long nextTick;
+
+  /**
+   * @param keys - number of keys, deadlines are set for keys in [0, keys)
+   * @param wheelSize - number of buckets, a power of two
+   * @param tickNanos - resolution, keys expire up to one tick after their deadline
+   * @param now - current System.nanoTime()
+   */
+  public TimingWheel(int keys, int wheelSize, long tickNanos, long now) {
+    if (Integer.bitCount(wheelSize) != 1) {
+      throw new IllegalArgumentException("wheelSize must be a power of two: " + wheelSize);
+    }
+    this.tickNanos = tickNanos;
+    this.mask = wheelSize - 1;
+    this.buckets = new int[wheelSize][8];
+    this.bucketSizes = new int[wheelSize];
+    this.deadlines = new long[keys];
+    this.filed = new boolean[keys];
+    Arrays.fill(deadlines, NONE);
+    this.nextTick = Math.floorDiv(now, tickNanos);
+  }
+
+  /** Sets or moves the deadline of key, replacing any earlier one. */
+  public void schedule(int key, long deadline) {
+    deadlines[key] = deadline;
+    if (!filed[key]) file(key, deadline);
+  }
+
+  /** Clears the deadline of key, if any. */
+  public void cancel(int key) {
+    deadlines[key] = NONE;
+  }
+
+  private void file(int key, long deadline) {
+    int bucket = (int) (Math.max(Math.floorDiv(deadline, tickNanos), nextTick) & mask);
+    int size = bucketSizes[bucket];
+    if (size == buckets[bucket].length) {
+      buckets[bucket] = Arrays.copyOf(buckets[bucket], size * 2);
+    }
+    buckets[bucket][size] = key;
+    bucketSizes[bucket] = size + 1;
+    filed[key] = true;
+  }
+
+  /**
+   * Processes every tick up to now, handing each key whose deadline has passed to onExpiry. An
+   * expired key's deadline is cleared before onExpiry is called.
+   */
+  public void advance(long now, IntConsumer onExpiry) {
+    long nowTick = Math.floorDiv(now, tickNanos);
+    // Every bucket is visited at most once however long since the last advance
+    long tick = Math.max(nextTick, nowTick - mask);
+    for (; tick <= nowTick; tick++) {
+      int bucket = (int) (tick & mask);
+      int size = bucketSizes[bucket];
+      if (size == 0) continue;
+
+      int[] keys = buckets[bucket];
+      buckets[bucket] = spare;
+      bucketSizes[bucket] = 0;
+      spare = keys;
+      nextTick = tick + 1;
+      for (int i = 0; i < size; i++) {
+        int key = keys[i];
+        filed[key] = false;
+        long deadline = deadlines[key];
+        if (deadline == NONE) continue;
+        if (deadline <= now) {
+          deadlines[key] = NONE;
+          onExpiry.accept(key);
+        } else {
+          file(key, deadline);
+        }
+      }
+    }
+    nextTick = nowTick + 1;
+  }
+}
@@ -0,0 +1,50 @@
+package util.task;
+
+import buffer.AdaptiveWaitStrategy;
+import buffer.OrderBookBuffer;
+import buffer.TradeBuffer;
+import com.lmax.disruptor.WaitStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Logs the buffers' counters along with the state of any AdaptiveWaitStrategy driving them. */
+public class BufferMetricsTask implements Runnable {
+  private static final Logger LOG = LoggerFactory.getLogger(BufferMetricsTask.class);
+
+  private final OrderBookBuffer orderBookBuffer;
+  private final TradeBuffer tradeBuffer;
+
+  @Override
+  public void run() {
+    try {
+      LOG.info(
+          "OrderBookBuffer received {} updates, {} conflated",
+          orderBookBuffer.getReceivedCount(),
+          orderBookBuffer.getConflatedCount());
+      logWaitStrategy("OrderBookBuffer", orderBookBuffer.getWaitStrategy());
+      logWaitStrategy("TradeBuffer", tradeBuffer.getWaitStrategy());
+    } catch (Exception e) {
+      Thread.currentThread()
+          .getUncaughtExceptionHandler()
+          .uncaughtException(Thread.currentThread(), e);
+    }
+  }
+
+  private static void logWaitStrategy(String bufferName, WaitStrategy waitStrategy) {
+    if (!(waitStrategy instanceof AdaptiveWaitStrategy)) return;
+    AdaptiveWaitStrategy adaptive = (AdaptiveWaitStrategy) waitStrategy;
+    LOG.info(
+        "{} wait strategy mode {} at {} events/s, transitions: spin={}, yield={}, park={}",
+        bufferName,
+        adaptive.getMode(),
+        adaptive.getEventRate(),
+        adaptive.getTransitionCount(AdaptiveWaitStrategy.Mode.SPIN),
+        adaptive.getTransitionCount(AdaptiveWaitStrategy.Mode.YIELD),
+        adaptive.getTransitionCount(AdaptiveWaitStrategy.Mode.PARK));
+  }
+
+  public BufferMetricsTask(OrderBookBuffer orderBookBuffer, TradeBuffer tradeBuffer) {
+    this.orderBookBuffer = orderBookBuffer;
+    this.tradeBuffer = tradeBuffer;
+  }
+}
@@ -0,0 +1,93 @@
+package util.task;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a computation per key (e.g. pairId) on an executor, with at most one run queued or in flight
+ * per key. Computations are expected to read the latest state for their key when they start, so a
+ * request made while a run is still queued is simply absorbed by it. A request made while a run is in
+ * flight marks the key dirty, and exactly one rerun is queued once that run completes. The executor
+ * queue therefore never holds more than one run per key, and no run works on outdated state for
+ * longer than a single computation.
+ */
+public class CoalescingScheduler {
+  private static final int IDLE = 0;
+  private static final int QUEUED = 1;
+  private static final int RUNNING = 2;
+  private static final int DIRTY = 3;
+
+  private final Executor executor;
+  private final IntConsumer computation;
+  private final AtomicIntegerArray states;
+  private final Runnable[] runners;
+  private final AtomicLong skippedCount = new AtomicLong();
+
+  /**
+   * @param keys - number of keys, requests are made for keys in [0, keys)
+   * @param computation - run with the requested key, exceptions are left to the executor
+   */
+  public CoalescingScheduler(Executor executor, int keys, IntConsumer computation) {
+    this.executor = executor;
+    this.computation = computation;
+    this.states = new AtomicIntegerArray(keys);
+    this.runners = new Runnable[keys];
+    for (int key = 0; key < keys; key++) {
+      int runnerKey = key;
+      runners[key] = () -> run(runnerKey);
+    }
+  }
+
+  /** Requests a run for key, unless one already queued or pending will observe the latest state. */
+  public void schedule(int key) {
+    while (true) {
+      switch (states.get(key)) {
+        case IDLE:
+          if (states.compareAndSet(key, IDLE, QUEUED)) {
+            executor.execute(runners[key]);
+            return;
+          }
+          break;
+        case RUNNING:
+          if (states.compareAndSet(key, RUNNING, DIRTY)) {
+            skippedCount.incrementAndGet();
+            return;
+          }
+          break;
+        default:
+          // QUEUED or DIRTY, a run yet to start will see this update
+          skippedCount.incrementAndGet();
+          return;
+      }
+    }
+  }
+
+  private void run(int key) {
+    states.set(key, RUNNING);
+    try {
+      computation.accept(key);
+    } finally {
+      if (!states.compareAndSet(key, RUNNING, IDLE)) {
+        // Dirtied while running
+        states.set(key, QUEUED);
+        executor.execute(runners[key]);
+      }
+    }
+  }
+
+  /** Number of requests absorbed by a run already queued or pending for the same key. */
+  public long getSkippedCount() {
+    return skippedCount.get();
+  }
+
+  /** Number of runs waiting for a worker, or -1 if the executor does not expose its queue. */
+  public int getQueueDepth() {
+    if (executor instanceof ThreadPoolExecutor) {
+      return ((ThreadPoolExecutor) executor).getQueue().size();
+    }
+    return -1;
+  }
+}
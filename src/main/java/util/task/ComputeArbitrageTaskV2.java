@@ -1,40 +1,52 @@
 package util.task;
 
-import domain.ExchangeLimitOrder;
+import domain.BookSideMerge;
+import domain.CompactOrderBook;
+import domain.LiquidityOverlay;
 import domain.Trade;
+import domain.TradingParameters;
+import domain.constants.Exchange;
 import org.knowm.xchange.currency.CurrencyPair;
-import org.knowm.xchange.dto.trade.LimitOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import services.MetadataAggregator;
+import services.arbitrage.InFlightLiquidity;
 import services.arbitrage.SpatialArbitragerV2;
+import util.FixedPoint;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Instant;
-import java.util.List;
 
 import static domain.constants.OrderType.LIMIT;
 import static org.knowm.xchange.dto.Order.OrderType.ASK;
 import static org.knowm.xchange.dto.Order.OrderType.BID;
+import static util.FixedPoint.FACTOR_ONE;
+import static util.FixedPoint.FACTOR_SCALE;
+import static util.FixedPoint.QUANTITY_SCALE;
 
 public class ComputeArbitrageTaskV2 implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(ComputeArbitrageTaskV2.class);
+    private static final Exchange[] EXCHANGES = Exchange.values();
 
     private SpatialArbitragerV2 spatialArbitragerV2;
-    private List<ExchangeLimitOrder> aggregatedAsks;
-    private List<ExchangeLimitOrder> aggregatedBids;
+    private CompactOrderBook[] orderBooks;
+    private int pairId;
     private CurrencyPair currencyPair;
     private MetadataAggregator metadataAggregator;
 
+    /**
+     * @param orderBooks - the pair's books slotted by exchange ordinal, null where an exchange has none.
+     *                   Books are treated as read-only snapshots
+     */
     public ComputeArbitrageTaskV2(SpatialArbitragerV2 spatialArbitragerV2,
-                                  List<ExchangeLimitOrder> aggregatedAsks,
-                                  List<ExchangeLimitOrder> aggregatedBids,
+                                  CompactOrderBook[] orderBooks,
+                                  int pairId,
                                   CurrencyPair currencyPair,
                                   MetadataAggregator metadataAggregator) {
         this.spatialArbitragerV2 = spatialArbitragerV2;
-        this.aggregatedAsks = aggregatedAsks;
-        this.aggregatedBids = aggregatedBids;
+        this.orderBooks = orderBooks;
+        this.pairId = pairId;
         this.currencyPair = currencyPair;
         this.metadataAggregator = metadataAggregator;
     }
@@ -54,124 +66,182 @@ public class ComputeArbitrageTaskV2 implements Runnable {
 
     /**
      * Performs the following steps:
-     * 1. Sorts aggregated asks in ascending order, aggregated bids in descending order
-     * 2. Begins iterating through the list of asks, setting a bid price floor for the current ask's price.
-     * 3. Valid arbitrage opportunities are added to the list of trades, passed back to SpatialArbitragerV2 via callback.
+     * 1. Resolves fees and minimum volumes of the exchanges involved from a single TradingParameters snapshot, and the
+     *    largest price scale among their books. Exchanges which are not ready are left out of the merge.
+     * 2. Walks every exchange's asks in ascending order through a lazy k-way merge of the per-exchange books.
+     * 3. For each ask, walks the bids in descending order the same way, down to the bid price floor of the ask's
+     *    price plus minGain. The pass ends as soon as the best bid no longer clears an ask.
+     * 4. Valid arbitrage opportunities are claimed in SpatialArbitragerV2's InFlightLiquidity, so concurrent tasks
+     *    never publish the same levels twice, and passed back to SpatialArbitragerV2 via callback.
+     *
+     * Only levels above the crossing depth are visited. Volume taken by detected opportunities is tracked in a
+     * LiquidityOverlay rather than on the books themselves.
      */
     private void computeTrades() {
-        aggregatedAsks.sort(SpatialArbitragerV2.ascendingAskComparator);
-        aggregatedBids.sort(SpatialArbitragerV2.descendingBidComparator);
-
         BigDecimal minGain = spatialArbitragerV2.getMinGain();
 
-        for (int i = 0; i < aggregatedAsks.size(); i++) {
-            ExchangeLimitOrder ask = aggregatedAsks.get(i);
-            BigDecimal bidPriceFloor = ask.getLimitOrder().getLimitPrice().multiply(BigDecimal.ONE.add(minGain));
-
-            for (int j = 0; j < aggregatedBids.size(); j++) {
-                ExchangeLimitOrder bid = aggregatedBids.get(i);
-                if (bid.getLimitOrder().getLimitPrice().compareTo(bidPriceFloor) <= 0) {
-                    if (j == 0) {
+        //Resolve fees and minimum order volumes once per exchange
+        TradingParameters tradingParameters = metadataAggregator.getTradingParameters();
+        BigDecimal[] takerFees = new BigDecimal[EXCHANGES.length];
+        long[] buyFactors = new long[EXCHANGES.length];
+        long[] sellFactors = new long[EXCHANGES.length];
+        long[] minVolumes = new long[EXCHANGES.length];
+        int priceScale = 0;
+        int levels = 0;
+        for (int ex = 0; ex < EXCHANGES.length; ex++) {
+            CompactOrderBook orderBook = orderBooks[ex];
+            if (orderBook == null) continue;
+            if (!tradingParameters.isReady(EXCHANGES[ex], pairId)) {
+                //The task's own array, the book itself is untouched
+                orderBooks[ex] = null;
+                continue;
+            }
+            priceScale = Math.max(priceScale, orderBook.getPriceScale());
+            levels = Math.max(levels, Math.max(orderBook.getAskCount(), orderBook.getBidCount()));
+
+            BigDecimal takerFee = tradingParameters.getTakerFee(EXCHANGES[ex], pairId);
+            takerFees[ex] = takerFee;
+            buyFactors[ex] = FixedPoint.buyFactor(takerFee, minGain);
+            sellFactors[ex] = FixedPoint.sellFactor(takerFee);
+            minVolumes[ex] = tradingParameters.getMinimumVolume(EXCHANGES[ex], pairId);
+        }
+        long minGainFactor = FixedPoint.toScaled(BigDecimal.ONE.add(minGain), FACTOR_SCALE, RoundingMode.CEILING);
+
+        BookSideMerge asks = new BookSideMerge(EXCHANGES.length, false);
+        BookSideMerge bids = new BookSideMerge(EXCHANGES.length, true);
+        LiquidityOverlay liquidityOverlay = new LiquidityOverlay(EXCHANGES.length, levels);
+
+        asks.reset(orderBooks, priceScale);
+        while (asks.next()) {
+            int ex1 = asks.getBook();
+            long askPrice = asks.getPrice();
+
+            bids.reset(orderBooks, priceScale);
+            boolean bestBid = true;
+            while (bids.next()) {
+                //Bid price floor: bid must exceed ask * (1 + minGain)
+                if (FixedPoint.compareProducts(bids.getPrice(), FACTOR_ONE, askPrice, minGainFactor) <= 0) {
+                    if (bestBid) {
                         return;
                     } else {
                         break;
                     }
                 }
-                if (ask.getExchange().equals(bid.getExchange())) continue;
+                bestBid = false;
 
-                //Get Fees and Minimum Order Volumes
-                BigDecimal ex1TakerFee = metadataAggregator.getFees(ask.getExchange(), currencyPair).getTakerFee();
-                BigDecimal ex2TakerFee = metadataAggregator.getFees(bid.getExchange(), currencyPair).getTakerFee();
+                long askVolume = liquidityOverlay.remainingAsk(ex1, asks.getLevel(), asks.getQuantity());
+                if (askVolume == 0) break;
 
-                BigDecimal ex1MinOrderAmount =
-                        metadataAggregator.getMinimumOrderAmount(ask.getExchange(), currencyPair);
-                BigDecimal ex2MinOrderAmount =
-                        metadataAggregator.getMinimumOrderAmount(bid.getExchange(), currencyPair);
+                int ex2 = bids.getBook();
+                if (ex1 == ex2) continue;
 
                 //Ensure Minimum Volume Requirements are met
-                BigDecimal effectiveBaseOrderVolume = ask.getLimitOrder().getOriginalAmount().min(
-                        bid.getLimitOrder().getOriginalAmount()
-                );
-                if (effectiveBaseOrderVolume.compareTo(ex1MinOrderAmount) < 0
-                        || effectiveBaseOrderVolume.compareTo(ex2MinOrderAmount) < 0) {
+                long bidVolume = liquidityOverlay.remainingBid(ex2, bids.getLevel(), bids.getQuantity());
+                long effectiveBaseOrderVolume = Math.min(askVolume, bidVolume);
+                if (effectiveBaseOrderVolume == 0
+                        || effectiveBaseOrderVolume < minVolumes[ex1]
+                        || effectiveBaseOrderVolume < minVolumes[ex2]) {
                     continue;
                 }
 
-                //Perform Arbitrage Calculations
-                BigDecimal costToBuy = ask.getLimitOrder().getLimitPrice().multiply(effectiveBaseOrderVolume);
-                BigDecimal totalCostToBuy = costToBuy.add(costToBuy.multiply(ex1TakerFee));
-
-                BigDecimal incomeSold = bid.getLimitOrder().getLimitPrice().multiply(effectiveBaseOrderVolume);
-                BigDecimal totalIncomeSold = incomeSold.subtract(incomeSold.multiply(ex2TakerFee));
-
                 //Valid Arbitrage Opportunity
-                if (totalIncomeSold.compareTo(totalCostToBuy) > 0
-                        && totalIncomeSold
-                        .subtract(totalCostToBuy)
-                        .divide(totalCostToBuy, 5, RoundingMode.HALF_EVEN)
-                        .compareTo(minGain)
-                        >= 0) {
-
-                    LOG.info(
-                            "Arbitrage Opportunity Detected for {} ! Buy {} units on {} at {}, Sell {} units on {} at {}",
-                            currencyPair,
-                            effectiveBaseOrderVolume,
-                            ask.getExchange(),
-                            ask.getLimitOrder().getLimitPrice(),
-                            effectiveBaseOrderVolume,
-                            bid.getExchange(),
-                            bid.getLimitOrder().getLimitPrice());
-                    LOG.info(
-                            "With fees calculated, Cost To Buy: {} , Amount Sold: {}, Profit: {}",
-                            totalCostToBuy,
-                            totalIncomeSold,
-                            totalIncomeSold.subtract(totalCostToBuy));
-
-                    Trade buyLow =
-                            Trade.builder()
-                                    .exchange(ask.getExchange())
-                                    .currencyPair(currencyPair)
-                                    .orderActionType(BID)
-                                    .orderType(LIMIT)
-                                    .price(ask.getLimitOrder().getLimitPrice())
-                                    .amount(effectiveBaseOrderVolume)
-                                    .timeDiscovered(Instant.now())
-                                    .fee(ex1TakerFee)
-                                    .build();
-                    Trade sellHigh =
-                            Trade.builder()
-                                    .exchange(bid.getExchange())
-                                    .currencyPair(currencyPair)
-                                    .orderActionType(ASK)
-                                    .orderType(LIMIT)
-                                    .price(bid.getLimitOrder().getLimitPrice())
-                                    .amount(effectiveBaseOrderVolume)
-                                    .timeDiscovered(Instant.now())
-                                    .fee(ex2TakerFee)
-                                    .build();
-                    spatialArbitragerV2.callback(buyLow, sellHigh);
+                if (FixedPoint.isProfitable(askPrice, buyFactors[ex1], bids.getPrice(), sellFactors[ex2])) {
+                    claimAndPublishTrade(ex1, asks.getLevel(), askPrice, takerFees[ex1],
+                            ex2, bids.getLevel(), bids.getPrice(), takerFees[ex2],
+                            effectiveBaseOrderVolume, Math.max(minVolumes[ex1], minVolumes[ex2]), priceScale);
 
                     //Update Volumes
-                    aggregatedAsks.set(i, ExchangeLimitOrder.builder()
-                            .exchange(ask.getExchange())
-                            .limitOrder(new LimitOrder(
-                                    ASK,
-                                    ask.getLimitOrder().getOriginalAmount().subtract(effectiveBaseOrderVolume),
-                                    null,
-                                    null,
-                                    null,
-                                    ask.getLimitOrder().getLimitPrice())).build());
-                    aggregatedBids.set(j, ExchangeLimitOrder.builder()
-                            .exchange(bid.getExchange())
-                            .limitOrder(new LimitOrder(
-                                    BID,
-                                    bid.getLimitOrder().getOriginalAmount().subtract(effectiveBaseOrderVolume),
-                                    null,
-                                    null,
-                                    null,
-                                    bid.getLimitOrder().getLimitPrice())).build());
+                    liquidityOverlay.consumeAsk(ex1, asks.getLevel(), effectiveBaseOrderVolume);
+                    liquidityOverlay.consumeBid(ex2, bids.getLevel(), effectiveBaseOrderVolume);
                 }
             }
+            //No bids at all
+            if (bestBid) return;
         }
     }
+
+    /**
+     * Claims the volume on both levels in the InFlightLiquidity before publishing, trimmed to what other tasks have
+     * not already claimed. Nothing is published if the claimed volume falls below minVolume.
+     */
+    private void claimAndPublishTrade(int ex1, int askLevel, long scaledAskPrice, BigDecimal ex1TakerFee,
+                                      int ex2, int bidLevel, long scaledBidPrice, BigDecimal ex2TakerFee,
+                                      long effectiveBaseOrderVolume, long minVolume, int priceScale) {
+        InFlightLiquidity inFlightLiquidity = spatialArbitragerV2.getInFlightLiquidity();
+        CompactOrderBook askBook = orderBooks[ex1];
+        CompactOrderBook bidBook = orderBooks[ex2];
+        long askLevelPrice = askBook.getAskPrice(askLevel);
+        long bidLevelPrice = bidBook.getBidPrice(bidLevel);
+        long now = System.nanoTime();
+
+        long askClaim = inFlightLiquidity.claim(EXCHANGES[ex1], pairId, false, askLevelPrice,
+                effectiveBaseOrderVolume, askBook.getAskQuantity(askLevel), now);
+        if (askClaim == 0) return;
+        long bidClaim = inFlightLiquidity.claim(EXCHANGES[ex2], pairId, true, bidLevelPrice,
+                askClaim, bidBook.getBidQuantity(bidLevel), now);
+        if (bidClaim < minVolume || bidClaim == 0) {
+            inFlightLiquidity.unclaim(EXCHANGES[ex1], pairId, false, askLevelPrice, askClaim, now);
+            inFlightLiquidity.unclaim(EXCHANGES[ex2], pairId, true, bidLevelPrice, bidClaim, now);
+            return;
+        }
+        if (bidClaim < askClaim) {
+            inFlightLiquidity.unclaim(EXCHANGES[ex1], pairId, false, askLevelPrice, askClaim - bidClaim, now);
+        }
+        publishTrade(ex1, scaledAskPrice, ex1TakerFee, ex2, scaledBidPrice, ex2TakerFee, bidClaim, priceScale);
+    }
+
+    private void publishTrade(int ex1, long scaledAskPrice, BigDecimal ex1TakerFee,
+                              int ex2, long scaledBidPrice, BigDecimal ex2TakerFee,
+                              long effectiveBaseOrderVolume, int priceScale) {
+        BigDecimal amount = FixedPoint.toBigDecimal(effectiveBaseOrderVolume, QUANTITY_SCALE);
+        BigDecimal askPrice = FixedPoint.toBigDecimal(scaledAskPrice, priceScale);
+        BigDecimal bidPrice = FixedPoint.toBigDecimal(scaledBidPrice, priceScale);
+
+        BigDecimal costToBuy = askPrice.multiply(amount);
+        BigDecimal totalCostToBuy = costToBuy.add(costToBuy.multiply(ex1TakerFee));
+
+        BigDecimal incomeSold = bidPrice.multiply(amount);
+        BigDecimal totalIncomeSold = incomeSold.subtract(incomeSold.multiply(ex2TakerFee));
+
+        LOG.info(
+                "Arbitrage Opportunity Detected for {} ! Buy {} units on {} at {}, Sell {} units on {} at {}",
+                currencyPair,
+                amount,
+                EXCHANGES[ex1],
+                askPrice,
+                amount,
+                EXCHANGES[ex2],
+                bidPrice);
+        LOG.info(
+                "With fees calculated, Cost To Buy: {} , Amount Sold: {}, Profit: {}",
+                totalCostToBuy,
+                totalIncomeSold,
+                totalIncomeSold.subtract(totalCostToBuy));
+
+        Trade buyLow =
+                Trade.builder()
+                        .exchange(EXCHANGES[ex1])
+                        .currencyPair(currencyPair)
+                        .pairId(pairId)
+                        .orderActionType(BID)
+                        .orderType(LIMIT)
+                        .price(askPrice)
+                        .amount(amount)
+                        .timeDiscovered(Instant.now())
+                        .fee(ex1TakerFee)
+                        .build();
+        Trade sellHigh =
+                Trade.builder()
+                        .exchange(EXCHANGES[ex2])
+                        .currencyPair(currencyPair)
+                        .pairId(pairId)
+                        .orderActionType(ASK)
+                        .orderType(LIMIT)
+                        .price(bidPrice)
+                        .amount(amount)
+                        .timeDiscovered(Instant.now())
+                        .fee(ex2TakerFee)
+                        .build();
+        spatialArbitragerV2.callback(buyLow, sellHigh);
+    }
 }
@@ -9,6 +9,7 @@ public class RestAPIRefreshTask implements Runnable {
   public void run() {
     try {
       if (abstractExchangeRestAPI.isEnabled()) {
+        abstractExchangeRestAPI.refreshReservedOrders();
         abstractExchangeRestAPI.refreshAccountInfo();
         abstractExchangeRestAPI.refreshProducts();
         abstractExchangeRestAPI.refreshFees();
@@ -0,0 +1,68 @@
+package buffer;
+
+import com.lmax.disruptor.AlertException;
+import com.lmax.disruptor.Sequence;
+import com.lmax.disruptor.SequenceBarrier;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static buffer.AdaptiveWaitStrategy.Mode.PARK;
+import static buffer.AdaptiveWaitStrategy.Mode.SPIN;
+import static buffer.AdaptiveWaitStrategy.Mode.YIELD;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class AdaptiveWaitStrategyTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void updateMode_followsEventRate() {
+        // Spin at 1000 events/s, yield at 100 events/s
+        AdaptiveWaitStrategy waitStrategy = new AdaptiveWaitStrategy(1000, 100, 0);
+        assertEquals(PARK, waitStrategy.getMode());
+
+        // Window not yet elapsed
+        assertEquals(PARK, waitStrategy.updateMode(5 * MS, 50));
+        // 21 events in 10ms
+        assertEquals(SPIN, waitStrategy.updateMode(10 * MS, 20));
+        assertEquals(2100, waitStrategy.getEventRate());
+        // 2 events in 10ms
+        assertEquals(YIELD, waitStrategy.updateMode(20 * MS, 22));
+        assertEquals(PARK, waitStrategy.updateMode(40 * MS, 22));
+        assertEquals(PARK, waitStrategy.updateMode(50 * MS, 22));
+
+        assertEquals(1, waitStrategy.getTransitionCount(SPIN));
+        assertEquals(1, waitStrategy.getTransitionCount(YIELD));
+        assertEquals(1, waitStrategy.getTransitionCount(PARK));
+    }
+
+    @Test
+    public void waitFor_returnsOnceSequenceAvailable() throws Exception {
+        AdaptiveWaitStrategy waitStrategy = new AdaptiveWaitStrategy(1000, 100);
+        Sequence cursor = new Sequence(-1);
+        Thread publisher = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                return;
+            }
+            cursor.set(3);
+        });
+        publisher.start();
+
+        assertEquals(3, waitStrategy.waitFor(0, cursor, cursor, mock(SequenceBarrier.class)));
+        publisher.join();
+    }
+
+    @Test(expected = AlertException.class)
+    public void waitFor_throwsWhenAlerted() throws Exception {
+        AdaptiveWaitStrategy waitStrategy = new AdaptiveWaitStrategy(1000, 100);
+        SequenceBarrier barrier = mock(SequenceBarrier.class);
+        doThrow(AlertException.INSTANCE).when(barrier).checkAlert();
+
+        waitStrategy.waitFor(0, new Sequence(-1), new Sequence(-1), barrier);
+    }
+}
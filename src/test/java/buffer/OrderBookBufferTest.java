@@ -0,0 +1,350 @@
+package buffer;
+
+import buffer.events.OrderBookEvent;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.ProducerType;
+import config.Configuration;
+import domain.CompactOrderBook;
+import domain.OrderBookDelta;
+import domain.SymbolRegistry;
+import domain.constants.Exchange;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.knowm.xchange.currency.CurrencyPair;
+import testUtils.OrderBookProvider;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static domain.constants.Exchange.BITFINEX;
+import static domain.constants.Exchange.COINBASE_PRO;
+import static org.junit.Assert.*;
+
+public class OrderBookBufferTest {
+
+    private static final int DEPTH = 10;
+    private static final int WARMUP_EVENTS = 50_000;
+    private static final int MEASURED_EVENTS = 100_000;
+
+    private static final SymbolRegistry REGISTRY = new SymbolRegistry(Map.of(
+            BITFINEX, List.of(CurrencyPair.BTC_USD),
+            COINBASE_PRO, List.of(CurrencyPair.BTC_USD)));
+
+    private OrderBookBuffer orderBookBuffer;
+
+    @After
+    public void tearDown() {
+        if (orderBookBuffer != null) {
+            orderBookBuffer.shutdown();
+        }
+    }
+
+    @Test
+    public void insert_copiesLevelsIntoSlot() throws Exception {
+        CompactOrderBook first = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        CompactOrderBook second = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 10, "orderBookData/custom/CUSTOM-1-bids.csv", "orderBookData/custom/CUSTOM-1-asks.csv");
+        CompactOrderBook source = new CompactOrderBook(DEPTH);
+        CompactOrderBook[] received = {new CompactOrderBook(DEPTH), new CompactOrderBook(DEPTH)};
+        CountDownLatch latch = new CountDownLatch(2);
+
+        orderBookBuffer = new OrderBookBuffer(DEPTH, REGISTRY, false, (event, sequence, endOfBatch) -> {
+            // Each exchange publishes into a ring of its own, sequences are per ring
+            received[event.exchange == COINBASE_PRO ? 0 : 1].copyFrom(event.orderBook);
+            latch.countDown();
+        });
+        orderBookBuffer.start();
+
+        // The same source book is reused between inserts, as the exchange streams do
+        source.copyFrom(first);
+        orderBookBuffer.insert(source, COINBASE_PRO, 0);
+        source.copyFrom(second);
+        orderBookBuffer.insert(source, BITFINEX, 0);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(2, received[0].getPriceScale());
+        assertEquals(first.getAskPrice(0), received[0].getAskPrice(0));
+        assertEquals(first.getBidQuantity(DEPTH - 1), received[0].getBidQuantity(DEPTH - 1));
+        assertEquals(10, received[1].getPriceScale());
+        assertEquals(second.getAskPrice(0), received[1].getAskPrice(0));
+    }
+
+    @Test
+    public void insert_conflatesPendingUpdatesPerKey() throws Exception {
+        CompactOrderBook first = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        CompactOrderBook second = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 2, "orderBookData/custom/CUSTOM-1-bids.csv", "orderBookData/custom/CUSTOM-1-asks.csv");
+        OrderBookDelta delta = new OrderBookDelta(OrderBookDelta.capacityFor(DEPTH));
+        assertTrue(delta.compute(first, second));
+        List<OrderBookEvent.Type> types = new ArrayList<>();
+        List<Exchange> exchanges = new ArrayList<>();
+        CompactOrderBook received = new CompactOrderBook(DEPTH);
+        CountDownLatch latch = new CountDownLatch(2);
+
+        orderBookBuffer = new OrderBookBuffer(DEPTH, REGISTRY, true, (event, sequence, endOfBatch) -> {
+            types.add(event.type);
+            exchanges.add(event.exchange);
+            if (event.exchange == COINBASE_PRO) {
+                received.copyFrom(event.orderBook);
+            }
+            latch.countDown();
+        });
+
+        // Published before the consumer starts, so every COINBASE_PRO update after the first is still pending
+        orderBookBuffer.insert(first, COINBASE_PRO, 0);
+        orderBookBuffer.insert(first, BITFINEX, 0);
+        orderBookBuffer.insert(first, COINBASE_PRO, 0);
+        orderBookBuffer.insertDelta(delta, COINBASE_PRO, 0);
+        orderBookBuffer.start();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(List.of(OrderBookEvent.Type.SNAPSHOT, OrderBookEvent.Type.SNAPSHOT), types);
+        assertEquals(List.of(COINBASE_PRO, BITFINEX), exchanges);
+        assertEquals(second.getAskCount(), received.getAskCount());
+        for (int i = 0; i < second.getAskCount(); i++) {
+            assertEquals(second.getAskPrice(i), received.getAskPrice(i));
+            assertEquals(second.getAskQuantity(i), received.getAskQuantity(i));
+        }
+        for (int i = 0; i < second.getBidCount(); i++) {
+            assertEquals(second.getBidPrice(i), received.getBidPrice(i));
+            assertEquals(second.getBidQuantity(i), received.getBidQuantity(i));
+        }
+        assertEquals(4, orderBookBuffer.getReceivedCount());
+        assertEquals(2, orderBookBuffer.getConflatedCount());
+    }
+
+    @Test
+    public void insert_conflatedUpdateResolvedOnlyByItsOwners() throws Exception {
+        SymbolRegistry registry = new SymbolRegistry(Map.of(
+                COINBASE_PRO, List.of(CurrencyPair.BTC_USD, CurrencyPair.ETH_USD)));
+        CompactOrderBook source = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        List<List<Integer>> snapshotPairs = List.of(new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+        CountDownLatch first = new CountDownLatch(4);
+        CountDownLatch second = new CountDownLatch(6);
+        List<EventHandler<OrderBookEvent>> recorders = new ArrayList<>();
+        for (List<Integer> pairs : snapshotPairs) {
+            recorders.add((event, sequence, endOfBatch) -> {
+                assertEquals(OrderBookEvent.Type.SNAPSHOT, event.type);
+                pairs.add(event.pairId);
+                first.countDown();
+                second.countDown();
+            });
+        }
+
+        orderBookBuffer = new OrderBookBuffer(DEPTH, registry, true,
+                new PairPartitionedHandler(recorders.get(0), 0, 2),
+                new PairPartitionedHandler(recorders.get(1), 1, 2),
+                recorders.get(2));
+
+        orderBookBuffer.insert(source, COINBASE_PRO, 0);
+        orderBookBuffer.insert(source, COINBASE_PRO, 1);
+        orderBookBuffer.insert(source, COINBASE_PRO, 0);
+        orderBookBuffer.start();
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        assertEquals(1, orderBookBuffer.getConflatedCount());
+
+        // Taken by both its owners, the next update for pair 0 is published again
+        orderBookBuffer.insert(source, COINBASE_PRO, 0);
+        assertTrue(second.await(10, TimeUnit.SECONDS));
+
+        assertEquals(List.of(0, 0), snapshotPairs.get(0));
+        assertEquals(List.of(1), snapshotPairs.get(1));
+        assertEquals(List.of(0, 1, 0), snapshotPairs.get(2));
+        assertEquals(1, orderBookBuffer.getConflatedCount());
+    }
+
+    @Test
+    public void insert_fullRingDoesNotBlockOtherExchanges() throws Exception {
+        CompactOrderBook source = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        Configuration.DisruptorConfig disruptorConfig = Configuration.DisruptorConfig.builder()
+                .ringSize(4)
+                .waitStrategy(Configuration.WaitStrategy.SLEEPING)
+                .cpus(Collections.emptyList())
+                .build();
+        List<Exchange> exchanges = new ArrayList<>();
+        List<Boolean> endOfBatches = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(5);
+
+        orderBookBuffer = new OrderBookBuffer(DEPTH, REGISTRY, false, disruptorConfig, (event, sequence, endOfBatch) -> {
+            exchanges.add(event.exchange);
+            endOfBatches.add(endOfBatch);
+            latch.countDown();
+        });
+
+        // Fills the COINBASE_PRO ring while the consumer is not yet running
+        for (int i = 0; i < 4; i++) {
+            orderBookBuffer.insert(source, COINBASE_PRO, 0);
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> orderBookBuffer.insert(source, BITFINEX, 0)).get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        orderBookBuffer.start();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(List.of(COINBASE_PRO, COINBASE_PRO, COINBASE_PRO, COINBASE_PRO, BITFINEX), exchanges);
+        // The batch spans both rings, so it only ends with the BITFINEX event
+        assertEquals(List.of(false, false, false, false, true), endOfBatches);
+    }
+
+    @Test
+    public void insert_slotClaimedButNotPublishedDoesNotWithholdEndOfBatch() throws Exception {
+        CompactOrderBook source = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        Configuration.DisruptorConfig disruptorConfig = Configuration.DisruptorConfig.builder()
+                .ringSize(4)
+                .waitStrategy(Configuration.WaitStrategy.SLEEPING)
+                .producerType(ProducerType.MULTI)
+                .cpus(Collections.emptyList())
+                .build();
+        List<Exchange> exchanges = new ArrayList<>();
+        List<Boolean> endOfBatches = new ArrayList<>();
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(2);
+
+        orderBookBuffer = new OrderBookBuffer(DEPTH, REGISTRY, false, disruptorConfig, (event, sequence, endOfBatch) -> {
+            exchanges.add(event.exchange);
+            endOfBatches.add(endOfBatch);
+            first.countDown();
+            second.countDown();
+        });
+
+        orderBookBuffer.insert(source, COINBASE_PRO, 0);
+        // A BITFINEX publisher that has claimed its slot but not yet published it
+        RingBuffer<OrderBookEvent> bitfinexRing = orderBookBuffer.getRing(BITFINEX);
+        long claimed = bitfinexRing.next();
+        orderBookBuffer.start();
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+
+        bitfinexRing.get(claimed).setHeartbeat(BITFINEX, 0, System.nanoTime());
+        bitfinexRing.publish(claimed);
+        assertTrue(second.await(10, TimeUnit.SECONDS));
+
+        assertEquals(List.of(COINBASE_PRO, BITFINEX), exchanges);
+        assertEquals(List.of(true, true), endOfBatches);
+    }
+
+    @Test
+    public void insert_singleProducerRingRejectsSecondPublisherThread() throws Exception {
+        CompactOrderBook source = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        Configuration.DisruptorConfig disruptorConfig = Configuration.DisruptorConfig.builder()
+                .ringSize(4)
+                .waitStrategy(Configuration.WaitStrategy.SLEEPING)
+                .producerType(ProducerType.SINGLE)
+                .cpus(Collections.emptyList())
+                .build();
+        orderBookBuffer = new OrderBookBuffer(DEPTH, REGISTRY, false, disruptorConfig, (event, sequence, endOfBatch) -> {});
+
+        orderBookBuffer.insert(source, COINBASE_PRO, 0);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Another exchange's ring has its own publisher
+            executor.submit(() -> orderBookBuffer.insert(source, BITFINEX, 0)).get(5, TimeUnit.SECONDS);
+            try {
+                executor.submit(() -> orderBookBuffer.insert(source, COINBASE_PRO, 0)).get(5, TimeUnit.SECONDS);
+                fail("Second publisher thread was not rejected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void insert_singleProducerRingAcceptsNewPublisherThreadAfterRelease() throws Exception {
+        CompactOrderBook source = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        List<Long> receivedAt = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        orderBookBuffer = new OrderBookBuffer(DEPTH, REGISTRY, false, (event, sequence, endOfBatch) -> {
+            receivedAt.add(event.receivedAt);
+            latch.countDown();
+        });
+        orderBookBuffer.start();
+
+        orderBookBuffer.insert(source, COINBASE_PRO, 0);
+        // As a stream's reset does between disconnecting and reconnecting
+        orderBookBuffer.releasePublisher(COINBASE_PRO);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> orderBookBuffer.insert(source, COINBASE_PRO, 0)).get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(2, receivedAt.size());
+
+        // The reconnected thread now owns the ring
+        try {
+            orderBookBuffer.insert(source, COINBASE_PRO, 0);
+            fail("Previous publisher thread was not rejected");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsBlockingWaitStrategy() {
+        new OrderBookBuffer(DEPTH, REGISTRY, false, Configuration.DisruptorConfig.builder()
+                .ringSize(4)
+                .waitStrategy(Configuration.WaitStrategy.BLOCKING)
+                .cpus(Collections.emptyList())
+                .build(), (event, sequence, endOfBatch) -> {});
+    }
+
+    @Test
+    public void insert_doesNotAllocatePerEventOnConsumerThread() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        CompactOrderBook source = OrderBookProvider.getCompactOrderBookFromCSV(DEPTH, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        AllocationRecordingHandler handler = new AllocationRecordingHandler(threadMXBean);
+
+        orderBookBuffer = new OrderBookBuffer(DEPTH, REGISTRY, false, handler);
+        orderBookBuffer.start();
+        for (int i = 0; i < WARMUP_EVENTS + MEASURED_EVENTS; i++) {
+            orderBookBuffer.insert(source, COINBASE_PRO, 0);
+        }
+        assertTrue(handler.done.await(30, TimeUnit.SECONDS));
+
+        double bytesPerEvent = (double) (handler.endBytes - handler.startBytes) / MEASURED_EVENTS;
+        assertTrue("Allocated " + bytesPerEvent + " bytes per event", bytesPerEvent < 1.0);
+        assertEquals(source.getAskPrice(DEPTH - 1), handler.copy.getAskPrice(DEPTH - 1));
+    }
+
+    /** Copies each slot out, as the arbitragers do, and samples the consumer thread's allocations. */
+    private static class AllocationRecordingHandler implements EventHandler<OrderBookEvent> {
+        private final com.sun.management.ThreadMXBean threadMXBean;
+        private final CompactOrderBook copy = new CompactOrderBook(DEPTH);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long startBytes;
+        private volatile long endBytes;
+
+        AllocationRecordingHandler(com.sun.management.ThreadMXBean threadMXBean) {
+            this.threadMXBean = threadMXBean;
+        }
+
+        @Override
+        public void onEvent(OrderBookEvent event, long sequence, boolean endOfBatch) {
+            copy.copyFrom(event.orderBook);
+            if (sequence == WARMUP_EVENTS - 1) {
+                startBytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            } else if (sequence == WARMUP_EVENTS + MEASURED_EVENTS - 1) {
+                endBytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                done.countDown();
+            }
+        }
+    }
+}
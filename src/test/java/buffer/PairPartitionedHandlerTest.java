@@ -0,0 +1,64 @@
+package buffer;
+
+import buffer.events.OrderBookEvent;
+import com.lmax.disruptor.EventHandler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static domain.constants.Exchange.BITFINEX;
+import static org.junit.Assert.assertEquals;
+
+public class PairPartitionedHandlerTest {
+
+    @Test
+    public void onEvent_forwardsOnlyOwnedPairs() throws Exception {
+        List<Integer> shard0 = new ArrayList<>();
+        List<Integer> shard1 = new ArrayList<>();
+        PairPartitionedHandler handler0 = new PairPartitionedHandler((event, sequence, endOfBatch) -> shard0.add(event.pairId), 0, 2);
+        PairPartitionedHandler handler1 = new PairPartitionedHandler((event, sequence, endOfBatch) -> shard1.add(event.pairId), 1, 2);
+
+        OrderBookEvent event = new OrderBookEvent(1);
+        for (int pairId = 0; pairId < 5; pairId++) {
+            event.setConflated(BITFINEX, pairId);
+            handler0.onEvent(event, pairId, false);
+            handler1.onEvent(event, pairId, false);
+        }
+
+        assertEquals(List.of(0, 2, 4), shard0);
+        assertEquals(List.of(1, 3), shard1);
+    }
+
+    @Test
+    public void onEvent_endOfBatchReachesDelegateOfOtherPartition() throws Exception {
+        List<String> calls = new ArrayList<>();
+        class DeferringHandler implements EventHandler<OrderBookEvent>, BatchEndAware {
+            @Override
+            public void onEvent(OrderBookEvent event, long sequence, boolean endOfBatch) {
+                calls.add(event.pairId + (endOfBatch ? "!" : ""));
+            }
+
+            @Override
+            public void onBatchEnd() {
+                calls.add("end");
+            }
+        }
+        PairPartitionedHandler handler = new PairPartitionedHandler(new DeferringHandler(), 0, 2);
+
+        OrderBookEvent event = new OrderBookEvent(1);
+        event.setConflated(BITFINEX, 0);
+        handler.onEvent(event, 0, false);
+        event.setConflated(BITFINEX, 1);
+        handler.onEvent(event, 1, true);
+        event.setConflated(BITFINEX, 2);
+        handler.onEvent(event, 2, true);
+
+        assertEquals(List.of("0", "end", "2!"), calls);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsPartitionOutOfRange() {
+        new PairPartitionedHandler((event, sequence, endOfBatch) -> {}, 2, 2);
+    }
+}
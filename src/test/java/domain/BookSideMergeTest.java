@@ -0,0 +1,75 @@
+package domain;
+
+import org.junit.Test;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
+
+public class BookSideMergeTest {
+
+    private static LimitOrder order(Order.OrderType type, String price) {
+        return new LimitOrder(type, BigDecimal.ONE, BTC_USD, null, new Date(), new BigDecimal(price));
+    }
+
+    private static CompactOrderBook book(int priceScale, List<String> asks, List<String> bids) {
+        List<LimitOrder> askOrders = new ArrayList<>();
+        asks.forEach(price -> askOrders.add(order(Order.OrderType.ASK, price)));
+        List<LimitOrder> bidOrders = new ArrayList<>();
+        bids.forEach(price -> bidOrders.add(order(Order.OrderType.BID, price)));
+        CompactOrderBook compactOrderBook = new CompactOrderBook(10);
+        compactOrderBook.fill(new OrderBook(new Date(), askOrders, bidOrders), priceScale);
+        return compactOrderBook;
+    }
+
+    @Test
+    public void next_visitsLevelsBestFirstAcrossBooks() {
+        CompactOrderBook[] books = {
+                book(2, Arrays.asList("100.00", "100.20", "101.00"), Arrays.asList("99.90", "99.00")),
+                null,
+                book(1, Arrays.asList("100.1", "100.2"), Arrays.asList("99.9", "99.5"))
+        };
+
+        BookSideMerge asks = new BookSideMerge(books.length, false);
+        asks.reset(books, 2);
+        List<String> visited = new ArrayList<>();
+        while (asks.next()) {
+            visited.add(asks.getBook() + ":" + asks.getLevel() + ":" + asks.getPrice());
+        }
+        // Equal prices go to the lower slot first
+        assertEquals(Arrays.asList("0:0:10000", "2:0:10010", "0:1:10020", "2:1:10020", "0:2:10100"), visited);
+
+        BookSideMerge bids = new BookSideMerge(books.length, true);
+        bids.reset(books, 2);
+        assertTrue(bids.next());
+        assertEquals(0, bids.getBook());
+        assertEquals(9990, bids.getPrice());
+        assertEquals(100_000_000L, bids.getQuantity());
+        assertTrue(bids.next());
+        assertEquals(2, bids.getBook());
+        assertEquals(9990, bids.getPrice());
+        assertTrue(bids.next());
+        assertEquals(9950, bids.getPrice());
+
+        // Restarts from the top
+        bids.reset(books, 2);
+        assertTrue(bids.next());
+        assertEquals(0, bids.getLevel());
+        assertEquals(9990, bids.getPrice());
+    }
+
+    @Test
+    public void next_returnsFalseWithoutLevels() {
+        BookSideMerge asks = new BookSideMerge(2, false);
+        asks.reset(new CompactOrderBook[] {null, new CompactOrderBook(10)}, 2);
+        assertFalse(asks.next());
+    }
+}
@@ -0,0 +1,50 @@
+package domain;
+
+import org.junit.Test;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
+
+public class CompactOrderBookTest {
+
+    private static LimitOrder order(Order.OrderType type, String amount, String price) {
+        return new LimitOrder(type, new BigDecimal(amount), BTC_USD, null, new Date(), new BigDecimal(price));
+    }
+
+    @Test
+    public void fill_sortsRoundsAndTruncatesToCapacity() {
+        OrderBook orderBook = new OrderBook(new Date(),
+                Arrays.asList(
+                        order(Order.OrderType.ASK, "0.5", "101.001"),
+                        order(Order.OrderType.ASK, "0", "100.50"),
+                        order(Order.OrderType.ASK, "1.0", "100.00"),
+                        order(Order.OrderType.ASK, "2.0", "102.00")),
+                Arrays.asList(
+                        order(Order.OrderType.BID, "0.25", "99.999"),
+                        order(Order.OrderType.BID, "1.5", "98.00"),
+                        order(Order.OrderType.BID, "3.0", "97.00")),
+                false);
+
+        CompactOrderBook compactOrderBook = new CompactOrderBook(2);
+        compactOrderBook.fill(orderBook, 2);
+
+        assertEquals(2, compactOrderBook.getPriceScale());
+        assertEquals(2, compactOrderBook.getAskCount());
+        assertEquals(10000, compactOrderBook.getAskPrice(0));
+        assertEquals(100_000_000L, compactOrderBook.getAskQuantity(0));
+        assertEquals(10101, compactOrderBook.getAskPrice(1)); // rounded up
+        assertEquals(50_000_000L, compactOrderBook.getAskQuantity(1));
+
+        assertEquals(2, compactOrderBook.getBidCount());
+        assertEquals(9999, compactOrderBook.getBidPrice(0)); // rounded down
+        assertEquals(9800, compactOrderBook.getBidPrice(1));
+        assertFalse(compactOrderBook.isEmpty());
+    }
+}
@@ -0,0 +1,57 @@
+package domain;
+
+import org.junit.Test;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
+import static util.FixedPoint.FACTOR_ONE;
+
+public class DepthSweepTest {
+
+    private static CompactOrderBook book(List<String[]> asks, List<String[]> bids) {
+        List<LimitOrder> askOrders = new ArrayList<>();
+        asks.forEach(level -> askOrders.add(new LimitOrder(Order.OrderType.ASK, new BigDecimal(level[1]), BTC_USD, null, new Date(), new BigDecimal(level[0]))));
+        List<LimitOrder> bidOrders = new ArrayList<>();
+        bids.forEach(level -> bidOrders.add(new LimitOrder(Order.OrderType.BID, new BigDecimal(level[1]), BTC_USD, null, new Date(), new BigDecimal(level[0]))));
+        CompactOrderBook compactOrderBook = new CompactOrderBook(10);
+        compactOrderBook.fill(new OrderBook(new Date(), askOrders, bidOrders), 2);
+        return compactOrderBook;
+    }
+
+    @Test
+    public void sweep_findsLargestQuantityClearingInAggregate() {
+        CompactOrderBook asks = book(
+                List.<String[]>of(new String[]{"100.00", "1"}, new String[]{"101.00", "1"}, new String[]{"110.00", "5"}),
+                List.<String[]>of(new String[]{"99.00", "1"}));
+        CompactOrderBook bids = book(
+                List.<String[]>of(new String[]{"120.00", "1"}),
+                List.<String[]>of(new String[]{"105.00", "1"}, new String[]{"103.00", "1"}, new String[]{"99.00", "5"}));
+        LiquidityOverlay liquidityOverlay = new LiquidityOverlay(2, 10);
+        DepthSweep depthSweep = new DepthSweep(1); // Regrown to the books' depth
+
+        // Without fees or min gain, 2 + x units clear while 208 + 99x >= 201 + 110x, i.e. x <= 7/11
+        long quantity = depthSweep.sweep(asks, 0, bids, 1, liquidityOverlay, 2, FACTOR_ONE, FACTOR_ONE);
+
+        assertEquals(263_636_363L, quantity);
+        assertEquals(11000, depthSweep.getAskPrice());
+        assertEquals(9900, depthSweep.getBidPrice());
+        assertEquals(0, new BigDecimal("270.9999993").compareTo(depthSweep.getCost()));
+        assertEquals(0, new BigDecimal("270.99999937").compareTo(depthSweep.getIncome()));
+
+        depthSweep.consume(liquidityOverlay, 0, 1);
+        assertEquals(0, liquidityOverlay.remainingAsk(0, 1, asks.getAskQuantity(1)));
+        assertEquals(436_363_637L, liquidityOverlay.remainingAsk(0, 2, asks.getAskQuantity(2)));
+        assertEquals(436_363_637L, liquidityOverlay.remainingBid(1, 2, bids.getBidQuantity(2)));
+
+        // What is left no longer clears
+        assertEquals(0, depthSweep.sweep(asks, 0, bids, 1, liquidityOverlay, 2, FACTOR_ONE, FACTOR_ONE));
+    }
+}
@@ -0,0 +1,34 @@
+package domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LiquidityOverlayTest {
+
+    @Test
+    public void consume_offsetsOnlyTheAddressedLevel() {
+        LiquidityOverlay liquidityOverlay = new LiquidityOverlay(2, 3);
+
+        liquidityOverlay.consumeAsk(1, 2, 40);
+        liquidityOverlay.consumeAsk(1, 2, 25);
+        liquidityOverlay.consumeBid(0, 0, 500);
+
+        assertEquals(35, liquidityOverlay.remainingAsk(1, 2, 100));
+        assertEquals(100, liquidityOverlay.remainingAsk(0, 2, 100));
+        assertEquals(100, liquidityOverlay.remainingBid(1, 2, 100));
+        assertEquals(0, liquidityOverlay.remainingBid(0, 0, 100)); // never negative
+    }
+
+    @Test
+    public void reset_discardsOffsets() {
+        LiquidityOverlay liquidityOverlay = new LiquidityOverlay(1, 1);
+
+        liquidityOverlay.consumeAsk(0, 0, 40);
+        liquidityOverlay.reset();
+        assertEquals(100, liquidityOverlay.remainingAsk(0, 0, 100));
+
+        liquidityOverlay.consumeAsk(0, 0, 10);
+        assertEquals(90, liquidityOverlay.remainingAsk(0, 0, 100));
+    }
+}
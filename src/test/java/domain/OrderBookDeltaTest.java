@@ -0,0 +1,101 @@
+package domain;
+
+import org.junit.Test;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
+
+public class OrderBookDeltaTest {
+
+    private static final int DEPTH = 10;
+
+    private static List<LimitOrder> levels(Order.OrderType type, Random random, int count) {
+        List<LimitOrder> orders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // Narrow price range so consecutive books share, move and drop levels
+            BigDecimal price = BigDecimal.valueOf(type == Order.OrderType.ASK ? 100 + random.nextInt(30) : 70 + random.nextInt(30));
+            BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(3));
+            orders.add(new LimitOrder(type, amount, BTC_USD, null, new Date(), price));
+        }
+        return orders;
+    }
+
+    private static CompactOrderBook randomBook(Random random) {
+        CompactOrderBook compactOrderBook = new CompactOrderBook(DEPTH);
+        compactOrderBook.fill(new OrderBook(new Date(),
+                levels(Order.OrderType.ASK, random, random.nextInt(2 * DEPTH)),
+                levels(Order.OrderType.BID, random, random.nextInt(2 * DEPTH))), 0);
+        return compactOrderBook;
+    }
+
+    private static void assertSameLevels(CompactOrderBook expected, CompactOrderBook actual) {
+        assertEquals(expected.getAskCount(), actual.getAskCount());
+        assertEquals(expected.getBidCount(), actual.getBidCount());
+        for (int i = 0; i < expected.getAskCount(); i++) {
+            assertEquals(expected.getAskPrice(i), actual.getAskPrice(i));
+            assertEquals(expected.getAskQuantity(i), actual.getAskQuantity(i));
+        }
+        for (int i = 0; i < expected.getBidCount(); i++) {
+            assertEquals(expected.getBidPrice(i), actual.getBidPrice(i));
+            assertEquals(expected.getBidQuantity(i), actual.getBidQuantity(i));
+        }
+    }
+
+    @Test
+    public void compute_appliedToPreviousYieldsCurrent() {
+        Random random = new Random(42);
+        OrderBookDelta delta = new OrderBookDelta(OrderBookDelta.capacityFor(DEPTH));
+        CompactOrderBook mirror = new CompactOrderBook(DEPTH);
+        CompactOrderBook previous = randomBook(random);
+        mirror.copyFrom(previous);
+
+        for (int i = 0; i < 1000; i++) {
+            CompactOrderBook current = randomBook(random);
+            assertTrue(delta.compute(previous, current));
+            mirror.apply(delta);
+            assertSameLevels(current, mirror);
+            previous = current;
+        }
+    }
+
+    @Test
+    public void compute_onlyEmitsChangedLevels() {
+        CompactOrderBook previous = new CompactOrderBook(DEPTH);
+        previous.fill(new OrderBook(new Date(),
+                List.of(new LimitOrder(Order.OrderType.ASK, BigDecimal.ONE, BTC_USD, null, null, new BigDecimal("101")),
+                        new LimitOrder(Order.OrderType.ASK, BigDecimal.ONE, BTC_USD, null, null, new BigDecimal("102"))),
+                List.of(new LimitOrder(Order.OrderType.BID, BigDecimal.ONE, BTC_USD, null, null, new BigDecimal("99")))), 0);
+        CompactOrderBook current = new CompactOrderBook(DEPTH);
+        current.fill(new OrderBook(new Date(),
+                List.of(new LimitOrder(Order.OrderType.ASK, BigDecimal.ONE, BTC_USD, null, null, new BigDecimal("101")),
+                        new LimitOrder(Order.OrderType.ASK, BigDecimal.ONE, BTC_USD, null, null, new BigDecimal("103"))),
+                List.of(new LimitOrder(Order.OrderType.BID, BigDecimal.TEN, BTC_USD, null, null, new BigDecimal("99")))), 0);
+
+        OrderBookDelta delta = new OrderBookDelta(OrderBookDelta.capacityFor(DEPTH));
+        assertTrue(delta.compute(previous, current));
+
+        assertEquals(3, delta.getCount());
+        assertFalse(delta.isBidSide(0));
+        assertEquals(102, delta.getPrice(0));
+        assertEquals(0, delta.getQuantity(0));
+        assertEquals(103, delta.getPrice(1));
+        assertTrue(delta.isBidSide(2));
+        assertEquals(1_000_000_000L, delta.getQuantity(2));
+    }
+
+    @Test
+    public void compute_reportsOverflow() {
+        Random random = new Random(7);
+        OrderBookDelta delta = new OrderBookDelta(1);
+        assertFalse(delta.compute(new CompactOrderBook(DEPTH), randomBook(random)));
+    }
+}
@@ -0,0 +1,45 @@
+package domain;
+
+import org.junit.Test;
+import org.knowm.xchange.currency.Currency;
+
+import java.util.List;
+import java.util.Map;
+
+import static domain.constants.Exchange.COINBASE_PRO;
+import static domain.constants.Exchange.GEMINI;
+import static org.junit.Assert.*;
+import static org.knowm.xchange.currency.CurrencyPair.*;
+
+public class SymbolRegistryTest {
+
+    @Test
+    public void assignsDenseIdsInSymbolOrder() {
+        SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(
+                COINBASE_PRO, List.of(BTC_USD, ETH_BTC),
+                GEMINI, List.of(ETH_USD, BTC_USD)));
+
+        assertEquals(3, symbolRegistry.getPairCount());
+        assertEquals(0, symbolRegistry.getPairId(BTC_USD));
+        assertEquals(1, symbolRegistry.getPairId(ETH_BTC));
+        assertEquals(2, symbolRegistry.getPairId(ETH_USD));
+        assertEquals(-1, symbolRegistry.getPairId(LTC_USD));
+        assertEquals(ETH_USD, symbolRegistry.getCurrencyPair(2));
+
+        assertEquals(3, symbolRegistry.getCurrencyCount());
+        assertEquals(Currency.ETH, symbolRegistry.getCurrency(symbolRegistry.getBaseCurrencyId(1)));
+        assertEquals(Currency.BTC, symbolRegistry.getCurrency(symbolRegistry.getCounterCurrencyId(1)));
+    }
+
+    @Test
+    public void tracksListingsPerExchange() {
+        SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(
+                COINBASE_PRO, List.of(BTC_USD, ETH_BTC),
+                GEMINI, List.of(ETH_USD)));
+
+        assertTrue(symbolRegistry.isListed(COINBASE_PRO, symbolRegistry.getPairId(ETH_BTC)));
+        assertFalse(symbolRegistry.isListed(GEMINI, symbolRegistry.getPairId(ETH_BTC)));
+        assertEquals(List.of(symbolRegistry.getCurrencyId(Currency.ETH), symbolRegistry.getCurrencyId(Currency.USD)),
+                symbolRegistry.getCurrencyIds(GEMINI));
+    }
+}
@@ -0,0 +1,52 @@
+package domain;
+
+import org.junit.Test;
+import org.knowm.xchange.dto.account.Fee;
+import org.knowm.xchange.dto.meta.CurrencyPairMetaData;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static domain.constants.Exchange.BITFINEX;
+import static domain.constants.Exchange.COINBASE_PRO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
+import static org.knowm.xchange.currency.CurrencyPair.ETH_USD;
+
+public class TradingParametersTest {
+
+    SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(
+            BITFINEX, List.of(BTC_USD, ETH_USD),
+            COINBASE_PRO, List.of(BTC_USD)));
+
+    @Test
+    public void build_readyOnlyWithFeesAndMetadata() {
+        int btcUsd = symbolRegistry.getPairId(BTC_USD);
+        int ethUsd = symbolRegistry.getPairId(ETH_USD);
+        TradingParameters.Builder builder = new TradingParameters.Builder(symbolRegistry)
+                .fee(BITFINEX, btcUsd, new Fee(new BigDecimal("0.001"), new BigDecimal("0.002")))
+                .metadata(BITFINEX, btcUsd, new CurrencyPairMetaData(null, new BigDecimal("0.000000015"), null, 2, null))
+                .fee(BITFINEX, ethUsd, new Fee(BigDecimal.ZERO, BigDecimal.ZERO))
+                .metadata(COINBASE_PRO, btcUsd, new CurrencyPairMetaData(null, BigDecimal.ONE, null, null, null));
+        TradingParameters tradingParameters = builder.build();
+
+        assertTrue(tradingParameters.isReady(BITFINEX, btcUsd));
+        assertFalse(tradingParameters.isReady(BITFINEX, ethUsd)); // No metadata
+        assertFalse(tradingParameters.isReady(COINBASE_PRO, btcUsd)); // No fees
+        assertEquals(0, new BigDecimal("0.002").compareTo(tradingParameters.getTakerFee(BITFINEX, btcUsd)));
+        assertEquals(0, new BigDecimal("0.001").compareTo(tradingParameters.getMakerFee(BITFINEX, btcUsd)));
+        assertEquals(1_002_000_000L, tradingParameters.getTakerBuyFactor(BITFINEX, btcUsd));
+        assertEquals(0, tradingParameters.getTakerBuyFactor(COINBASE_PRO, btcUsd)); // No fees
+        assertEquals(2, tradingParameters.getMinimumVolume(BITFINEX, btcUsd)); // Rounded up
+        assertEquals(2, tradingParameters.getPriceScale(BITFINEX, btcUsd));
+        assertEquals(-1, tradingParameters.getPriceScale(COINBASE_PRO, btcUsd));
+
+        // Later builder updates do not leak into a built snapshot
+        builder.fee(COINBASE_PRO, btcUsd, new Fee(BigDecimal.ZERO, BigDecimal.ZERO));
+        assertFalse(tradingParameters.isReady(COINBASE_PRO, btcUsd));
+        assertTrue(builder.build().isReady(COINBASE_PRO, btcUsd));
+    }
+}
@@ -16,8 +16,10 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 import services.MetadataAggregator;
+import domain.SymbolRegistry;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.any;
@@ -41,7 +43,8 @@ public class CoinbaseProExchangeRestAPITest {
     @Mock
     CoinbaseProMarketDataService marketDataService;
     @Spy
-    private MetadataAggregator metadataAggregator = new MetadataAggregator();
+    private MetadataAggregator metadataAggregator = new MetadataAggregator(new SymbolRegistry(Map.of(
+            domain.constants.Exchange.COINBASE_PRO, List.of(CurrencyPair.BTC_USD, CurrencyPair.ETH_USD))));
 
     @InjectMocks
     CoinbaseProExchangeRestAPI coinbaseProExchangeRestAPI = new CoinbaseProExchangeRestAPI();
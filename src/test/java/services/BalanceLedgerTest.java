@@ -0,0 +1,114 @@
+package services;
+
+import domain.SymbolRegistry;
+import org.junit.Test;
+import org.knowm.xchange.currency.Currency;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.account.AccountInfo;
+import org.knowm.xchange.dto.account.Balance;
+import org.knowm.xchange.dto.account.Wallet;
+import testUtils.MetadataAggregatorMocker;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static domain.constants.Exchange.GEMINI;
+import static domain.constants.Exchange.KRAKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.knowm.xchange.currency.Currency.BTC;
+import static org.knowm.xchange.currency.Currency.USD;
+import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
+
+public class BalanceLedgerTest {
+
+    SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(
+            KRAKEN, List.of(BTC_USD),
+            GEMINI, List.of(BTC_USD)));
+
+    @Test
+    public void reserve_neverHandsOutTheSameBalanceTwice() {
+        BalanceLedger balanceLedger = new BalanceLedger(symbolRegistry);
+        MetadataAggregatorMocker.setBalances(balanceLedger, GEMINI, new Balance(USD, new BigDecimal("100")), new Balance(BTC, new BigDecimal("0.5")));
+        int usd = symbolRegistry.getCurrencyId(USD);
+
+        assertEquals(10_000_000_000L, balanceLedger.getAvailable(GEMINI, USD));
+        assertTrue(balanceLedger.reserve(GEMINI, USD, 6_000_000_000L));
+        assertFalse(balanceLedger.reserve(GEMINI, USD, 6_000_000_000L));
+        assertEquals(4_000_000_000L, balanceLedger.getAvailable(GEMINI, usd));
+        assertEquals(6_000_000_000L, balanceLedger.getReserved(GEMINI, usd));
+
+        // A refresh not yet reflecting the in-flight order leaves its reservation out of available
+        MetadataAggregatorMocker.setBalances(balanceLedger, GEMINI, new Balance(USD, new BigDecimal("100")));
+        assertEquals(4_000_000_000L, balanceLedger.getAvailable(GEMINI, USD));
+        assertEquals(0, balanceLedger.getAvailable(GEMINI, BTC));
+
+        balanceLedger.release(GEMINI, USD, 1_000_000_000L);
+        balanceLedger.acknowledge(GEMINI, USD, 5_000_000_000L);
+        balanceLedger.settle(GEMINI, USD, 5_000_000_000L);
+        assertEquals(5_000_000_000L, balanceLedger.getAvailable(GEMINI, USD));
+        assertEquals(0, balanceLedger.getReserved(GEMINI, usd));
+    }
+
+    @Test
+    public void reservedOrder_settlesFillsAndCancelsRemainder() {
+        BalanceLedger balanceLedger = new BalanceLedger(symbolRegistry);
+        MetadataAggregatorMocker.setBalances(balanceLedger, GEMINI, new Balance(USD, new BigDecimal("100")));
+        int usd = symbolRegistry.getCurrencyId(USD);
+        assertTrue(balanceLedger.reserve(GEMINI, USD, 6_000_000_000L));
+        balanceLedger.acknowledge(GEMINI, USD, 6_000_000_000L);
+        ReservedOrder reservedOrder = new ReservedOrder(GEMINI, USD, 6_000_000_000L, new BigDecimal("0.002"));
+
+        // The venue now holds the resting order's funds, a refresh no longer counts them
+        MetadataAggregatorMocker.setBalances(balanceLedger, GEMINI, new Balance(USD, new BigDecimal("40")));
+        assertEquals(4_000_000_000L, balanceLedger.getAvailable(GEMINI, USD));
+        assertEquals(6_000_000_000L, balanceLedger.getReserved(GEMINI, usd));
+
+        assertFalse(reservedOrder.update(balanceLedger, Order.OrderStatus.PARTIALLY_FILLED, new BigDecimal("0.0005")));
+        assertEquals(4_500_000_000L, balanceLedger.getReserved(GEMINI, usd));
+        assertEquals(4_000_000_000L, balanceLedger.getAvailable(GEMINI, USD));
+
+        // Cancelled after filling half, the unfilled half is available again
+        assertTrue(reservedOrder.update(balanceLedger, Order.OrderStatus.CANCELED, new BigDecimal("0.001")));
+        assertEquals(0, balanceLedger.getReserved(GEMINI, usd));
+        assertEquals(7_000_000_000L, balanceLedger.getAvailable(GEMINI, USD));
+    }
+
+    @Test
+    public void reconcile_discardsRefreshRequestedBeforeAcknowledge() {
+        BalanceLedger balanceLedger = new BalanceLedger(symbolRegistry);
+        MetadataAggregatorMocker.setBalances(balanceLedger, GEMINI, new Balance(USD, new BigDecimal("100")));
+        long requestedAt = System.nanoTime();
+        assertTrue(balanceLedger.reserve(GEMINI, USD, 6_000_000_000L));
+        balanceLedger.acknowledge(GEMINI, USD, 6_000_000_000L);
+
+        // Fetched before the order reached the venue, applying it would restore the spent balance
+        balanceLedger.reconcile(GEMINI, new AccountInfo(Wallet.Builder.from(List.of(new Balance(USD, new BigDecimal("100")))).build()), requestedAt);
+        assertEquals(4_000_000_000L, balanceLedger.getAvailable(GEMINI, USD));
+
+        MetadataAggregatorMocker.setBalances(balanceLedger, GEMINI, new Balance(USD, new BigDecimal("40")));
+        assertEquals(4_000_000_000L, balanceLedger.getAvailable(GEMINI, USD));
+
+        // Unknown currencies are ignored
+        balanceLedger.release(GEMINI, Currency.EUR, 1);
+        balanceLedger.acknowledge(GEMINI, Currency.EUR, 1);
+        balanceLedger.settle(GEMINI, Currency.EUR, 1);
+        balanceLedger.cancel(GEMINI, Currency.EUR, 1);
+        assertEquals(4_000_000_000L, balanceLedger.getAvailable(GEMINI, USD));
+    }
+
+    @Test
+    public void reconcile_resolvesKrakenWallet() {
+        BalanceLedger balanceLedger = new BalanceLedger(symbolRegistry);
+        // Kraken keys its only wallet by a null id, next to an unrelated named wallet
+        AccountInfo accountInfo = new AccountInfo(
+                Wallet.Builder.from(List.of(new Balance(BTC, new BigDecimal("2")))).build(),
+                Wallet.Builder.from(List.of(new Balance(BTC, new BigDecimal("7")))).id("margin").build());
+
+        balanceLedger.reconcile(KRAKEN, accountInfo);
+
+        assertEquals(200_000_000L, balanceLedger.getAvailable(KRAKEN, BTC));
+    }
+}
@@ -0,0 +1,41 @@
+package services;
+
+import org.junit.Test;
+import services.arbitrage.InFlightLiquidity;
+
+import static domain.constants.Exchange.BITFINEX;
+import static domain.constants.Exchange.GEMINI;
+import static org.junit.Assert.assertEquals;
+
+public class InFlightLiquidityTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void claim_grantsEachLevelOnceUntilClaimsExpire() {
+        InFlightLiquidity inFlightLiquidity = new InFlightLiquidity(1, 1000);
+        long now = 0;
+
+        assertEquals(60, inFlightLiquidity.claim(BITFINEX, 0, false, 10000, 60, 100, now));
+        assertEquals(40, inFlightLiquidity.claim(BITFINEX, 0, false, 10000, 60, 100, now));
+        assertEquals(0, inFlightLiquidity.claim(BITFINEX, 0, false, 10000, 60, 100, now));
+        // Other side, other price and other venue are separate levels
+        assertEquals(60, inFlightLiquidity.claim(BITFINEX, 0, true, 10000, 60, 100, now));
+        assertEquals(60, inFlightLiquidity.claim(BITFINEX, 0, false, 10001, 60, 100, now));
+        assertEquals(60, inFlightLiquidity.claim(GEMINI, 0, false, 10000, 60, 100, now));
+
+        inFlightLiquidity.unclaim(BITFINEX, 0, false, 10000, 30, now);
+        assertEquals(70, inFlightLiquidity.getClaimed(BITFINEX, 0, false, 10000, now));
+
+        // Claims outlive the venue's next books, a task reading a newer book still sees them
+        now += 500 * MILLIS;
+        assertEquals(30, inFlightLiquidity.claim(BITFINEX, 0, false, 10000, 60, 100, now));
+
+        // Each claim expires on its own
+        now += 600 * MILLIS;
+        assertEquals(30, inFlightLiquidity.getClaimed(BITFINEX, 0, false, 10000, now));
+        now += 500 * MILLIS;
+        assertEquals(0, inFlightLiquidity.getClaimed(BITFINEX, 0, false, 10000, now));
+        assertEquals(60, inFlightLiquidity.claim(BITFINEX, 0, false, 10000, 60, 100, now));
+    }
+}
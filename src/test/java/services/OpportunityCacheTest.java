@@ -0,0 +1,42 @@
+package services;
+
+import org.junit.Test;
+import services.arbitrage.OpportunityCache;
+
+import static domain.constants.Exchange.BITFINEX;
+import static domain.constants.Exchange.COINBASE_PRO;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OpportunityCacheTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void isDuplicate_suppressedUntilLevelsChangeOrTtlExpires() {
+        OpportunityCache opportunityCache = new OpportunityCache(2, 100);
+
+        assertFalse(opportunityCache.isDuplicate(0, BITFINEX, COINBASE_PRO, 10000, 10100, 2, 5 * MILLIS));
+        assertTrue(opportunityCache.isDuplicate(0, BITFINEX, COINBASE_PRO, 10000, 10100, 2, 50 * MILLIS));
+        // Other direction, other pair and changed levels are distinct opportunities
+        assertFalse(opportunityCache.isDuplicate(0, COINBASE_PRO, BITFINEX, 10000, 10100, 2, 50 * MILLIS));
+        assertFalse(opportunityCache.isDuplicate(1, BITFINEX, COINBASE_PRO, 10000, 10100, 2, 50 * MILLIS));
+        assertFalse(opportunityCache.isDuplicate(0, BITFINEX, COINBASE_PRO, 10000, 10101, 2, 60 * MILLIS));
+        assertTrue(opportunityCache.isDuplicate(0, BITFINEX, COINBASE_PRO, 10000, 10101, 2, 159 * MILLIS));
+        // Expired
+        assertFalse(opportunityCache.isDuplicate(0, BITFINEX, COINBASE_PRO, 10000, 10101, 2, 160 * MILLIS));
+
+        assertEquals(2, opportunityCache.getHitCount());
+        assertEquals(5, opportunityCache.getMissCount());
+    }
+
+    @Test
+    public void isDuplicate_disabledWithoutTtl() {
+        OpportunityCache opportunityCache = new OpportunityCache(1, 0);
+
+        assertFalse(opportunityCache.isDuplicate(0, BITFINEX, COINBASE_PRO, 10000, 10100, 2, MILLIS));
+        assertFalse(opportunityCache.isDuplicate(0, BITFINEX, COINBASE_PRO, 10000, 10100, 2, MILLIS));
+        assertEquals(0, opportunityCache.getHitCount());
+    }
+}
@@ -0,0 +1,69 @@
+package services;
+
+import buffer.TradeBuffer;
+import config.Configuration;
+import domain.Trade;
+import domain.constants.Exchange;
+import domain.control.ControlCommand;
+import org.junit.Test;
+import org.knowm.xchange.dto.Order;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static domain.constants.Exchange.GEMINI;
+import static domain.constants.Exchange.KRAKEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
+import static org.knowm.xchange.dto.Order.OrderType.ASK;
+import static org.knowm.xchange.dto.Order.OrderType.BID;
+
+public class PreTradeRiskTest {
+
+    @Test
+    public void tradeBuffer_publisherOnlySeesApprovedIntents() throws Exception {
+        PreTradeRisk preTradeRisk = new PreTradeRisk(1_000);
+        List<Trade> submitted = new ArrayList<>();
+        CountDownLatch latch = new CountDownLatch(5);
+
+        TradeBuffer tradeBuffer = new TradeBuffer(Configuration.DisruptorConfig.defaults());
+        tradeBuffer.handleEventsWith(preTradeRisk).then((event, sequence, endOfBatch) -> {
+            if (event.isApproved()) submitted.add(event.getTrade1());
+            latch.countDown();
+        });
+        tradeBuffer.start();
+
+        Trade fresh = trade(BID, KRAKEN, Instant.now());
+        Trade stale = trade(BID, KRAKEN, Instant.now().minusSeconds(5));
+        tradeBuffer.insert(fresh, trade(ASK, GEMINI, Instant.now()));
+        tradeBuffer.insert(stale, trade(ASK, GEMINI, Instant.now()));
+        Trade empty = trade(ASK, GEMINI, Instant.now());
+        empty.setAmount(BigDecimal.ZERO);
+        tradeBuffer.insert(trade(BID, KRAKEN, Instant.now()), empty);
+        tradeBuffer.insert(ControlCommand.SHUTDOWN);
+        tradeBuffer.insert(trade(BID, KRAKEN, Instant.now()), trade(ASK, GEMINI, Instant.now()));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        tradeBuffer.shutdown();
+
+        assertEquals(List.of(fresh), submitted);
+        assertTrue(preTradeRisk.isHalted());
+        assertEquals(3, preTradeRisk.getRejectedCount());
+    }
+
+    private static Trade trade(Order.OrderType side, Exchange exchange, Instant discovered) {
+        return Trade.builder()
+                .exchange(exchange)
+                .currencyPair(BTC_USD)
+                .orderActionType(side)
+                .price(new BigDecimal("30000"))
+                .amount(new BigDecimal("0.1"))
+                .timeDiscovered(discovered)
+                .build();
+    }
+}
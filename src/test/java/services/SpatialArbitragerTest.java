@@ -1,15 +1,16 @@
 package services;
 
 import buffer.TradeBuffer;
+import buffer.events.OrderBookEvent;
 import config.Configuration;
-import org.junit.Before;
+import domain.CompactOrderBook;
+import domain.SymbolRegistry;
+import domain.Trade;
+import domain.TradingParameters;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.knowm.xchange.dto.account.Fee;
-import org.knowm.xchange.dto.marketdata.OrderBook;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 import services.arbitrage.SpatialArbitrager;
@@ -17,14 +18,18 @@ import testUtils.MetadataAggregatorMocker;
 import testUtils.OrderBookProvider;
 
 import java.math.BigDecimal;
-import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import static domain.constants.Exchange.BITFINEX;
 import static domain.constants.Exchange.COINBASE_PRO;
+import static org.junit.Assert.assertEquals;
 import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @RunWith(MockitoJUnitRunner.class)
 public class SpatialArbitragerTest {
@@ -34,38 +39,66 @@ public class SpatialArbitragerTest {
             .spatialArbitragerConfig(Configuration.SpatialArbitragerConfig.builder()
                     .minGain(new BigDecimal(.001))
                     .build())
+            .bitfinexConfig(Configuration.BitfinexConfig.builder()
+                    .exchange(BITFINEX)
+                    .maxBookAgeMillis(60_000)
+                    .build())
             .build();
     @Mock
     MetadataAggregator mockMetadataAggregator;
     @Mock
     TradeBuffer tradeBuffer;
+    @Spy
+    SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(
+            BITFINEX, List.of(BTC_USD),
+            COINBASE_PRO, List.of(BTC_USD)));
     @InjectMocks
     SpatialArbitrager spatialArbitrager;
 
-    @Before
-    public void setup() {
-        MockitoAnnotations.openMocks(this);
+    private void setZeroFeeTradingParameters(int pairId) {
+        TradingParameters.Builder builder = new TradingParameters.Builder(symbolRegistry);
+        MetadataAggregatorMocker.addTradingParameters(builder, BITFINEX, pairId, BigDecimal.ZERO, BigDecimal.ZERO);
+        MetadataAggregatorMocker.addTradingParameters(builder, COINBASE_PRO, pairId, BigDecimal.ZERO, BigDecimal.ZERO);
+        MetadataAggregatorMocker.setMockTradingParameters(mockMetadataAggregator, builder.build());
     }
 
     @Test
-    public void onEvent() {
+    public void onEvent_defersScanToEndOfBatch() {
+        CompactOrderBook orderBook1 = OrderBookProvider.getCompactOrderBookFromCSV(10, 10, "orderBookData/custom/CUSTOM-1-bids.csv", "orderBookData/custom/CUSTOM-1-asks.csv");
+        CompactOrderBook orderBook2 = OrderBookProvider.getCompactOrderBookFromCSV(10, 10, "orderBookData/custom/CUSTOM-2-bids.csv", "orderBookData/custom/CUSTOM-2-asks.csv");
+
+        int pairId = symbolRegistry.getPairId(BTC_USD);
+        setZeroFeeTradingParameters(pairId);
+        OrderBookEvent event = new OrderBookEvent(10);
+
+        event.setSnapshot(orderBook1, BITFINEX, pairId, System.nanoTime());
+        spatialArbitrager.onEvent(event, 0, false);
+        event.setSnapshot(orderBook2, COINBASE_PRO, pairId, System.nanoTime());
+        spatialArbitrager.onEvent(event, 1, false);
+        verify(mockMetadataAggregator, never()).getTradingParameters();
+        verify(tradeBuffer, never()).insert(any(Trade.class), any(Trade.class));
+
+        // Superseded within the batch, the pair is still scanned once
+        spatialArbitrager.onEvent(event, 2, true);
+
+        //Fetched once by the screen and once by the level scan
+        verify(mockMetadataAggregator, times(2)).getTradingParameters();
+        verify(tradeBuffer, atLeastOnce()).insert(any(Trade.class), any(Trade.class));
     }
 
     @Test
     public void upsertOrderBook_testForDuplicates_updatedWithLatest() {
-        Date date1 = new Date();
-        Date date2 = new Date();
-        Date date3 = new Date();
-        OrderBook orderBook1 = OrderBookProvider.getOrderBookFromCSV(BTC_USD, date1, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
-        OrderBook orderBook2 = OrderBookProvider.getOrderBookFromCSV(BTC_USD, date2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
-        OrderBook orderBook3 = OrderBookProvider.getOrderBookFromCSV(BTC_USD, date3, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
-
-        spatialArbitrager.upsertOrderBook(BITFINEX, BTC_USD, orderBook1);
-        spatialArbitrager.upsertOrderBook(BITFINEX, BTC_USD, orderBook2);
-        spatialArbitrager.upsertOrderBook(BITFINEX, BTC_USD, orderBook3);
-
-        //Assert.assertEquals(1, spatialArbitrager.getOrderBooks(BTC_USD).size()); //TreeSet should contain only 1 entry for BITFINEX
-        //Assert.assertEquals(date3, spatialArbitrager.getOrderBooks(BTC_USD).pollFirst().getValue().getTimeStamp());
+        CompactOrderBook orderBook1 = OrderBookProvider.getCompactOrderBookFromCSV(10, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        CompactOrderBook orderBook2 = OrderBookProvider.getCompactOrderBookFromCSV(10, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        CompactOrderBook orderBook3 = OrderBookProvider.getCompactOrderBookFromCSV(10, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+
+        int pairId = symbolRegistry.getPairId(BTC_USD);
+        spatialArbitrager.upsertOrderBook(BITFINEX, pairId, orderBook1);
+        spatialArbitrager.upsertOrderBook(BITFINEX, pairId, orderBook2);
+        spatialArbitrager.upsertOrderBook(BITFINEX, pairId, orderBook3);
+
+        assertEquals(1, spatialArbitrager.getTopOfBookIndex(pairId).size()); //Index should contain only 1 entry for BITFINEX
+        assertEquals(BITFINEX, spatialArbitrager.getTopOfBookIndex(pairId).getAskExchange(0));
     }
 
     /**
@@ -73,20 +106,79 @@ public class SpatialArbitragerTest {
      */
     @Test
     public void computeTrades_1() {
-        Date date = new Date();
-        OrderBook orderBook1 = OrderBookProvider.getOrderBookFromCSV(BTC_USD, date, "orderBookData/custom/CUSTOM-1-bids.csv", "orderBookData/custom/CUSTOM-1-asks.csv");
-        OrderBook orderBook2 = OrderBookProvider.getOrderBookFromCSV(BTC_USD, date, "orderBookData/custom/CUSTOM-2-bids.csv", "orderBookData/custom/CUSTOM-2-asks.csv");
+        CompactOrderBook orderBook1 = OrderBookProvider.getCompactOrderBookFromCSV(10, 10, "orderBookData/custom/CUSTOM-1-bids.csv", "orderBookData/custom/CUSTOM-1-asks.csv");
+        CompactOrderBook orderBook2 = OrderBookProvider.getCompactOrderBookFromCSV(10, 10, "orderBookData/custom/CUSTOM-2-bids.csv", "orderBookData/custom/CUSTOM-2-asks.csv");
+
+        int pairId = symbolRegistry.getPairId(BTC_USD);
+        setZeroFeeTradingParameters(pairId);
+
+        spatialArbitrager.upsertOrderBook(BITFINEX, pairId, orderBook1);
+        spatialArbitrager.upsertOrderBook(COINBASE_PRO, pairId, orderBook2); //processOrderbooks() should occur on this call
 
-        MetadataAggregatorMocker.setMockPriceScale(mockMetadataAggregator, BITFINEX, BTC_USD, 10);
-        MetadataAggregatorMocker.setMockPriceScale(mockMetadataAggregator, COINBASE_PRO, BTC_USD, 10);
+        verify(tradeBuffer, atLeastOnce()).insert(any(Trade.class), any(Trade.class));
 
-        MetadataAggregatorMocker.setMockFee(mockMetadataAggregator, BITFINEX, BTC_USD, new BigDecimal(0), new BigDecimal(0));
-        MetadataAggregatorMocker.setMockFee(mockMetadataAggregator, COINBASE_PRO, BTC_USD, new BigDecimal(0), new BigDecimal(0));
+        //Detected trades must not consume liquidity from the held books
+        CompactOrderBook heldAsks = spatialArbitrager.getTopOfBookIndex(pairId).getOrderBook(BITFINEX);
+        CompactOrderBook heldBids = spatialArbitrager.getTopOfBookIndex(pairId).getOrderBook(COINBASE_PRO);
+        for (int i = 0; i < heldAsks.getAskCount(); i++) {
+            assertEquals(orderBook1.getAskQuantity(i), heldAsks.getAskQuantity(i));
+        }
+        for (int i = 0; i < heldBids.getBidCount(); i++) {
+            assertEquals(orderBook2.getBidQuantity(i), heldBids.getBidQuantity(i));
+        }
+    }
+
+    @Test
+    public void upsertOrderBook_withoutCrossing_skipsLevelScan() {
+        CompactOrderBook orderBook1 = OrderBookProvider.getCompactOrderBookFromCSV(10, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        CompactOrderBook orderBook2 = OrderBookProvider.getCompactOrderBookFromCSV(10, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+
+        int pairId = symbolRegistry.getPairId(BTC_USD);
+        setZeroFeeTradingParameters(pairId);
+
+        spatialArbitrager.upsertOrderBook(BITFINEX, pairId, orderBook1);
+        spatialArbitrager.upsertOrderBook(COINBASE_PRO, pairId, orderBook2);
+
+        //Fetched once by the screen, a level scan would fetch the parameters again
+        verify(mockMetadataAggregator, times(1)).getTradingParameters();
+        verify(tradeBuffer, never()).insert(any(Trade.class), any(Trade.class));
+    }
+
+    @Test
+    public void upsertOrderBook_staleBookEvicted() {
+        CompactOrderBook orderBook1 = OrderBookProvider.getCompactOrderBookFromCSV(10, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        CompactOrderBook orderBook2 = OrderBookProvider.getCompactOrderBookFromCSV(10, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+
+        int pairId = symbolRegistry.getPairId(BTC_USD);
+        setZeroFeeTradingParameters(pairId);
+        spatialArbitrager.upsertOrderBook(BITFINEX, pairId, orderBook1, System.nanoTime() - 120_000_000_000L);
+        spatialArbitrager.upsertOrderBook(COINBASE_PRO, pairId, orderBook2);
+
+        //BITFINEX's book is past its max age, COINBASE_PRO's books never go stale
+        assertEquals(1, spatialArbitrager.getTopOfBookIndex(pairId).size());
+        assertEquals(COINBASE_PRO, spatialArbitrager.getTopOfBookIndex(pairId).getAskExchange(0));
+        verify(tradeBuffer, never()).insert(any(Trade.class), any(Trade.class));
+
+        //A fresh update reorders it
+        spatialArbitrager.upsertOrderBook(BITFINEX, pairId, orderBook1);
+        assertEquals(2, spatialArbitrager.getTopOfBookIndex(pairId).size());
+    }
+
+    @Test
+    public void onEvent_heartbeatRestoresQuietVenue() {
+        CompactOrderBook orderBook1 = OrderBookProvider.getCompactOrderBookFromCSV(10, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
+        CompactOrderBook orderBook2 = OrderBookProvider.getCompactOrderBookFromCSV(10, 2, "orderBookData/BTC-0-bids.csv", "orderBookData/BTC-0-asks.csv");
 
-        MetadataAggregatorMocker.setOrderMinimumVolume(mockMetadataAggregator, BITFINEX, BTC_USD, BigDecimal.ZERO);
-        MetadataAggregatorMocker.setOrderMinimumVolume(mockMetadataAggregator, COINBASE_PRO, BTC_USD, BigDecimal.ZERO);
+        int pairId = symbolRegistry.getPairId(BTC_USD);
+        setZeroFeeTradingParameters(pairId);
+        spatialArbitrager.upsertOrderBook(BITFINEX, pairId, orderBook1, System.nanoTime() - 120_000_000_000L);
+        spatialArbitrager.upsertOrderBook(COINBASE_PRO, pairId, orderBook2);
+        assertEquals(1, spatialArbitrager.getTopOfBookIndex(pairId).size());
 
-        spatialArbitrager.upsertOrderBook(BITFINEX, BTC_USD, orderBook1);
-        spatialArbitrager.upsertOrderBook(COINBASE_PRO, BTC_USD, orderBook2); //processOrderbooks() should occur on this call
+        //BITFINEX is live, its levels just have not changed
+        OrderBookEvent event = new OrderBookEvent(10);
+        event.setHeartbeat(BITFINEX, pairId, System.nanoTime());
+        spatialArbitrager.onEvent(event, 0, true);
+        assertEquals(2, spatialArbitrager.getTopOfBookIndex(pairId).size());
     }
-}
\ No newline at end of file
+}
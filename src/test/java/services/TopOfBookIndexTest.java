@@ -0,0 +1,90 @@
+package services;
+
+import domain.CompactOrderBook;
+import org.junit.Test;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+import services.arbitrage.TopOfBookIndex;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+
+import static domain.constants.Exchange.*;
+import static org.junit.Assert.*;
+import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
+
+public class TopOfBookIndexTest {
+
+    private static CompactOrderBook book(int priceScale, String bestBid, String bestAsk) {
+        CompactOrderBook compactOrderBook = new CompactOrderBook(10);
+        compactOrderBook.fill(new OrderBook(new Date(),
+                bestAsk == null ? Collections.emptyList() : Collections.singletonList(
+                        new LimitOrder(Order.OrderType.ASK, BigDecimal.ONE, BTC_USD, null, null, new BigDecimal(bestAsk))),
+                Collections.singletonList(
+                        new LimitOrder(Order.OrderType.BID, BigDecimal.ONE, BTC_USD, null, null, new BigDecimal(bestBid)))),
+                priceScale);
+        return compactOrderBook;
+    }
+
+    @Test
+    public void update_ordersAsksAscendingAndBidsDescending() {
+        TopOfBookIndex index = new TopOfBookIndex();
+        index.update(KRAKEN, book(2, "99.00", "101.00"));
+        index.update(BITFINEX, book(5, "99.50", "100.50"));
+        index.update(GEMINI, book(2, "98.00", "102.00"));
+
+        assertEquals(3, index.size());
+        assertEquals(BITFINEX, index.getAskExchange(0));
+        assertEquals(KRAKEN, index.getAskExchange(1));
+        assertEquals(GEMINI, index.getAskExchange(2));
+        assertEquals(BITFINEX, index.getBidExchange(0));
+        assertEquals(KRAKEN, index.getBidExchange(1));
+        assertEquals(GEMINI, index.getBidExchange(2));
+    }
+
+    @Test
+    public void update_repositionsWithoutDuplicates() {
+        TopOfBookIndex index = new TopOfBookIndex();
+        index.update(KRAKEN, book(2, "99.00", "101.00"));
+        index.update(BITFINEX, book(2, "99.50", "100.50"));
+        index.update(GEMINI, book(2, "98.00", "102.00"));
+
+        index.update(GEMINI, book(2, "100.00", "100.00"));
+        index.update(KRAKEN, book(2, "99.00", "101.00"));
+        index.update(KRAKEN, book(2, "97.00", "103.00"));
+
+        assertEquals(3, index.size());
+        assertEquals(GEMINI, index.getAskExchange(0));
+        assertEquals(BITFINEX, index.getAskExchange(1));
+        assertEquals(KRAKEN, index.getAskExchange(2));
+        assertEquals(GEMINI, index.getBidExchange(0));
+        assertEquals(KRAKEN, index.getBidExchange(2));
+    }
+
+    @Test
+    public void update_keepsEqualPricesFromDifferentExchanges() {
+        TopOfBookIndex index = new TopOfBookIndex();
+        index.update(GEMINI, book(2, "99.00", "101.00"));
+        index.update(COINBASE_PRO, book(8, "99.00", "101.00"));
+
+        assertEquals(2, index.size());
+        assertEquals(COINBASE_PRO, index.getAskExchange(0));
+        assertEquals(GEMINI, index.getAskExchange(1));
+    }
+
+    @Test
+    public void update_emptySideRemovesExchange() {
+        TopOfBookIndex index = new TopOfBookIndex();
+        index.update(KRAKEN, book(2, "99.00", "101.00"));
+        index.update(BITFINEX, book(2, "99.50", "100.50"));
+
+        index.update(BITFINEX, book(2, "99.50", null));
+
+        assertEquals(1, index.size());
+        assertEquals(KRAKEN, index.getAskExchange(0));
+        assertEquals(KRAKEN, index.getBidExchange(0));
+        assertNotNull(index.getOrderBook(BITFINEX));
+    }
+}
@@ -1,7 +1,9 @@
 package services;
 
-import buffer.events.TradeEvent;
+import buffer.events.EngineEvent;
+import domain.SymbolRegistry;
 import domain.Trade;
+import domain.TradingParameters;
 import domain.constants.Exchange;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,6 +11,7 @@ import org.knowm.xchange.currency.Currency;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.knowm.xchange.dto.account.Balance;
 import org.knowm.xchange.dto.account.Fee;
+import org.knowm.xchange.dto.meta.CurrencyPairMetaData;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import rest.GeminiExchangeRestAPI;
@@ -17,6 +20,8 @@ import services.journal.TradeJournaler;
 import testUtils.MetadataAggregatorMocker;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
 
 import static domain.constants.Exchange.GEMINI;
 import static domain.constants.Exchange.KRAKEN;
@@ -26,6 +31,9 @@ import static org.knowm.xchange.currency.Currency.USD;
 import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
 import static org.knowm.xchange.dto.Order.OrderType.ASK;
 import static org.knowm.xchange.dto.Order.OrderType.BID;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TradePublisherTest {
@@ -54,38 +62,131 @@ public class TradePublisherTest {
 
     @Test
     public void test_1() {
-        MetadataAggregatorMocker.setMockBalance(metadataAggregator, KRAKEN, USD, new BigDecimal(29000));
-        MetadataAggregatorMocker.setMockBalance(metadataAggregator, GEMINI, BTC, new BigDecimal(1));
-
-        MetadataAggregatorMocker.setMockPriceScale(metadataAggregator, KRAKEN, BTC_USD, 1);
-        MetadataAggregatorMocker.setMockPriceScale(metadataAggregator, GEMINI, BTC_USD, 1);
-
-        MetadataAggregatorMocker.setOrderMinimumVolume(metadataAggregator, KRAKEN, BTC_USD, new BigDecimal(0.001));
-        MetadataAggregatorMocker.setOrderMinimumVolume(metadataAggregator, GEMINI, BTC_USD, new BigDecimal(0.00000001));
+        SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(KRAKEN, List.of(BTC_USD), GEMINI, List.of(BTC_USD)));
+        BalanceLedger balanceLedger = MetadataAggregatorMocker.setMockBalanceLedger(metadataAggregator, symbolRegistry);
+        MetadataAggregatorMocker.setBalances(balanceLedger, KRAKEN, new Balance(USD, new BigDecimal(29000)));
+        MetadataAggregatorMocker.setBalances(balanceLedger, GEMINI, new Balance(BTC, new BigDecimal(1)));
+
+        int pairId = symbolRegistry.getPairId(BTC_USD);
+        BigDecimal takerFee = new BigDecimal("0.05");
+        TradingParameters tradingParameters = new TradingParameters.Builder(symbolRegistry)
+                .fee(KRAKEN, pairId, new Fee(takerFee, takerFee))
+                .metadata(KRAKEN, pairId, new CurrencyPairMetaData(takerFee, new BigDecimal("0.001"), null, 1, null))
+                .fee(GEMINI, pairId, new Fee(takerFee, takerFee))
+                .metadata(GEMINI, pairId, new CurrencyPairMetaData(takerFee, new BigDecimal("0.00000001"), null, 1, null))
+                .build();
+        MetadataAggregatorMocker.setMockTradingParameters(metadataAggregator, tradingParameters);
 
         Trade trade1 = Trade.builder()
                 .exchange(KRAKEN)
                 .orderActionType(BID)
                 .currencyPair(BTC_USD)
+                .pairId(pairId)
                 .price(new BigDecimal(30000))
                 .amount(new BigDecimal(1))
-                .fee(new BigDecimal(0.05))
+                .feePercentage(takerFee)
                 .build();
 
         Trade trade2 = Trade.builder()
                 .exchange(GEMINI)
                 .orderActionType(ASK)
                 .currencyPair(BTC_USD)
+                .pairId(pairId)
                 .price(new BigDecimal(31000))
                 .amount(new BigDecimal(1))
-                .fee(new BigDecimal(0.05))
+                .feePercentage(takerFee)
+                .build();
+
+        EngineEvent engineEvent = new EngineEvent();
+        engineEvent.setType(EngineEvent.Type.TRADE_INTENT);
+        engineEvent.setTrade1(trade1);
+        engineEvent.setTrade2(trade2);
+        engineEvent.setApproved(true);
+
+        tradePublisher.onEvent(engineEvent, 0, true);
+
+        //29000 USD less fees buys at most 0.9 BTC at 30000 (price scale 1)
+        assertEquals(90_000_000L, tradePublisher.calculateMaxActionableVolume(trade1, trade2, tradingParameters));
+    }
+
+    @Test
+    public void calculateMaxActionableVolume_coversReservationAtSameTakerFactor() {
+        SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(KRAKEN, List.of(BTC_USD), GEMINI, List.of(BTC_USD)));
+        BalanceLedger balanceLedger = MetadataAggregatorMocker.setMockBalanceLedger(metadataAggregator, symbolRegistry);
+        // Exactly the cost of 0.12345678 BTC at 30000.01 plus a 0.26% taker fee, rounded up
+        MetadataAggregatorMocker.setBalances(balanceLedger, KRAKEN, new Balance(USD, new BigDecimal("3713.33426662")));
+        MetadataAggregatorMocker.setBalances(balanceLedger, GEMINI, new Balance(BTC, BigDecimal.ONE));
+        int pairId = symbolRegistry.getPairId(BTC_USD);
+        BigDecimal takerFee = new BigDecimal("0.0026");
+        TradingParameters tradingParameters = new TradingParameters.Builder(symbolRegistry)
+                .fee(KRAKEN, pairId, new Fee(takerFee, takerFee))
+                .metadata(KRAKEN, pairId, new CurrencyPairMetaData(takerFee, new BigDecimal("0.0001"), null, 8, null))
+                .fee(GEMINI, pairId, new Fee(takerFee, takerFee))
+                .metadata(GEMINI, pairId, new CurrencyPairMetaData(takerFee, new BigDecimal("0.0001"), null, null, null))
                 .build();
 
-        TradeEvent tradeEvent = new TradeEvent();
-        tradeEvent.setTrade1(trade1);
-        tradeEvent.setTrade2(trade2);
+        Trade buy = Trade.builder().exchange(KRAKEN).orderActionType(BID).currencyPair(BTC_USD).pairId(pairId)
+                .price(new BigDecimal("30000.01")).amount(BigDecimal.ONE).build();
+        Trade sell = Trade.builder().exchange(GEMINI).orderActionType(ASK).currencyPair(BTC_USD).pairId(pairId)
+                .price(new BigDecimal("30100.00")).amount(BigDecimal.ONE).build();
+
+        // One satoshi more would cost 0.00030078 USD more than is available
+        assertEquals(12_345_678L, tradePublisher.calculateMaxActionableVolume(buy, sell, tradingParameters));
+    }
+
+    @Test
+    public void calculateMaxActionableVolume_belowMinimumVolume() {
+        SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(KRAKEN, List.of(BTC_USD), GEMINI, List.of(BTC_USD)));
+        BalanceLedger balanceLedger = MetadataAggregatorMocker.setMockBalanceLedger(metadataAggregator, symbolRegistry);
+        MetadataAggregatorMocker.setBalances(balanceLedger, KRAKEN, new Balance(USD, new BigDecimal(10)));
+        MetadataAggregatorMocker.setBalances(balanceLedger, GEMINI, new Balance(BTC, BigDecimal.ONE));
+        int pairId = symbolRegistry.getPairId(BTC_USD);
+        TradingParameters tradingParameters = MetadataAggregatorMocker.addTradingParameters(
+                MetadataAggregatorMocker.addTradingParameters(new TradingParameters.Builder(symbolRegistry),
+                        KRAKEN, pairId, BigDecimal.ZERO, new BigDecimal("0.001")),
+                GEMINI, pairId, BigDecimal.ZERO, new BigDecimal("0.001")).build();
+
+        Trade buy = Trade.builder().exchange(KRAKEN).orderActionType(BID).currencyPair(BTC_USD).pairId(pairId)
+                .price(new BigDecimal(30000)).amount(BigDecimal.ONE).build();
+        Trade sell = Trade.builder().exchange(GEMINI).orderActionType(ASK).currencyPair(BTC_USD).pairId(pairId)
+                .price(new BigDecimal(30100)).amount(BigDecimal.ONE).build();
+
+        // 10 USD buys 0.00033333 BTC
+        assertEquals(0, tradePublisher.calculateMaxActionableVolume(buy, sell, tradingParameters));
+    }
 
-        tradePublisher.onEvent(tradeEvent, 0, true);
+    @Test
+    public void onEvent_dropsTriangularCycleWithUncoveredLeg() throws Exception {
+        SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(KRAKEN, List.of(BTC_USD, CurrencyPair.ETH_BTC, CurrencyPair.ETH_USD)));
+        BalanceLedger balanceLedger = MetadataAggregatorMocker.setMockBalanceLedger(metadataAggregator, symbolRegistry);
+        MetadataAggregatorMocker.setBalances(balanceLedger, KRAKEN, new Balance(USD, new BigDecimal(1000)), new Balance(BTC, new BigDecimal(1)));
+        when(krakenExchangeRestAPI.isEnabled()).thenReturn(true);
+        tradePublisher = new TradePublisher(metadataAggregator, tradeJournaler, krakenExchangeRestAPI);
+        TradingParameters.Builder builder = new TradingParameters.Builder(symbolRegistry);
+        for (CurrencyPair currencyPair : List.of(BTC_USD, CurrencyPair.ETH_BTC, CurrencyPair.ETH_USD)) {
+            MetadataAggregatorMocker.addTradingParameters(builder, KRAKEN, symbolRegistry.getPairId(currencyPair), BigDecimal.ZERO, BigDecimal.ZERO);
+        }
+        MetadataAggregatorMocker.setMockTradingParameters(metadataAggregator, builder.build());
+
+        EngineEvent engineEvent = new EngineEvent();
+        engineEvent.setType(EngineEvent.Type.TRADE_INTENT);
+        engineEvent.setTrade1(Trade.builder().exchange(KRAKEN).orderActionType(BID).currencyPair(BTC_USD)
+                .pairId(symbolRegistry.getPairId(BTC_USD))
+                .price(new BigDecimal(30000)).amount(new BigDecimal("0.01")).build());
+        engineEvent.setTrade2(Trade.builder().exchange(KRAKEN).orderActionType(BID).currencyPair(CurrencyPair.ETH_BTC)
+                .pairId(symbolRegistry.getPairId(CurrencyPair.ETH_BTC))
+                .price(new BigDecimal("0.05")).amount(new BigDecimal("0.2")).build());
+        // No ETH to sell
+        engineEvent.setTrade3(Trade.builder().exchange(KRAKEN).orderActionType(ASK).currencyPair(CurrencyPair.ETH_USD)
+                .pairId(symbolRegistry.getPairId(CurrencyPair.ETH_USD))
+                .price(new BigDecimal(1600)).amount(new BigDecimal("0.2")).build());
+        engineEvent.setApproved(true);
+
+        tradePublisher.onEvent(engineEvent, 0, true);
+
+        verify(krakenExchangeRestAPI, never()).submitTrade(any());
+        assertEquals(100_000_000_000L, balanceLedger.getAvailable(KRAKEN, USD));
+        assertEquals(100_000_000L, balanceLedger.getAvailable(KRAKEN, BTC));
     }
 
     @Test
@@ -0,0 +1,122 @@
+package services;
+
+import buffer.TradeBuffer;
+import config.Configuration;
+import domain.CompactOrderBook;
+import domain.SymbolRegistry;
+import domain.Trade;
+import domain.TradingParameters;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.Order;
+import org.knowm.xchange.dto.marketdata.OrderBook;
+import org.knowm.xchange.dto.trade.LimitOrder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import services.arbitrage.TriangularArbitrager;
+import services.arbitrage.TriangularCycleIndex;
+import testUtils.MetadataAggregatorMocker;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static domain.constants.Exchange.BITFINEX;
+import static domain.constants.Exchange.COINBASE_PRO;
+import static org.junit.Assert.assertEquals;
+import static org.knowm.xchange.currency.CurrencyPair.BTC_USD;
+import static org.knowm.xchange.currency.CurrencyPair.ETH_BTC;
+import static org.knowm.xchange.currency.CurrencyPair.ETH_USD;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TriangularArbitragerTest {
+
+    Configuration config = Configuration.builder()
+            .nAngularArbitragerConfig(Configuration.NAngularArbitragerConfig.builder()
+                    .enabled(true)
+                    .minGain(new BigDecimal("0.001"))
+                    .dedupTtlMillis(60_000)
+                    .build())
+            .build();
+    SymbolRegistry symbolRegistry = new SymbolRegistry(Map.of(
+            BITFINEX, List.of(BTC_USD, ETH_USD, ETH_BTC),
+            COINBASE_PRO, List.of(BTC_USD, ETH_USD)));
+    @Mock
+    MetadataAggregator mockMetadataAggregator;
+    @Mock
+    TradeBuffer tradeBuffer;
+
+    TriangularArbitrager triangularArbitrager;
+
+    @Before
+    public void setup() {
+        triangularArbitrager = new TriangularArbitrager(config, mockMetadataAggregator, tradeBuffer, symbolRegistry);
+    }
+
+    private static CompactOrderBook book(CurrencyPair currencyPair, int priceScale, String ask, String bid) {
+        CompactOrderBook compactOrderBook = new CompactOrderBook(10);
+        compactOrderBook.fill(new OrderBook(new Date(),
+                List.of(new LimitOrder(Order.OrderType.ASK, BigDecimal.ONE, currencyPair, null, new Date(), new BigDecimal(ask))),
+                List.of(new LimitOrder(Order.OrderType.BID, BigDecimal.ONE, currencyPair, null, new Date(), new BigDecimal(bid)))),
+                priceScale);
+        return compactOrderBook;
+    }
+
+    @Test
+    public void cycleIndex_listsTrianglesTradedByExchange() {
+        TriangularCycleIndex cycleIndex = triangularArbitrager.getCycleIndex();
+
+        assertEquals(2, cycleIndex.getCycleCount()); // Both directions of BTC/USD, ETH/USD, ETH/BTC
+        for (CurrencyPair currencyPair : List.of(BTC_USD, ETH_USD, ETH_BTC)) {
+            assertEquals(2, cycleIndex.getCycles(BITFINEX, symbolRegistry.getPairId(currencyPair)).length);
+        }
+        assertEquals(0, cycleIndex.getCycles(COINBASE_PRO, symbolRegistry.getPairId(BTC_USD)).length);
+    }
+
+    @Test
+    public void upsertOrderBook_publishesProfitableCycle() {
+        TradingParameters.Builder builder = new TradingParameters.Builder(symbolRegistry);
+        for (CurrencyPair currencyPair : List.of(BTC_USD, ETH_USD, ETH_BTC)) {
+            MetadataAggregatorMocker.addTradingParameters(builder, BITFINEX, symbolRegistry.getPairId(currencyPair), BigDecimal.ZERO, BigDecimal.ZERO);
+        }
+        MetadataAggregatorMocker.setMockTradingParameters(mockMetadataAggregator, builder.build());
+
+        // USD -> BTC at 100, BTC -> ETH at 0.01, ETH -> USD at 1.1 returns 10%
+        triangularArbitrager.upsertOrderBook(BITFINEX, symbolRegistry.getPairId(BTC_USD), book(BTC_USD, 2, "100.00", "99.00"));
+        triangularArbitrager.upsertOrderBook(BITFINEX, symbolRegistry.getPairId(ETH_BTC), book(ETH_BTC, 4, "0.0100", "0.0099"));
+        verify(tradeBuffer, never()).insert(any(Trade.class), any(Trade.class), any(Trade.class));
+        triangularArbitrager.upsertOrderBook(BITFINEX, symbolRegistry.getPairId(ETH_USD), book(ETH_USD, 2, "1.20", "1.10"));
+
+        ArgumentCaptor<Trade> trade1 = ArgumentCaptor.forClass(Trade.class);
+        ArgumentCaptor<Trade> trade2 = ArgumentCaptor.forClass(Trade.class);
+        ArgumentCaptor<Trade> trade3 = ArgumentCaptor.forClass(Trade.class);
+        verify(tradeBuffer, times(1)).insert(trade1.capture(), trade2.capture(), trade3.capture());
+
+        assertEquals(ETH_BTC, trade1.getValue().getCurrencyPair());
+        assertEquals(Order.OrderType.BID, trade1.getValue().getOrderActionType());
+        assertEquals(0, new BigDecimal("1").compareTo(trade1.getValue().getAmount()));
+        assertEquals(ETH_USD, trade2.getValue().getCurrencyPair());
+        assertEquals(Order.OrderType.ASK, trade2.getValue().getOrderActionType());
+        assertEquals(0, new BigDecimal("1.10").compareTo(trade2.getValue().getPrice()));
+        assertEquals(BTC_USD, trade3.getValue().getCurrencyPair());
+        assertEquals(Order.OrderType.BID, trade3.getValue().getOrderActionType());
+        assertEquals(trade1.getValue().getUuid(), trade3.getValue().getUuid());
+
+        // Updates leaving the legs' top levels untouched do not publish the cycle again
+        triangularArbitrager.upsertOrderBook(BITFINEX, symbolRegistry.getPairId(ETH_USD), book(ETH_USD, 2, "1.20", "1.10"));
+        triangularArbitrager.upsertOrderBook(BITFINEX, symbolRegistry.getPairId(BTC_USD), book(BTC_USD, 2, "100.00", "98.00"));
+        verify(tradeBuffer, times(1)).insert(any(Trade.class), any(Trade.class), any(Trade.class));
+        assertEquals(2, triangularArbitrager.getSuppressedCount());
+
+        triangularArbitrager.upsertOrderBook(BITFINEX, symbolRegistry.getPairId(ETH_USD), book(ETH_USD, 2, "1.20", "1.11"));
+        verify(tradeBuffer, times(2)).insert(any(Trade.class), any(Trade.class), any(Trade.class));
+    }
+}
@@ -1,13 +1,19 @@
 package testUtils;
 
+import domain.SymbolRegistry;
+import domain.TradingParameters;
 import domain.constants.Exchange;
-import org.knowm.xchange.currency.Currency;
 import org.knowm.xchange.currency.CurrencyPair;
+import org.knowm.xchange.dto.account.AccountInfo;
 import org.knowm.xchange.dto.account.Balance;
 import org.knowm.xchange.dto.account.Fee;
+import org.knowm.xchange.dto.account.Wallet;
+import org.knowm.xchange.dto.meta.CurrencyPairMetaData;
+import services.BalanceLedger;
 import services.MetadataAggregator;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -18,6 +24,16 @@ public class MetadataAggregatorMocker {
         when(mockMetadataAggregator.getFees(exchange, currencyPair)).thenReturn(new Fee(makerFee, takerFee));
     }
 
+    public static void setMockTradingParameters(MetadataAggregator mockMetadataAggregator, TradingParameters tradingParameters) {
+        when(mockMetadataAggregator.getTradingParameters()).thenReturn(tradingParameters);
+    }
+
+    public static TradingParameters.Builder addTradingParameters(TradingParameters.Builder builder, Exchange exchange, int pairId, BigDecimal takerFee, BigDecimal minVolume) {
+        return builder
+                .fee(exchange, pairId, new Fee(takerFee, takerFee))
+                .metadata(exchange, pairId, new CurrencyPairMetaData(takerFee, minVolume, null, null, null));
+    }
+
     public static void setOrderMinimumVolume(MetadataAggregator mockMetadataAggregator, Exchange exchange, CurrencyPair currencyPair, BigDecimal minVolume) {
         when(mockMetadataAggregator.getMinimumOrderAmount(exchange, currencyPair)).thenReturn(minVolume);
     }
@@ -26,7 +42,15 @@ public class MetadataAggregatorMocker {
         when(mockMetadataAggregator.getPriceScale(exchange, currencyPair)).thenReturn(priceScale);
     }
 
-    public static void setMockBalance(MetadataAggregator mockMetadataAggregator, Exchange exchange, Currency currency, BigDecimal available) {
-        when(mockMetadataAggregator.getBalance(exchange, currency)).thenReturn(new Balance(currency, available, available));
+    public static BalanceLedger setMockBalanceLedger(MetadataAggregator mockMetadataAggregator, SymbolRegistry symbolRegistry) {
+        BalanceLedger balanceLedger = new BalanceLedger(symbolRegistry);
+        when(mockMetadataAggregator.getBalanceLedger()).thenReturn(balanceLedger);
+        when(mockMetadataAggregator.getSymbolRegistry()).thenReturn(symbolRegistry);
+        return balanceLedger;
+    }
+
+    /** Reconciles the exchange's balances as a REST refresh reporting only balances would. */
+    public static void setBalances(BalanceLedger balanceLedger, Exchange exchange, Balance... balances) {
+        balanceLedger.reconcile(exchange, new AccountInfo(Wallet.Builder.from(Arrays.asList(balances)).build()));
     }
 }
@@ -1,5 +1,6 @@
 package testUtils;
 
+import domain.CompactOrderBook;
 import org.knowm.xchange.currency.CurrencyPair;
 import org.knowm.xchange.dto.Order;
 import org.knowm.xchange.dto.marketdata.OrderBook;
@@ -59,4 +60,10 @@ public class OrderBookProvider {
 
         return new OrderBook(date, asks, bids);
     }
+
+    public static CompactOrderBook getCompactOrderBookFromCSV(int depth, int priceScale, String bidFileName, String askFileName) {
+        CompactOrderBook compactOrderBook = new CompactOrderBook(depth);
+        compactOrderBook.fill(getOrderBookFromCSV(null, new Date(), bidFileName, askFileName), priceScale);
+        return compactOrderBook;
+    }
 }
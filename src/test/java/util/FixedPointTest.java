@@ -0,0 +1,79 @@
+package util;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.junit.Assert.*;
+
+public class FixedPointTest {
+
+    @Test
+    public void toScaled_roundsAccordingToMode() {
+        assertEquals(2783340, FixedPoint.toScaled(new BigDecimal("27833.40"), 2, RoundingMode.DOWN));
+        assertEquals(2783341, FixedPoint.toScaled(new BigDecimal("27833.401"), 2, RoundingMode.CEILING));
+        assertEquals(2783340, FixedPoint.toScaled(new BigDecimal("27833.409"), 2, RoundingMode.FLOOR));
+        assertEquals(new BigDecimal("27833.40"), FixedPoint.toBigDecimal(2783340, 2));
+    }
+
+    @Test
+    public void rescale_upAndDown() {
+        assertEquals(2783340000L, FixedPoint.rescale(2783340, 2, 5));
+        assertEquals(27833, FixedPoint.rescale(2783340, 2, 0));
+        assertEquals(42, FixedPoint.rescale(42, 3, 3));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void rescale_overflowThrows() {
+        FixedPoint.rescale(Long.MAX_VALUE / 10, 0, 2);
+    }
+
+    @Test
+    public void compareProducts_exactBeyondLongRange() {
+        long a = 6_000_000_000_000L; // 60000.00000000 at scale 8
+        long b = 1_001_000_000L;
+        assertTrue(FixedPoint.compareProducts(a, b, a, b - 1) > 0);
+        assertTrue(FixedPoint.compareProducts(a, b - 1, a, b) < 0);
+        assertEquals(0, FixedPoint.compareProducts(a, b, b, a));
+    }
+
+    @Test
+    public void compareWideProducts_exactBeyond128Bits() {
+        // 2^64 + 5, times a factor near FACTOR_ONE
+        long high = 1L;
+        long low = 5L;
+        long factor = 1_001_000_000L;
+        assertTrue(FixedPoint.compareWideProducts(high, low, factor, high, low, factor - 1) > 0);
+        assertTrue(FixedPoint.compareWideProducts(high, low - 1, factor, high, low, factor) < 0);
+        assertEquals(0, FixedPoint.compareWideProducts(high, low, factor, high, low, factor));
+        // Low words at or above 2^63 are unsigned
+        assertTrue(FixedPoint.compareWideProducts(0L, -1L, 2L, 1L, 0L, 1L) > 0);
+        assertEquals(Long.MAX_VALUE - 1, FixedPoint.multiplyHighUnsigned(-1L, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void isProfitable_accountsForFeesAndMinGain() {
+        BigDecimal takerFee = new BigDecimal("0.002");
+        BigDecimal minGain = new BigDecimal("0.001");
+        long buyFactor = FixedPoint.buyFactor(takerFee, minGain);
+        long sellFactor = FixedPoint.sellFactor(takerFee);
+
+        // 100 * 1.002 * 1.001 / 0.998 = 100.501...
+        assertTrue(FixedPoint.isProfitable(10000, buyFactor, 10051, sellFactor));
+        assertFalse(FixedPoint.isProfitable(10000, buyFactor, 10050, sellFactor));
+    }
+
+    @Test
+    public void triggerFactor_neverRejectsProfitableCrossing() {
+        BigDecimal takerFee = new BigDecimal("0.002");
+        BigDecimal minGain = new BigDecimal("0.001");
+        long triggerFactor = FixedPoint.triggerFactor(takerFee, takerFee, minGain);
+
+        // 1.002 * 1.001 / 0.998 = 1.0050120240...
+        assertEquals(1_005_012_024L, triggerFactor);
+        assertTrue(FixedPoint.compareProducts(10051, FixedPoint.FACTOR_ONE, 10000, triggerFactor) >= 0);
+        assertTrue(FixedPoint.compareProducts(10050, FixedPoint.FACTOR_ONE, 10000, triggerFactor) < 0);
+        assertEquals(Long.MAX_VALUE, FixedPoint.triggerFactor(takerFee, BigDecimal.ONE, minGain));
+    }
+}
@@ -0,0 +1,38 @@
+package util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimingWheelTest {
+
+    @Test
+    public void advance_expiresKeysByLatestDeadline() {
+        TimingWheel timingWheel = new TimingWheel(4, 4, 10, 0);
+        List<Integer> expired = new ArrayList<>();
+
+        timingWheel.schedule(0, 25);
+        timingWheel.schedule(1, 100); // Beyond a full rotation
+        timingWheel.schedule(2, 30);
+        timingWheel.schedule(2, 70); // Moved before it came due
+        timingWheel.schedule(3, 20);
+        timingWheel.cancel(3);
+
+        timingWheel.advance(30, expired::add);
+        assertEquals(List.of(0), expired);
+        timingWheel.advance(69, expired::add);
+        assertEquals(List.of(0), expired);
+        timingWheel.advance(70, expired::add);
+        assertEquals(List.of(0, 2), expired);
+        timingWheel.advance(1_000, expired::add);
+        assertEquals(List.of(0, 2, 1), expired);
+
+        // Expired keys may be scheduled again
+        timingWheel.schedule(0, 1_005);
+        timingWheel.advance(1_010, expired::add);
+        assertEquals(List.of(0, 2, 1, 0), expired);
+    }
+}
@@ -0,0 +1,74 @@
+package util.task;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+
+public class CoalescingSchedulerTest {
+
+    /** Runs submitted tasks only when asked, so the test controls interleavings. */
+    private static class ManualExecutor implements java.util.concurrent.Executor {
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runNext() {
+            queue.poll().run();
+        }
+    }
+
+    @Test
+    public void schedule_absorbsRequestsWhileQueued() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Integer> runs = new ArrayList<>();
+        CoalescingScheduler scheduler = new CoalescingScheduler(executor, 2, runs::add);
+
+        scheduler.schedule(0);
+        scheduler.schedule(0);
+        scheduler.schedule(1);
+        scheduler.schedule(0);
+        assertEquals(2, executor.queue.size());
+        assertEquals(2, scheduler.getSkippedCount());
+
+        executor.runNext();
+        executor.runNext();
+        assertEquals(List.of(0, 1), runs);
+        assertEquals(0, executor.queue.size());
+    }
+
+    @Test
+    public void schedule_rerunsOnceWhenDirtiedWhileRunning() {
+        ManualExecutor executor = new ManualExecutor();
+        List<Integer> runs = new ArrayList<>();
+        CoalescingScheduler[] scheduler = new CoalescingScheduler[1];
+        scheduler[0] = new CoalescingScheduler(executor, 1, key -> {
+            runs.add(key);
+            if (runs.size() == 1) {
+                // Updates arriving mid-run
+                scheduler[0].schedule(key);
+                scheduler[0].schedule(key);
+            }
+        });
+
+        scheduler[0].schedule(0);
+        executor.runNext();
+        assertEquals(1, executor.queue.size());
+        assertEquals(2, scheduler[0].getSkippedCount());
+
+        executor.runNext();
+        assertEquals(List.of(0, 0), runs);
+        assertEquals(0, executor.queue.size());
+
+        // Idle again
+        scheduler[0].schedule(0);
+        assertEquals(1, executor.queue.size());
+    }
+}